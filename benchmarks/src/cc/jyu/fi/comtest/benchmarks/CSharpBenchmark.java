@@ -0,0 +1,70 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.ComTestException;
+import cc.jyu.fi.comtest.ComTestIni;
+import cc.jyu.fi.comtest.csharp.CSReader;
+import cc.jyu.fi.comtest.csharp.CSSourceFile;
+import cc.jyu.fi.comtest.csharp.ComTestProcessor;
+import cc.jyu.fi.comtest.utils.SourceText;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for reading C# files and generating the test file model.
+ * readText reads the same file from one buffer as it is read from
+ * disk; compare its allocation to read with -prof gc.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSharpBenchmark {
+    @Param({"10", "100"})
+    public int methods;
+
+    @Param({"5", "50"})
+    public int rows;
+
+    private Strings contents;
+    private String text;
+    private CSSourceFile source;
+
+    @Setup
+    public void setup() throws ComTestException {
+        contents = Corpus.csharpSource(methods, rows);
+        text = contents.toString("\n");
+        source = CSReader.read(contents);
+    }
+
+    @Benchmark
+    public CSSourceFile read() throws ComTestException {
+        return CSReader.read(contents);
+    }
+
+    @Benchmark
+    public CSSourceFile readText() throws ComTestException {
+        return CSReader.read(SourceText.of(text));
+    }
+
+    @Benchmark
+    public CSSourceFile process() throws ComTestException {
+        return new ComTestProcessor(new ComTestIni()).process(source);
+    }
+}
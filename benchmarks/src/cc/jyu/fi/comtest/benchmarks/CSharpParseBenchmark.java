@@ -0,0 +1,94 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.ComTestException;
+import cc.jyu.fi.comtest.csharp.CSLexer;
+import cc.jyu.fi.comtest.csharp.CSReader;
+import cc.jyu.fi.comtest.csharp.CSSourceFile;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse rates of the C# reader.  The file has attributes, generics,
+ * verbatim and interpolated strings, expression-bodied members and
+ * one initializer of as many lines as there are members, so the time
+ * of read should grow linearly with members.  lex only splits the
+ * lines to tokens.  The lines and chars counters of the rate
+ * benchmarks are reported per second.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSharpParseBenchmark {
+    @Param({"100", "1000"})
+    public int members;
+
+    private Strings contents;
+    private int chars;
+
+    /**
+     * Counts the lines and chars read
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rate {
+        public long lines;
+        public long chars;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+            chars = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        contents = Corpus.csharpModernSource(members);
+        chars = 0;
+        for (String line : contents) chars += line.length() + 1;
+    }
+
+    @Benchmark
+    public CSSourceFile read(Rate rate) throws ComTestException {
+        rate.lines += contents.size();
+        rate.chars += chars;
+        return CSReader.read(contents);
+    }
+
+    @Benchmark
+    public int lex(Rate rate) {
+        CSLexer lexer = new CSLexer();
+        int tokens = 0;
+        for (String line : contents) tokens += lexer.readLine(line);
+        rate.lines += contents.size();
+        rate.chars += chars;
+        return tokens;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public CSSourceFile readTime() throws ComTestException {
+        return CSReader.read(contents);
+    }
+}
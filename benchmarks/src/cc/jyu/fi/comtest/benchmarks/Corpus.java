@@ -0,0 +1,237 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic source files for the benchmarks.  The size of
+ * a corpus is controlled by the number of files, the number of methods
+ * with a test comment in each file and the number of rows in the test
+ * table of each method.
+ * @author vesal
+ */
+public final class Corpus {
+    private Corpus() {
+    }
+
+    /**
+     * Adds the ComTest comment of one method.
+     * @param lines where to add
+     * @param prefix comment prefix of each line
+     * @param m index of the method
+     * @param rows number of rows in the test table
+     */
+    private static void addTestComment(Strings lines, String prefix, int m, int rows) {
+        lines.add(prefix + "<pre name=\"test\">");
+        lines.add(prefix + "  String s = \"a | b; c === d\";");
+        lines.add(prefix + "  method" + m + "(1, 2) === 3; method" + m + "(0, 0) === 0;");
+        lines.add(prefix + "  method" + m + "(0.5, 0.25) ~~~ 0.75;");
+        lines.add(prefix + "  \"x\" + method" + m + "(1, 1) =R= \"x.*\";");
+        lines.add(prefix + "  method" + m + "($a, $b) === $c;");
+        lines.add(prefix + "    $a   | $b   | $c");
+        lines.add(prefix + "  ---------------------");
+        for (int r = 0; r < rows; r++) {
+            lines.add(prefix + "    " + r + "    | " + (r * 2) + "    | " + (r * 3));
+        }
+        lines.add(prefix + "</pre>");
+    }
+
+    /**
+     * Generates a Java source file.
+     * @param methods number of methods
+     * @param rows number of table rows per method
+     * @return contents of the file
+     */
+    public static Strings javaSource(int methods, int rows) {
+        return javaSource("Generated", methods, rows);
+    }
+
+    /**
+     * Writes Java source files to a tree, ten files to a directory.
+     * @param dir where to write, created if needed
+     * @param files number of files
+     * @param methods number of methods in each file
+     * @param rows number of table rows per method
+     * @return the files written
+     * @throws IOException if a file can not be written
+     */
+    public static List<File> writeJavaTree(File dir, int files, int methods, int rows) throws IOException {
+        List<File> written = new ArrayList<File>();
+        for (int f = 0; f < files; f++) {
+            File subdir = new File(dir, "p" + (f / 10));
+            if ( !subdir.isDirectory() && !subdir.mkdirs() ) throw new IOException("cannot create " + subdir);
+            File file = new File(subdir, "Generated" + f + ".java");
+            String text = javaSource("Generated" + f, methods, rows).toString("\n");
+            Files.write(file.toPath(), text.getBytes(Charset.forName("UTF-8")));
+            written.add(file);
+        }
+        return written;
+    }
+
+    /**
+     * Generates a Java source file.
+     * @param className name of the class
+     * @param methods number of methods
+     * @param rows number of table rows per method
+     * @return contents of the file
+     */
+    public static Strings javaSource(String className, int methods, int rows) {
+        Strings lines = new Strings();
+        lines.add("package bench;");
+        lines.add("");
+        lines.add("import java.util.List;");
+        lines.add("");
+        lines.add("/**");
+        lines.add(" * Generated benchmark class");
+        lines.add(" */");
+        lines.add("public class " + className + " {");
+        for (int m = 0; m < methods; m++) {
+            lines.add("    /**");
+            lines.add("     * Adds the numbers");
+            lines.add("     * @param a first number");
+            lines.add("     * @param b second number");
+            lines.add("     * @return sum");
+            lines.add("     * @example");
+            addTestComment(lines, "     * ", m, rows);
+            lines.add("     */");
+            lines.add("    public static double method" + m + "(double a, double b) {");
+            lines.add("        String s = \"{ not a block; }\";");
+            lines.add("        return a + b; // " + s(m));
+            lines.add("    }");
+            lines.add("");
+        }
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Generates a C# source file.
+     * @param methods number of methods
+     * @param rows number of table rows per method
+     * @return contents of the file
+     */
+    public static Strings csharpSource(int methods, int rows) {
+        Strings lines = new Strings();
+        lines.add("using System;");
+        lines.add("using System.Collections.Generic;");
+        lines.add("");
+        lines.add("namespace Bench");
+        lines.add("{");
+        lines.add("    public class Generated");
+        lines.add("    {");
+        for (int m = 0; m < methods; m++) {
+            lines.add("        /// <summary>Adds the numbers</summary>");
+            lines.add("        /// <example>");
+            addTestComment(lines, "        /// ", m, rows);
+            lines.add("        /// </example>");
+            lines.add("        public static double method" + m + "(double a, double b)");
+            lines.add("        {");
+            lines.add("            string s = \"{ not a block; }\";");
+            lines.add("            return a + b; // " + s(m));
+            lines.add("        }");
+            lines.add("");
+        }
+        lines.add("    }");
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Generates a C# source file with newer syntax: attributes with
+     * arguments, generic and expression-bodied members, verbatim and
+     * interpolated strings, and one initializer over many lines.
+     * @param members number of members of each kind
+     * @return contents of the file
+     */
+    public static Strings csharpModernSource(int members) {
+        Strings lines = new Strings();
+        lines.add("using System;");
+        lines.add("using static System.Math;");
+        lines.add("");
+        lines.add("namespace Bench.Modern;");
+        lines.add("");
+        lines.add("[Serializable, DebuggerDisplay(\"{Name} [{Count}]\")]");
+        lines.add("public sealed class Store<K, V> where K : class");
+        lines.add("{");
+        lines.add("    private static readonly int[] Table = {");
+        for (int m = 0; m < members; m++) lines.add("        " + m + ", " + (m * 2) + ",");
+        lines.add("    };");
+        for (int m = 0; m < members; m++) {
+            lines.add("    private const string Sql" + m + " = @\"select { a; }");
+            lines.add("        from \"\"t" + m + "\"\";\";");
+            lines.add("    /// <pre name=\"test\">");
+            lines.add("    ///   Twice" + m + "(" + m + ") === " + (2 * m) + ";");
+            lines.add("    /// </pre>");
+            lines.add("    [Obsolete(\"use { Other }\")] public static int Twice" + m + "(int x) => x * 2;");
+            lines.add("    /// <pre name=\"test\">");
+            lines.add("    ///   new Store<string, int>().Get" + m + "<int>(\"a\", 1) === 1;");
+            lines.add("    /// </pre>");
+            lines.add("    public T Get" + m + "<T>(Dictionary<K, List<V>> d, T fallback = default) where T : struct");
+            lines.add("    {");
+            lines.add("        var s = $\"{fallback}: {(d == null ? \"}\" : \"{\")}\";");
+            lines.add("        Func<int, int> f = x => { return x; };");
+            lines.add("        return fallback;");
+            lines.add("    }");
+            lines.add("    public int Count" + m + " { get => Table.Length; }");
+        }
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Generates a C# project file like the ones of Visual Studio 2010.
+     * @param files number of Compile items, and of references
+     * @return contents of the file
+     */
+    public static Strings csprojSource(int files) {
+        Strings lines = new Strings();
+        lines.add("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        lines.add("<Project ToolsVersion=\"4.0\" DefaultTargets=\"Build\" xmlns=\"http://schemas.microsoft.com/developer/msbuild/2003\">");
+        lines.add("  <PropertyGroup>");
+        lines.add("    <Configuration Condition=\" '$(Configuration)' == '' \">Debug</Configuration>");
+        lines.add("    <ProjectGuid>{11111111-2222-3333-4444-555555555555}</ProjectGuid>");
+        lines.add("    <OutputType>Library</OutputType>");
+        lines.add("    <RootNamespace>Bench</RootNamespace>");
+        lines.add("    <AssemblyName>Bench</AssemblyName>");
+        lines.add("    <TargetFrameworkVersion>v4.0</TargetFrameworkVersion>");
+        lines.add("  </PropertyGroup>");
+        lines.add("  <ItemGroup>");
+        for (int f = 0; f < files; f++) {
+            lines.add("    <Reference Include=\"Lib" + f + "\">");
+            lines.add("      <HintPath>..\\lib\\Lib" + f + ".dll</HintPath>");
+            lines.add("    </Reference>");
+        }
+        lines.add("  </ItemGroup>");
+        lines.add("  <ItemGroup>");
+        for (int f = 0; f < files; f++) lines.add("    <Compile Include=\"Dir" + (f % 10) + "\\File" + f + ".cs\" />");
+        lines.add("  </ItemGroup>");
+        lines.add("  <Import Project=\"$(MSBuildToolsPath)\\Microsoft.CSharp.targets\" />");
+        lines.add("</Project>");
+        return lines;
+    }
+
+    /**
+     * Generates lines of code with quotes and separators, as found
+     * in the test comments.
+     * @param count number of lines
+     * @return generated lines
+     */
+    public static Strings codeLines(int count) {
+        Strings lines = new Strings();
+        for (int i = 0; i < count; i++) {
+            lines.add("get(request, new String[]{\"str;\", \"id}\"}, " + i + ", true) === " + s(i) + "; if ( a < " + i + " ) { b ~~~ 3.0; } else c =R= \"x|y\";");
+        }
+        return lines;
+    }
+
+    private static String s(int i) {
+        return "\"value " + i + "\"";
+    }
+}
@@ -0,0 +1,108 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.BaseComTestScanner;
+import cc.jyu.fi.comtest.ComTestIni;
+import cc.jyu.fi.comtest.utils.SourceReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for a corpus of many Java files on disk.  Every file is
+ * read with SourceReader and scanned, and its test file is written,
+ * like ComTest does for a directory.  scanFiles does the files one
+ * after another and scanFilesParallel spreads them over one worker
+ * for each processor, like ComTest -j.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorpusBenchmark {
+    @Param({"10", "100"})
+    public int files;
+
+    @Param({"10"})
+    public int methods;
+
+    @Param({"5", "50"})
+    public int rows;
+
+    private File dir;
+    private List<File> sources;
+    private ExecutorService workers;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = File.createTempFile("comtest", "corpus");
+        if ( !dir.delete() || !dir.mkdirs() ) throw new IOException("cannot create " + dir);
+        sources = Corpus.writeJavaTree(dir, files, methods, rows);
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if ( files != null ) for (File f : files) delete(f);
+        file.delete();
+    }
+
+    private static int scan(File source) {
+        BaseComTestScanner scanner =
+            new cc.jyu.fi.comtest.java.ComTestScanner(new ComTestIni(), SourceReader.readText(source.getPath()));
+        return scanner.scan(source.getPath()).length();
+    }
+
+    @Benchmark
+    public int scanFiles() {
+        int n = 0;
+        for (File source : sources) n += scan(source);
+        return n;
+    }
+
+    @Benchmark
+    public int scanFilesParallel() throws InterruptedException, ExecutionException {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (final File source : sources) {
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return scan(source);
+                }
+            });
+        }
+        int n = 0;
+        for (Future<Integer> result : workers.invokeAll(tasks)) n += result.get();
+        return n;
+    }
+}
@@ -0,0 +1,93 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.ComTestException;
+import cc.jyu.fi.comtest.csharp.CSProjectFile;
+import cc.jyu.fi.comtest.csharp.CSProjectFileReader;
+import cc.jyu.fi.comtest.csharp.CSProjectFileWriter;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Reading and updating a large C# project file.  read and update use
+ * the StAX reader and the patching writer, readDom and updateDom do
+ * the same with a DOM document and a transformer, like the project
+ * files were handled before.  An update adds one source file, removes
+ * another and writes the file.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectFileBenchmark {
+    @Param({"100", "5000"})
+    public int files;
+
+    private Strings contents;
+    private String text;
+
+    @Setup
+    public void setup() {
+        contents = Corpus.csprojSource(files);
+        text = contents.toString("\n");
+    }
+
+    @Benchmark
+    public CSProjectFile read() throws ComTestException {
+        return CSProjectFileReader.read(contents);
+    }
+
+    @Benchmark
+    public Strings update() throws ComTestException {
+        CSProjectFile project = CSProjectFileReader.read(contents);
+        project.addSourceFile("Added.cs");
+        project.removeSourceFile("Dir0\\File0.cs");
+        return CSProjectFileWriter.write(project);
+    }
+
+    @Benchmark
+    public Document readDom() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(text)));
+    }
+
+    @Benchmark
+    public int updateDom() throws Exception {
+        Document doc = readDom();
+        NodeList compiles = doc.getElementsByTagName("Compile");
+        Element first = (Element)compiles.item(0);
+        Element added = doc.createElement("Compile");
+        added.setAttribute("Include", "Added.cs");
+        first.getParentNode().appendChild(added);
+        first.getParentNode().removeChild(first);
+        StringWriter dest = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(dest));
+        return dest.getBuffer().length();
+    }
+}
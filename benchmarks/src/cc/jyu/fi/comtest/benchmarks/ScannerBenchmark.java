@@ -0,0 +1,99 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.BaseComTestScanner;
+import cc.jyu.fi.comtest.ComTestIni;
+import cc.jyu.fi.comtest.utils.SourceText;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static cc.jyu.fi.comtest.ComTestSyntax.STARTOFTEST;
+
+/**
+ * Benchmarks for scanning Java files: the whole scan including the
+ * output of the test file, and readCode for the test blocks only.
+ * scanText scans the same file from one buffer as it is read from
+ * disk; compare its allocation to scan with -prof gc.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"10", "100"})
+    public int methods;
+
+    @Param({"5", "50"})
+    public int rows;
+
+    private Strings contents;
+    private String text;
+    private File dir;
+    private File source;
+    private List<Integer> testStarts;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        contents = Corpus.javaSource(methods, rows);
+        text = contents.toString("\n");
+        dir = File.createTempFile("comtest", "bench");
+        if ( !dir.delete() || !dir.mkdirs() ) throw new IOException("cannot create " + dir);
+        source = new File(dir, "Generated.java");
+        testStarts = new ArrayList<Integer>();
+        for (int i = 0; i < contents.size(); i++)
+            if ( contents.get(i).indexOf(STARTOFTEST) >= 0 ) testStarts.add(i);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if ( files != null ) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public String scan() {
+        BaseComTestScanner scanner = new cc.jyu.fi.comtest.java.ComTestScanner(new ComTestIni(), contents);
+        return scanner.scan(source.getPath());
+    }
+
+    @Benchmark
+    public String scanText() {
+        BaseComTestScanner scanner = new cc.jyu.fi.comtest.java.ComTestScanner(new ComTestIni(), SourceText.of(text));
+        return scanner.scan(source.getPath());
+    }
+
+    @Benchmark
+    public int readCode() throws IOException {
+        cc.jyu.fi.comtest.java.ComTestScanner scanner =
+            new cc.jyu.fi.comtest.java.ComTestScanner(new ComTestIni(), contents);
+        scanner.findNames(source.getPath());
+        for (int start : testStarts) {
+            BaseComTestScanner.CommentCodeHandler handler = scanner.createCommentCodeHandler();
+            handler.readCode(start);
+        }
+        return scanner.getBody().length();
+    }
+}
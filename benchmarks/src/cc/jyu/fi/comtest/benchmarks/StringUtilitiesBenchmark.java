@@ -0,0 +1,88 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.ComTestSyntax;
+import cc.jyu.fi.comtest.ComTestVariables;
+import cc.jyu.fi.comtest.utils.QuotedLine;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static cc.jyu.fi.comtest.utils.StringUtilities.QUOTES;
+import static cc.jyu.fi.comtest.utils.StringUtilities.indexOfNotInQuotes;
+
+/**
+ * Benchmarks for the quote aware string functions used for
+ * every line of the test comments.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilitiesBenchmark {
+    @Param({"100", "10000"})
+    public int lines;
+
+    private Strings code;
+
+    @Setup
+    public void setup() {
+        code = Corpus.codeLines(lines);
+    }
+
+    @Benchmark
+    public int indexOfNotInQuotesMarkers() {
+        int sum = 0;
+        for (String s : code) {
+            sum += indexOfNotInQuotes(s, "~~~", QUOTES);
+            sum += indexOfNotInQuotes(s, "===", QUOTES);
+            sum += indexOfNotInQuotes(s, "=R=", QUOTES);
+            sum += indexOfNotInQuotes(s, " | ", QUOTES);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int quotedLineMarkers() {
+        int sum = 0;
+        for (String s : code) {
+            QuotedLine line = new QuotedLine(s, QUOTES);
+            sum += line.indexOf("~~~");
+            sum += line.indexOf("===");
+            sum += line.indexOf("=R=");
+            sum += line.indexOf(" | ");
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int operatorMatcher() {
+        int sum = 0;
+        for (String s : code) {
+            for (int p : ComTestVariables.DEFAULTS.OPERATORS.indexesOf(s)) sum += p;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int splitToSentences() {
+        int sum = 0;
+        for (String s : code) sum += ComTestSyntax.splitToSentences(s).size();
+        return sum;
+    }
+}
@@ -0,0 +1,114 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.benchmarks;
+
+import cc.jyu.fi.comtest.ComTestException;
+import cc.jyu.fi.comtest.ComTestIni;
+import cc.jyu.fi.comtest.ComTestTable;
+import cc.jyu.fi.comtest.ComTestTemplate;
+import cc.jyu.fi.comtest.csharp.CSReader;
+import cc.jyu.fi.comtest.csharp.CSSourceFile;
+import cc.jyu.fi.comtest.csharp.ComTestProcessor;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static cc.jyu.fi.comtest.ComTestSyntax.STARTOFTEST;
+
+/**
+ * Benchmarks for expanding large test tables.  render and
+ * renderByReplace expand a table of eight columns with the compiled
+ * template and with the old replace and delete loop.  javaTable and
+ * csharpTable run the whole Java and C# pipelines on one method with
+ * a large table.
+ * @author vesal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    private static final int COLUMNS = 8;
+
+    @Param({"100", "2000"})
+    public int rows;
+
+    private Strings fragments;
+    private Strings vars;
+    private ComTestTable table;
+    private Strings javaContents;
+    private int javaStart;
+    private CSSourceFile csSource;
+    private final StringBuilder out = new StringBuilder();
+
+    @Setup
+    public void setup() throws ComTestException {
+        vars = new Strings();
+        for (int c = 0; c < COLUMNS; c++) vars.add("$v" + c);
+        fragments = new Strings();
+        fragments.add("    ");
+        for (int c = 0; c < COLUMNS; c += 2) {
+            fragments.add("assertEquals(\"line #LINE#\", $v" + (c + 1) + ", f($v" + c + "))");
+            fragments.add(";");
+        }
+        fragments.add("\n");
+        table = new ComTestTable(vars);
+        for (int r = 0; r < rows; r++) {
+            Strings row = new Strings();
+            for (int c = 0; c < COLUMNS; c++) row.add("" + (r * COLUMNS + c));
+            table.addRow(row);
+        }
+
+        javaContents = Corpus.javaSource(1, rows);
+        for (int i = 0; i < javaContents.size(); i++)
+            if ( javaContents.get(i).indexOf(STARTOFTEST) >= 0 ) javaStart = i;
+        csSource = CSReader.read(Corpus.csharpSource(1, rows));
+    }
+
+    @Benchmark
+    public int render() {
+        ComTestTemplate template = new ComTestTemplate(fragments, vars, "---");
+        out.setLength(0);
+        for (int r = 0; r < rows; r++) template.render(table, r, "" + (r + 1), out);
+        return out.length();
+    }
+
+    @Benchmark
+    public int renderByReplace() {
+        out.setLength(0);
+        for (int r = 0; r < rows; r++) {
+            Strings cmds = fragments.clone();
+            for (int c = 0; c < COLUMNS; c++) cmds.replace(vars.get(c), table.get(c, r));
+            for (String s : cmds) out.append(s.replace("#LINE#", "" + (r + 1)));
+        }
+        return out.length();
+    }
+
+    @Benchmark
+    public int javaTable() throws IOException {
+        cc.jyu.fi.comtest.java.ComTestScanner scanner =
+            new cc.jyu.fi.comtest.java.ComTestScanner(new ComTestIni(), javaContents);
+        scanner.findNames("Generated.java");
+        scanner.createCommentCodeHandler().readCode(javaStart);
+        return scanner.getBody().length();
+    }
+
+    @Benchmark
+    public CSSourceFile csharpTable() throws ComTestException {
+        return new ComTestProcessor(new ComTestIni()).process(csSource);
+    }
+}
@@ -1,14 +1,19 @@
 package cc.jyu.fi.comtest;
 
+import cc.jyu.fi.comtest.metrics.Metrics;
+import cc.jyu.fi.comtest.utils.SourceText;
 import cc.jyu.fi.comtest.utils.Strings;
+import cc.jyu.fi.comtest.utils.TextSlice;
 
 import java.util.Calendar;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.FileWriter;
+import java.io.StringWriter;
+import java.util.List;
 
 import static cc.jyu.fi.comtest.ComTestSyntax.*;
+import static cc.jyu.fi.comtest.utils.FileUtilities.writeIfChanged;
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
 
 /**
@@ -17,9 +22,19 @@ import static cc.jyu.fi.comtest.utils.StringUtilities.*;
  */
 public abstract class BaseComTestScanner {
     protected static final String JAVAIMPORT = "import ";
-    protected final Strings contents;
-    protected final Strings imports = new Strings();
+    /** lines of the source, copied to strings only when needed */
+    protected final SourceText contents;
+    protected final ComTestImports imports = new ComTestImports();
+    /** lines before the test methods, all lines with \n */
     protected Strings outlines = null;
+    /** import lines written to outlines before the line importsAt, all lines with \n */
+    protected final Strings importLines = new Strings();
+    /** index of outlines where importLines are written, -1 if no imports */
+    protected int importsAt = -1;
+    /** test methods, streamed as they are produced */
+    protected StringBuilder body = new StringBuilder();
+    /** true while createTestFileBegin adds lines to outlines instead of body */
+    private boolean inHeader = false;
     protected boolean needsStaticImport = false;
     protected boolean needsClassImport = false;
     protected String className = null;
@@ -32,29 +47,59 @@ public abstract class BaseComTestScanner {
     //protected String directory = null;
     protected int printedTableLines = 0;
     protected ComTestIni ini;
+    /** Syntax variables of this file, changed by #NAME=value lines in the comments */
+    protected ComTestVariables syntax;
+    /** Was the test file written by scan or was it already up to date */
+    protected boolean written = false;
+    /** Number of test blocks found by scan */
+    protected int testMethods = 0;
+    /** Time used by the phases of scan */
+    protected final ComTestTimings timings = new ComTestTimings();
 
     /**
      * Constructs the new ComTestScanner from stringlist contents
      * @param ini configuration file
-     * @param contents where to scan the comment tests
+     * @param contents where to scan the comment tests, Strings or SourceText
      */
-    public BaseComTestScanner(ComTestIni ini, Strings contents) {
+    public BaseComTestScanner(ComTestIni ini, List<String> contents) {
         this.ini = ini;
-        this.contents = contents;
+        this.syntax = ini.variables;
+        this.contents = SourceText.of(contents);
         outlines = new Strings();
     }
 
-    public Strings getImports() { return imports; }
+    public ComTestImports getImports() { return imports; }
+
+    /**
+     * @return true if the last scan wrote the test file, false if
+     *         the file was already up to date
+     */
+    public boolean isWritten() { return written; }
+
+    /** @return number of test methods generated by the last scan */
+    public int getTestMethods() { return testMethods; }
+
+    /** @return time used by the phases of the last scan */
+    public ComTestTimings getTimings() { return timings; }
 
     /**
      * This method is just for testing purposes to return
      * current outlines.
-     * @return current outlines.
+     * @return lines before the test methods
      */
     public Strings getOutlines() {
         return outlines;
     }
 
+    /**
+     * This method is just for testing purposes to return
+     * the output made by the comment handlers.
+     * @return the test methods made so far
+     */
+    public StringBuilder getBody() {
+        return body;
+    }
+
     /**
      * This factory method is just for testing purposes
      * @return a new handler
@@ -62,19 +107,30 @@ public abstract class BaseComTestScanner {
     public abstract CommentCodeHandler createCommentCodeHandler();
 
     /**
-     * Add string s to outlines
+     * Add string s to outlines in createTestFileBegin, otherwise to body
      * @param s
      */
     protected void addOut(String s) {
-        outlines.add(s);
+        if ( inHeader ) outlines.add(s);
+        else body.append(s);
     }
 
     /**
-     * Add string s to outlines with new line
+     * Add text s to outlines in createTestFileBegin, otherwise to body
+     * @param s text to add
+     */
+    protected void addOut(CharSequence s) {
+        if ( inHeader ) outlines.add(s.toString());
+        else body.append(s);
+    }
+
+    /**
+     * Add string s with new line, see addOut
      * @param s
      */
     protected void addOutln(String s) {
-        outlines.add(s+"\n");
+        if ( inHeader ) outlines.add(s+"\n");
+        else body.append(s).append('\n');
     }
 
     /**
@@ -95,28 +151,11 @@ public abstract class BaseComTestScanner {
      */
     protected void addOut(Strings list, String sep, String target, String replacement) {
         if ( list.size() == 0 ) return;
-        for (int i=0; i<list.size();i++)
-            addOut(list.get(i).replace(target, replacement)+sep);
-    }
-
-    /**
-     * Deletes from the list all lines that contains target
-     * outside of quotes and comments
-     * @param list   where to delete
-     * @param target what is condition for delete
-     * @return the list itself
-     */
-    private Strings delete(Strings list, String target, String quotes) {
-       int ir,iw = 0;
-       for (ir=0; ir<list.size(); ir++) {
-           String s = list.get(ir);
-           int p = indexOfNotInQuotes(s, target, quotes);
-           int pc = indexOfNotInQuotes(s, "//", quotes);
-           // int p = s.indexOf(target);
-           if ( p < 0 || ( 0 <= pc  && pc < p ) ) list.set(iw++, s);
-       }
-       if ( ir != iw ) list.removeRange(iw,ir);
-       return list;
+        for (int i=0; i<list.size();i++) {
+            String s = list.get(i).replace(target, replacement);
+            if ( inHeader ) outlines.add(s+sep);
+            else body.append(s).append(sep);
+        }
     }
 
     /**
@@ -130,6 +169,19 @@ public abstract class BaseComTestScanner {
         addOut(list,"",target,replacement);
     }
 
+    /**
+     * Checks if s changes any syntax variable.  If it does, the change
+     * is applied to the variables of this file only.
+     * @param s line to check
+     * @return true if s was a variable line, false otherwise
+     */
+    protected boolean checkVariables(String s) {
+        ComTestVariables changed = syntax.apply(s);
+        if ( changed == null ) return false;
+        syntax = changed;
+        return true;
+    }
+
     /**
      * Adds imports from configuration file.
      */
@@ -144,7 +196,7 @@ public abstract class BaseComTestScanner {
             imports.add(JAVAIMPORT + originalPackageName + ".*;");
         }
 
-        imports.add(JAVAIMPORT, ini.imports, "");
+        for (String s : ini.imports) imports.add(JAVAIMPORT + s);
     }
 
     /**
@@ -153,7 +205,7 @@ public abstract class BaseComTestScanner {
      * @param list    stringlist to print
      * @param sep     string to separate items
      */
-    protected void println(PrintWriter out, Strings list, String sep) {
+    protected void println(PrintWriter out, List<String> list, String sep) {
         for (String s:list) out.print(s+sep);
     }
 
@@ -165,7 +217,7 @@ public abstract class BaseComTestScanner {
      * @param target  string that is replaced
      * @param replacement string by what to replace
      */
-    protected void println(PrintWriter out, Strings list, String sep, String target, String replacement) {
+    protected void println(PrintWriter out, List<String> list, String sep, String target, String replacement) {
         for (String s:list) out.print(s.replace(target, replacement)+sep);
     }
 
@@ -271,9 +323,11 @@ public abstract class BaseComTestScanner {
      * @param contents where to find
      * @return true if found
      */
-    protected boolean findPackage(Strings contents) {
+    protected boolean findPackage(SourceText contents) {
         String pack;
-        for (String s:contents) {
+        for (int i = 0; i < contents.size(); i++) {
+            if ( contents.line(i).indexOf("package") < 0 ) continue;
+            String s = contents.get(i);
             if ( indexOfNotInQuotes(s, "package") >= 0 ) {
                 pack = removeFromBegining(s,"package").trim();
                 pack = removeAllAfter(pack,";").trim();
@@ -287,18 +341,18 @@ public abstract class BaseComTestScanner {
     }
 
     /**
-    * Adds the line s+"\n" to outlines if it is not there already.
-    * The line "is there" if trim of it starts with s
-    * @param i place to add if not already there
-    * @param s line to add if not found
-    * @return next place to add so i+1 if added, i if not
-    */
-   protected int addIfNotAllready(int i,String s) {
-       for ( String st:outlines )
-           if ( st.trim().startsWith(s ) ) return i;
-       outlines.add(i,s+"\n");
-       return i+1;
-   }
+     * Writes the test file: outlines with importLines at importsAt
+     * and then the body.  Nothing is inserted to the lists.
+     * @param out where to write
+     * @throws IOException if out fails
+     */
+    protected void writeTestFile(Appendable out) throws IOException {
+        int at = importsAt < 0 ? outlines.size() : Math.min(importsAt, outlines.size());
+        for (int i = 0; i < at; i++) out.append(outlines.get(i));
+        for (String s : importLines) out.append(s);
+        for (int i = at; i < outlines.size(); i++) out.append(outlines.get(i));
+        out.append(body);
+    }
 
     protected abstract void addImports();
 
@@ -318,21 +372,39 @@ public abstract class BaseComTestScanner {
         PrintWriter out = null;
         boolean status = false;
         try {
+            timings.start();
             findNames(fileName);
             findPackage(contents);
             getIniImports();
+            timings.end(ComTestTimings.Phase.NAMES);
 
-            createTestFileBegin();
+            body.setLength(0);
+            importLines.clear();
+            importsAt = -1;
+            inHeader = true;
+            try {
+                createTestFileBegin();
+            } finally {
+                inHeader = false;
+            }
+            timings.end(ComTestTimings.Phase.BEGIN);
             createTestFileInner();
             createTestFileEnd();
+            timings.end(ComTestTimings.Phase.INNER);
             addImports();
+            timings.end(ComTestTimings.Phase.IMPORTS);
 
             //checkFileNameOnceAgain(fileName);
 
-            status = new File(outDirName).mkdirs();
-            out = new PrintWriter(new FileWriter(outFileName));
+            StringWriter text = new StringWriter(body.length() + 4096);
+            out = new PrintWriter(text);
             addHeader(out);
-            println(out,outlines,"");
+            writeTestFile(out);
+            out.flush();
+
+            status = new File(outDirName).mkdirs();
+            written = writeIfChanged(text.toString(), outFileName, contents.getCharset());
+            timings.end(ComTestTimings.Phase.WRITE);
             return outFileName;
         } catch (IOException e) {
             String s = "";
@@ -375,6 +447,15 @@ public abstract class BaseComTestScanner {
         protected final Strings startOfLine = new Strings();
         protected final Strings endOfLine = new Strings();
         protected String methodThrows = "";
+        /** template compiled for the current table, null if not yet */
+        protected ComTestTemplate compiledTemplate = null;
+        /** rows of the current table */
+        protected ComTestTable table = null;
+        private int compiledSize = -1;
+        private Strings compiledVars = null;
+        private ComTestVariables compiledSyntax = null;
+        /** reused for writing the rows of a table */
+        private final StringBuilder row = new StringBuilder();
 
         public Strings getTemplate() { return template; }
 
@@ -400,7 +481,7 @@ public abstract class BaseComTestScanner {
          * a sequence number is used.
          * This is very unfinished and works only for nice code
          * where the method name and type is on the same line.
-         * @param contents where to find the name
+         * @param lines where to find the name
          * @param lineNr where to start
          * @return test method name
          * @example
@@ -424,7 +505,8 @@ public abstract class BaseComTestScanner {
          *   t.codeHandler.tryToFindMethodName(s1,0) === "testAnotherClassName1";
          * </pre>
          */
-        public String tryToFindMethodName(Strings contents, int lineNr) { // NOPMD by vesal on 13.1.2008 15:29
+        public String tryToFindMethodName(List<String> lines, int lineNr) { // NOPMD by vesal on 13.1.2008 15:29
+            SourceText contents = SourceText.of(lines);
             String autoNumber = ""+(lineNr+1);
             String name;
             String type="";
@@ -432,7 +514,7 @@ public abstract class BaseComTestScanner {
             boolean isClass = false;
             boolean inComment = true;
             for ( int i=lineNr; i<contents.size(); i++ ) {
-                StringBuilder sb = new StringBuilder(contents.get(i));
+                StringBuilder sb = new StringBuilder(contents.line(i));
                 removeAllAfter(sb, "//"); trim(sb);
                 if ( sb.length() == 0 ) continue;
                 if ( indexOfNotInQuotes(sb,"/*") >= 0 ) { inComment = true; continue; }
@@ -476,11 +558,11 @@ public abstract class BaseComTestScanner {
          * @return line without THROWS sentence
          */
         protected String checkMethodThrows(String s) {
-            int p = indexOfNotInQuotes(s, THROWSMARKER);
+            int p = indexOfNotInQuotes(s, syntax.THROWSMARKER);
             if ( p < 0 ) return s;
             String sentence = remove(s.substring(0,p),"*").trim();
             if ( sentence.length() > 0 ) return s;
-            String exception = s.substring(p+THROWSMARKER.length()).trim();
+            String exception = s.substring(p+syntax.THROWSMARKER.length()).trim();
             methodThrows = "throws " + exception + " ";
             return sentence;
         }
@@ -639,12 +721,30 @@ public abstract class BaseComTestScanner {
          * </pre>
          */
         public boolean isTableLine(String s) {
-            if ( indexOfNotInQuotes(s,COLUMNSEPARATOR) >= 0 ) return true;
-            if ( s.startsWith(COLUMNCHAR) ) return true;
-            if ( s.endsWith(COLUMNCHAR) ) return true;
+            if ( indexOfNotInQuotes(s,syntax.COLUMNSEPARATOR) >= 0 ) return true;
+            if ( s.startsWith(syntax.COLUMNCHAR) ) return true;
+            if ( s.endsWith(syntax.COLUMNCHAR) ) return true;
             return false;
         }
 
+        /**
+         * Returns the template compiled for the current table.
+         * The template is compiled again if it, the header of the
+         * table or the syntax variables have changed.
+         * @return compiled template
+         */
+        protected ComTestTemplate getCompiledTemplate() {
+            if ( compiledTemplate == null || compiledSize != template.size() ||
+                 compiledVars != vars || compiledSyntax != syntax ) {
+                compiledTemplate = new ComTestTemplate(template, vars, syntax.DELETESENTENCEMARKER);
+                if ( table == null || compiledVars != vars ) table = new ComTestTable(vars);
+                compiledSize = template.size();
+                compiledVars = vars;
+                compiledSyntax = syntax;
+            }
+            return compiledTemplate;
+        }
+
         /**
          * Handles lines like     "  $s        |  $what |  $result"
          * or                     " "aab"      |  "a"   |  "ab"  "
@@ -658,28 +758,25 @@ public abstract class BaseComTestScanner {
         protected void handleTableLine(String line) { // NOPMD by vesal on 13.1.2008 15:29
             String s = line;
             if ( template.size() == 0 ) return; // No use of table if no template
-            if ( s.startsWith(COLUMNCHAR) ) s = s.substring(1);
-            if ( s.endsWith(COLUMNCHAR) ) s = s.substring(1,s.length()-1);
+            if ( s.startsWith(syntax.COLUMNCHAR) ) s = s.substring(1);
+            if ( s.endsWith(syntax.COLUMNCHAR) ) s = s.substring(1,s.length()-1);
             if ( vars == null ) { // || indexOfNotInQuotes(s, TEMPLATELINEMARKER ) >= 0 ) {
-                vars = splitBy(s,COLUMNSEPARATOR,COLUMNSEPARATOR.length(),true);
+                vars = splitBy(s,syntax.COLUMNSEPARATOR,syntax.COLUMNSEPARATOR.length(),true);
                 return;
             }
-            values = splitBy(s,COLUMNSEPARATOR,COLUMNSEPARATOR.length(),true);
-            Strings cmds = template.clone();
-            for (int v=0; v<values.size(); v++ ) {
-                if ( v >= vars.size() ) break;
-                String value = values.get(v).trim();
-                String var = vars.get(v).trim();
-                if ( value.equals(DELETESENTENCEMARKER) ) delete(cmds,var,"");
-                else cmds.replace(var, value);
-            }
+            values = splitBy(s,syntax.COLUMNSEPARATOR,syntax.COLUMNSEPARATOR.length(),true);
             if ( everyLineInits ) outFooter(lineNr+1);
-            delete(cmds, "$", QUOTES);  // remove sentences with $ outside ""
-            deleteLastNewLine(cmds);
-            cmds.addAll(0, startOfLine);
-            cmds.add(endOfLine);
-            outWithHeader(cmds,LINENUMBERMARKER, ""+(lineNr+1));
-            printedTableLines += cmds.size();
+            String nr = ""+(lineNr+1);
+            row.setLength(0);
+            for (String st:startOfLine) row.append(st.replace(LINENUMBERMARKER, nr));
+            ComTestTemplate compiled = getCompiledTemplate();
+            table.addValues(values);
+            int n = compiled.render(table, table.numRows()-1, nr, row);
+            for (String st:endOfLine) row.append(st.replace(LINENUMBERMARKER, nr));
+            if ( !methodHeaderPrinted ) outNewHeader();
+            addOut(row);
+            printedTableLines += startOfLine.size() + n + endOfLine.size();
+            Metrics.TABLEROWS.increment();
 
             if ( everyLineInits )
                 outFooter(lineNr+1);
@@ -702,6 +799,23 @@ public abstract class BaseComTestScanner {
         }
 
 
+        /**
+         * Counts the assertion generated for the operator found.
+         * The operators are checked in the same order as in
+         * handleSentences, so the first one found was used.
+         * @param found result of syntax.OPERATORS.indexesOf
+         */
+        protected void countAssertion(int[] found) {
+            for (int k = 0; k < found.length; k++) {
+                if ( found[k] < 0 ) continue;
+                if ( k < 2 ) Metrics.ALMOSTASSERTIONS.increment();
+                else if ( k < 4 ) Metrics.EQUALSASSERTIONS.increment();
+                else Metrics.REGEXASSERTIONS.increment();
+                return;
+            }
+        }
+
+
         /**
          * Check if line is pseudo comment /.* or  *./
          * @return comments handled or s
@@ -742,11 +856,12 @@ public abstract class BaseComTestScanner {
 
                     if ( ( s.charAt(0)== '@' ) && !jUnitAnnotate(s) ) return lineNr;
                     s = handleAnnotationInComments(s);
-                    if ( ComTestIni.checkVariables(s)) continue;
+                    if ( checkVariables(s) ) continue;
 
                     if ( s.indexOf(STARTOFTEST) >= 0 ) {
                         checkMethodThrows(contents.get(lineNr+1));
                         createHeaderAndFooter(s);
+                        testMethods++;
                         continue;
                     }
 
@@ -754,14 +869,14 @@ public abstract class BaseComTestScanner {
 
                     if ( indexOfNotInQuotes(s, SEPARATORLINE) >= 0 ) continue;
 
-                    if ( indexOfNotInQuotes(s, INITLINE) >= 0 ) { // new init
-                        if ( vars == null && EVERYLINEINITS1.equals(INITLINE) ) everyLineInits = true;
+                    if ( indexOfNotInQuotes(s, syntax.INITLINE) >= 0 ) { // new init
+                        if ( vars == null && syntax.EVERYLINEINITS1.equals(syntax.INITLINE) ) everyLineInits = true;
                         else outFooter(lineNr+1);
                         continue;
                     }
 
-                    if ( indexOfNotInQuotes(s, EVERYLINEINITS1) >= 0 ||
-                         indexOfNotInQuotes(s, EVERYLINEINITS2) >= 0 ) {
+                    if ( indexOfNotInQuotes(s, syntax.EVERYLINEINITS1) >= 0 ||
+                         indexOfNotInQuotes(s, syntax.EVERYLINEINITS2) >= 0 ) {
                         everyLineInits = true;
                         continue;
                     }
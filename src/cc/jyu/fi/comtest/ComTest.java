@@ -2,13 +2,37 @@
 package cc.jyu.fi.comtest;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
 
 import cc.jyu.fi.comtest.csharp.*;
+import cc.jyu.fi.comtest.metrics.Metrics;
+import cc.jyu.fi.comtest.metrics.MetricsRegistry;
+import cc.jyu.fi.comtest.utils.SourceReader;
+import cc.jyu.fi.comtest.utils.SourceText;
 import cc.jyu.fi.comtest.utils.Strings;
 
 import java.util.ArrayList;
@@ -46,6 +70,18 @@ public class ComTest {
         //boolean forceLanguage = false;
         //Language forcedLanguage = Language.Unknown;
         List<FileEntry> files = new ArrayList<FileEntry>();
+        int jobs = 1;
+        String cacheFile = null;
+        String reportJson = null;
+        String reportXml = null;
+        int daemonPort = 0;
+        int remotePort = 0;
+        List<String> remoteArgs = new ArrayList<String>();
+        boolean watch = false;
+        boolean metrics = false;
+        ComTestFileFinder finder = null;
+        /** Files found from the trees, filled while processing */
+        List<FileEntry> found = Collections.synchronizedList(new ArrayList<FileEntry>());
 
         public FileEntry addFile(String fileName, Language language)
         {
@@ -71,6 +107,72 @@ public class ComTest {
         }
     }
 
+    /**
+     * Console output of one processed entry. In parallel mode every
+     * entry writes to its own buffer, which is printed as a whole
+     * when the entry is done, so that lines of different files
+     * are never mixed.
+     */
+    private static class Output {
+        private final ByteArrayOutputStream buffer;
+        final PrintStream out;
+        int indent = 0;
+
+        /**
+         * Creates an output writing directly to a stream
+         * @param out stream to write to
+         */
+        public Output(PrintStream out) {
+            this.buffer = null;
+            this.out = out;
+        }
+
+        /**
+         * Creates an output collecting everything to a buffer
+         */
+        public Output() {
+            this.buffer = new ByteArrayOutputStream();
+            this.out = new PrintStream(buffer, true);
+        }
+
+        /**
+         * Creates an output collecting everything to a buffer, for
+         * an entry nested in another one
+         * @param parent output of the enclosing entry
+         */
+        public Output(Output parent) {
+            this();
+            this.indent = parent.indent;
+        }
+
+        /**
+         * Writes the buffered output to a stream
+         * @param dest stream to write to
+         */
+        public void writeTo(PrintStream dest) {
+            if ( buffer == null ) return;
+            out.flush();
+            dest.write(buffer.toByteArray(), 0, buffer.size());
+            dest.flush();
+        }
+    }
+
+    /**
+     * A source file of a C# project, or a project of a solution,
+     * with the status output and the result of processing it.
+     */
+    private static class NestedEntry {
+        final FileEntry entry;
+        final String outName;
+        Output output;
+        ComTestResult result;
+
+        NestedEntry(FileEntry entry, String outName) {
+            this.entry = entry;
+            this.outName = outName;
+        }
+    }
+
     /**
      * Supported languages.
      */
@@ -84,11 +186,43 @@ public class ComTest {
     	CsharpSolution
     }
 
-    private static Map<String, ComTestIni> iniFiles = new HashMap<String, ComTestIni>();
+    private static ComTestIniCache iniFiles = new ComTestIniCache(100);
+
+    /** Workers of a run with -j, null when the files are processed one after another */
+    private static ForkJoinPool workers = null;
     
-    private static int globalIndent = 0;
+    /** Files skipped by the check for tests, and the time used for them */
+    private static final AtomicInteger skippedFiles = new AtomicInteger();
+    private static final AtomicLong skippedNanos = new AtomicLong();
+    /** Source files fully processed, and the time used for them */
+    private static final AtomicInteger processedFiles = new AtomicInteger();
+    private static final AtomicLong processedNanos = new AtomicLong();
+
+    private static final AtomicInteger errors = new AtomicInteger();
+
+    /** Files processed and the time used for them, by language */
+    private static final Metrics.Counter[] languageFiles = new Metrics.Counter[Language.values().length];
+    private static final Metrics.Histogram[] languageTimes = new Metrics.Histogram[Language.values().length];
+
+    static {
+        for (Language language : Language.values()) {
+            languageFiles[language.ordinal()] = Metrics.counter("files." + language.name());
+            languageTimes[language.ordinal()] = Metrics.histogram("fileTime." + language.name());
+        }
+    }
+
+    private static final String DEFAULTCACHEFILE = "ComTest.cache";
+
+    private static ComTestCache cache = null;
 
-    private static int errors = 0;
+    /** Report of the current run, null if not asked */
+    private static ComTestReport report = null;
+
+    /** Files generated in this run, which must not be taken as sources when watching */
+    private static Set<String> outputs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Loaded caches by file name, kept between the runs of a daemon */
+    private static Map<String, ComTestCache> caches = new HashMap<String, ComTestCache>();
 
     private static ArgumentInfo parseArguments(String[] args)
     {
@@ -98,16 +232,139 @@ public class ComTest {
 
         ArgumentInfo argInfo = new ArgumentInfo();
         for (String filename : args) {
+            if (filename.startsWith("-d")) {
+                argInfo.daemonPort = parsePort(filename.substring(2));
+                if (argInfo.daemonPort < 1) return null;
+                continue;
+            }
+            if (filename.startsWith("-r")) {
+                argInfo.remotePort = parsePort(filename.substring(2));
+                if (argInfo.remotePort < 1) return null;
+                continue;
+            }
+            if (filename.equals("--watch")) {
+                argInfo.watch = true;
+                continue;
+            }
+            if (filename.startsWith("--report-json=")) {
+                argInfo.reportJson = filename.substring("--report-json=".length());
+                argInfo.remoteArgs.add(filename);
+                continue;
+            }
+            if (filename.startsWith("--report-xml=")) {
+                argInfo.reportXml = filename.substring("--report-xml=".length());
+                argInfo.remoteArgs.add(filename);
+                continue;
+            }
+            argInfo.remoteArgs.add(filename);
+            if (filename.equals("--metrics")) {
+                argInfo.metrics = true;
+                continue;
+            }
+            if (filename.startsWith("-j")) {
+                argInfo.jobs = parseJobs(filename.substring(2));
+                if (argInfo.jobs < 1) return null;
+                continue;
+            }
+            if (filename.startsWith("-c")) {
+                argInfo.cacheFile = filename.length() > 2 ? filename.substring(2) : DEFAULTCACHEFILE;
+                continue;
+            }
+            if (filename.startsWith("-i") || filename.startsWith("-x")) {
+                if (filename.length() == 2) return null;
+                if (argInfo.finder == null) argInfo.finder = new ComTestFileFinder();
+                if (filename.startsWith("-i")) argInfo.finder.include(filename.substring(2));
+                else argInfo.finder.exclude(filename.substring(2));
+                continue;
+            }
+            if (ComTestFileFinder.isTree(filename)) {
+                if (argInfo.finder == null) argInfo.finder = new ComTestFileFinder();
+                argInfo.finder.addTree(filename);
+                continue;
+            }
         	Language language = detectLanguage(filename);
         	argInfo.addFile(filename, language);
         }
 
+        if (argInfo.finder != null && argInfo.finder.getBases().isEmpty()) {
+            // -i and -x without a directory
+            argInfo.finder = null;
+        }
+
+        if (argInfo.files.isEmpty() && argInfo.finder == null && argInfo.daemonPort == 0) {
+            return null;
+        }
+
         return argInfo;
     }
 
+    /**
+     * Parses the port given with -d or -r option.
+     * @param value the port, empty for the default port
+     * @return port number, 0 if invalid
+     * @example
+     * <pre name="test">
+     * parsePort("") === ComTestDaemon.DEFAULTPORT;
+     * parsePort("8000") === 8000;
+     * parsePort("70000") === 0;
+     * parsePort("x") === 0;
+     * </pre>
+     */
+    public static int parsePort(String value) {
+        if (value.length() == 0) {
+            return ComTestDaemon.DEFAULTPORT;
+        }
+        try {
+            int port = Integer.parseInt(value);
+            return 0 < port && port < 65536 ? port : 0;
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses the worker count given with -j option.
+     * @param value the count, empty for all available processors
+     * @return number of workers, 0 if invalid
+     * @example
+     * <pre name="test">
+     * parseJobs("4") === 4;
+     * parseJobs("") === Runtime.getRuntime().availableProcessors();
+     * parseJobs("x") === 0;
+     * parseJobs("-2") === 0;
+     * </pre>
+     */
+    public static int parseJobs(String value) {
+        if (value.length() == 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
     private static void usage() {
-        System.out.println("Run: java comtest.ComTest filenames ");
-        System.out.println("or: java -jar comtest.jar filenames");
+        System.out.println("Run: java comtest.ComTest [options] filenames ");
+        System.out.println("or: java -jar comtest.jar [options] filenames");
+        System.out.println();
+        System.out.println("Options:");
+        System.out.println("  -j[N]  process files in parallel with N workers (default: number of processors)");
+        System.out.println("         (also the projects of a C# solution and the source files of a C# project)");
+        System.out.println("  -c[FILE]  skip files not changed since the last run, remembered in FILE (default: " + DEFAULTCACHEFILE + ")");
+        System.out.println("  -d[PORT]  run as a daemon that keeps the settings in memory (default port: " + ComTestDaemon.DEFAULTPORT + ")");
+        System.out.println("  -r[PORT]  let a running daemon process the files, or process them here if there is none");
+        System.out.println("            (-r " + ComTestDaemon.STOP + " stops the daemon)");
+        System.out.println("  --watch   process the files, then keep processing the changed ones");
+        System.out.println("  --report-json=FILE  write the results and times of the files as JSON Lines");
+        System.out.println("  --report-xml=FILE   write the results and times of the files as JUnit-style XML");
+        System.out.println("  --metrics  count files, tests, bytes and times, print them and publish them with JMX");
+        System.out.println("  -iGLOB    process only the files found from directories that match GLOB");
+        System.out.println("  -xGLOB    skip the files and directories that match GLOB");
+        System.out.println();
+        System.out.println("Instead of a file, a directory or a pattern like src/**/*.java can be given.");
+        System.out.println("Files named like XTest.java next to X.java are not searched for tests.");
         System.out.println();
         System.out.println("Supported languages are: Java, C, C++, C#, C# projects and solutions");
         System.out.println("The language is automatically detected based upon filename's extension.");
@@ -119,54 +376,75 @@ public class ComTest {
      * @param fileEntry File to process
      * @param outName File to create
      * @param rootPath Path the file name is relative to (null if none)
+     * @param output Where to print the status information
      * @return Result of the operation
      */
-    private static ComTestResult printAndProcessFile(FileEntry entry, String outName, String rootPath)
+    private static ComTestResult printAndProcessFile(FileEntry entry, String outName, String rootPath, Output output)
     {
         String relIn = relativePath(entry.fileName, rootPath);
         String relOut = relativePath(outName, rootPath);
+        PrintStream out = output.out;
 
-        System.out.print(repeat("  ", globalIndent));
-        System.out.print(relIn);
-        System.out.print(" (");
-        System.out.print(entry.language.name());
-        System.out.print(")");
+        out.print(repeat("  ", output.indent));
+        out.print(relIn);
+        out.print(" (");
+        out.print(entry.language.name());
+        out.print(")");
+
+        ComTestReport.Entry entryReport = new ComTestReport.Entry();
+        entryReport.inFile = entry.fileName;
+        entryReport.outFile = outName;
+        entryReport.language = entry.language.name();
+        long start = System.nanoTime();
 
         try {
-            ComTestResult result = processFile(entry, outName);
+            ComTestResult result = processFile(entry, outName, output, entryReport);
+            entryReport.result = result;
+            if ( outName != null ) outputs.add(canonicalName(outName));
             if (result instanceof ComTestResult.Success ) {
-                System.out.print(" => ");
-                System.out.print(relOut);
-                System.out.println(" ok");
+                out.print(" => ");
+                out.print(relOut);
+                out.println(" ok");
             } else if ( result instanceof ComTestResult.SkippedAsGood || result instanceof ComTestResult.SkippedAsBad ) {
-                System.out.println(" || skipped: " + result.getMessage());
-            } else if ( result instanceof ComTestResult.Fail ) {
-                System.out.println(" !! error: " + result.getMessage());
+                out.println(" || skipped: " + result.getMessage());
             } else if ( result instanceof ComTestResult.InternalError ) {
-                System.out.println(" !* INTERNAL ERROR: " + result.getMessage());
+                errors.incrementAndGet();
+                out.println(" !* INTERNAL ERROR: " + result.getMessage());
+            } else if ( result instanceof ComTestResult.Fail ) {
+                errors.incrementAndGet();
+                out.println(" !! error: " + result.getMessage());
             }
             
             return result;
 
         } catch ( Throwable t ) {
-            System.out.println( " !* INTERNAL ERROR: " + t.getClass() );
+            errors.incrementAndGet();
+            out.println( " !* INTERNAL ERROR: " + t.getClass() );
             for ( StackTraceElement el : t.getStackTrace() ) {
                 if ( el.isNativeMethod() ) continue;
-                System.out.println( String.format("      at %s, line %d, method %s", el.getFileName(), el.getLineNumber(), el.getMethodName()) );
+                out.println( String.format("      at %s, line %d, method %s", el.getFileName(), el.getLineNumber(), el.getMethodName()) );
             }
+            entryReport.result = new ComTestResult.InternalError(t.toString());
             return new ComTestResult.SkippedAsBad( "internal error" );
+        } finally {
+            entryReport.totalNanos = System.nanoTime() - start;
+            languageFiles[entry.language.ordinal()].increment();
+            languageTimes[entry.language.ordinal()].record(entryReport.totalNanos);
+            if ( outName != null && entryReport.result instanceof ComTestResult.Success )
+                entryReport.outBytes = new File(outName).length();
+            if ( report != null ) report.add(entryReport);
         }
     }
 
-    private static void startIndentedBlock() {
-        globalIndent++;
-        System.out.println(" {");
+    private static void startIndentedBlock(Output output) {
+        output.indent++;
+        output.out.println(" {");
     }
 
-    private static void endIndentedBlock() {
-        globalIndent--;
-        System.out.print(repeat("  ", globalIndent));
-        System.out.print("}");
+    private static void endIndentedBlock(Output output) {
+        output.indent--;
+        output.out.print(repeat("  ", output.indent));
+        output.out.print("}");
     }
 
     private static String getOutFileName(FileEntry entry)
@@ -192,16 +470,62 @@ public class ComTest {
     }
 
     /**
-     * Process the file and make a unit test
+     * Process the file and make a unit test.  The status of nested
+     * files is printed to System.out.
      * @param entry file to process
      * @param outName the name of the file to generate
      * @return Result of the process
      */
     public static ComTestResult processFile(FileEntry entry, String outName)
+    {
+        return processFile(entry, outName, new Output(System.out), new ComTestReport.Entry());
+    }
+
+    /**
+     * Process the file and make a unit test.  A source file without
+     * test blocks is skipped without scanning it, unless it still has
+     * a test file from the time it had tests.
+     * @param entry file to process
+     * @param outName the name of the file to generate
+     * @param output where to print the status of nested files
+     * @param report where to collect the sizes and times of the file
+     * @return Result of the process
+     */
+    private static ComTestResult processFile(FileEntry entry, String outName, Output output, ComTestReport.Entry report)
+    {
+        String fileName = entry.fileName;
+        Language language = entry.language;
+
+        boolean source = language == Language.Java || language == Language.C ||
+                         language == Language.CPP || language == Language.Csharp;
+        long start = System.nanoTime();
+        report.timings.start();
+        // a test file made before the last test block was removed has to be rewritten
+        boolean oldTests = outName != null && new File(outName).exists();
+        if (source && !oldTests && !SourceReader.mayContain(fileName, ComTestSyntax.STARTOFTEST)) {
+            report.timings.end(ComTestTimings.Phase.READ);
+            report.inBytes = new File(fileName).length();
+            skippedFiles.incrementAndGet();
+            skippedNanos.addAndGet(System.nanoTime() - start);
+            return new ComTestResult.SkippedAsBad("no tests");
+        }
+
+        ComTestResult result = processContents(entry, outName, output, report);
+        if (source && result instanceof ComTestResult.Success) {
+            processedFiles.incrementAndGet();
+            processedNanos.addAndGet(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    private static ComTestResult processContents(FileEntry entry, String outName, Output output, ComTestReport.Entry report)
     {
         String fileName = entry.fileName;
         Language language = entry.language;
-        Strings contents = getFileContents(fileName);
+        SourceText contents = SourceReader.readText(fileName);
+        report.timings.end(ComTestTimings.Phase.READ);
+        report.inBytes = new File(fileName).length();
+        if (contents != null) report.inLines = contents.size();
 
         if (contents == null) {
             return new ComTestResult.SkippedAsBad("file not found");
@@ -212,40 +536,70 @@ public class ComTest {
 
         String inDir = findDirectory(fileName);
         ComTestIni ini = getIniFile(inDir);
+
+        switch (language) {
+        	case CsharpProject:
+            	return processCsProject(fileName, contents.toStrings(), contents.getCharset(), outName, output);
+        	case CsharpSolution:
+        		return processCsSolution(fileName, entry.subentries, contents.toStrings(), contents.getCharset(), output);
+        	case Unknown:
+        		return new ComTestResult.InternalError("unknown language in processFile!");
+        	default:
+        		break;
+        }
+
+        String key = null;
+        if (cache != null) {
+            key = ComTestCache.hash(contents, language.name() + "\n" + ini.getSettings(), outName);
+            if (cache.isUnchanged(fileName, key, outName)) {
+                return new ComTestResult.SkippedAsGood("unchanged");
+            }
+        }
+
+        ComTestResult result = processSourceFile(fileName, language, contents, outName, ini, report);
+        if (key != null && result instanceof ComTestResult.Success) {
+            cache.put(fileName, key);
+        }
+        return result;
+    }
+
+    private static ComTestResult processSourceFile(String fileName, Language language, SourceText contents, String outName,
+                                                   ComTestIni ini, ComTestReport.Entry report)
+    {
         BaseComTestScanner scanner;
 
         switch (language) {
         	case Java:
         		scanner = new cc.jyu.fi.comtest.java.ComTestScanner(ini, contents);
-        		scanner.scan(fileName);
-        		return new ComTestResult.Success("OK");
+        		break;
         	case C:
         		scanner = new cc.jyu.fi.comtest.c.ComTestScanner(ini, contents);
-        		scanner.scan(fileName);
-        		return new ComTestResult.Success("OK");
+        		break;
         	case CPP:
         		scanner = new cc.jyu.fi.comtest.cpp.ComTestScanner(ini, contents);
-        		scanner.scan(fileName);
-        		return new ComTestResult.Success("OK");
+        		break;
         	case Csharp:
-        		return processCsFile(contents, outName, ini);
-        	case CsharpProject:
-            	return processCsProject(fileName, contents, outName);
-        	case CsharpSolution:
-        		return processCsSolution(fileName, entry.subentries, contents);
+        		return processCsFile(contents, outName, ini, report);
         	default:
         		return new ComTestResult.InternalError("unknown language in processFile!");
         }
+
+        scanner.scan(fileName);
+        report.timings.add(scanner.getTimings());
+        report.testMethods = scanner.getTestMethods();
+        return new ComTestResult.Success("OK");
     }
 
-    private static ComTestResult processCsFile(Strings contents, String outName, ComTestIni ini) {
+    private static ComTestResult processCsFile(SourceText contents, String outName, ComTestIni ini, ComTestReport.Entry report) {
         CSSourceFile source;
 
+        report.timings.start();
         try {
             source = CSReader.read(contents);
         } catch ( ComTestException cte ) {
             return new ComTestResult.Fail("could not read file - " + cte.getMessage());
         }
+        report.timings.end(ComTestTimings.Phase.NAMES);
 
         ComTestProcessor comtestProc = new ComTestProcessor(ini);
         CSSourceFile tests;
@@ -258,15 +612,20 @@ public class ComTest {
         } catch ( ComTestException cte ) {
             return new ComTestResult.Fail("could not process file - " + cte.getMessage());
         }
+        report.timings.end(ComTestTimings.Phase.INNER);
+        for ( CSSourceFile.Namespace ns : tests.namespaces.values() )
+            for ( CSSourceFile.Class cl : ns.classes.values() )
+                report.testMethods += cl.methods.size();
 
         Strings dest = CSWriter.write(tests);
         makeDirsForFile(outName);
-        writeToFile(dest, outName);
+        writeToFile(dest, outName, contents.getCharset());
+        report.timings.end(ComTestTimings.Phase.WRITE);
 
         return new ComTestResult.Success("OK", tests);
     }
 
-    private static ComTestResult processCsProject(String fileName, Strings contents, String outName) {
+    private static ComTestResult processCsProject(String fileName, Strings contents, Charset charset, String outName, Output output) {
         String inDir = findDirectory(fileName);
         String outDir = findDirectory(outName);
         CSProjectFile projfile;
@@ -306,17 +665,20 @@ public class ComTest {
             } catch (ComTestException cte) {}
         }
 
+        // Only adding or removing test files below makes the project modified
+        testProject.setModified(false);
+
         List<String> sourceFiles = projfile.getSourceFiles();
-        List<String> testFiles = testProject.getSourceFiles();
-        boolean modified = false;
         int goodFiles = 0;
 
         if ( sourceFiles.size() > 0 ) {
             // Create the test project directory
             makeDirs(outDir);
 
-            startIndentedBlock();
+            startIndentedBlock(output);
 
+            List<NestedEntry> nested = new ArrayList<NestedEntry>();
+            Strings relTestFiles = new Strings();
             for ( String relSourceFile : sourceFiles ) {
                 // Process all source files in project
                 String sourceFile = addPath( inDir, relSourceFile );
@@ -324,34 +686,38 @@ public class ComTest {
                 String testFile = addPath( outDir, relTestFile );
 
                 FileEntry sourceEntry = new FileEntry(sourceFile, detectLanguage(sourceFile));
-                ComTestResult testRes = printAndProcessFile(sourceEntry, testFile, outDir);
+                nested.add(new NestedEntry(sourceEntry, testFile));
+                relTestFiles.add(relTestFile);
+            }
+            processNested(nested, outDir, output);
+
+            // Merge the results in the order of the project
+            for ( int i = 0; i < nested.size(); i++ ) {
+                String relTestFile = relTestFiles.get(i);
+                ComTestResult testRes = nested.get(i).result;
 
                 boolean goodFile = (
                     testRes instanceof ComTestResult.Success ||
                     testRes instanceof ComTestResult.SkippedAsGood
                 );
-                boolean inProject = testFiles.contains(relTestFile);
+                boolean inProject = testProject.hasSourceFile(relTestFile);
 
                 if ( goodFile ) goodFiles++;
 
-                if ( goodFile && !inProject ) {
+                if ( goodFile && !inProject )
                     testProject.addSourceFile(relTestFile);
-                    modified = true;
-                }
-                else if ( !goodFile && inProject ) {
+                else if ( !goodFile && inProject )
                     testProject.removeSourceFile(relTestFile);
-                    modified = true;
-                }
             }
 
-            endIndentedBlock();
+            endIndentedBlock(output);
         }
 
         if ( goodFiles == 0 ) {
             return new ComTestResult.SkippedAsBad("no tests");
         }
 
-        if ( !modified ) {
+        if ( !testProject.isModified() ) {
             // No files to add or remove, do not create the project
             return new ComTestResult.SkippedAsGood("no changes", testProject);
         }
@@ -359,7 +725,7 @@ public class ComTest {
         // Write the test project file
         try {
             Strings dest = CSProjectFileWriter.write(testProject);
-            writeToFile(dest, outName);
+            writeToFile(dest, outName, charset);
         } catch (ComTestException cte) {
             return new ComTestResult.Fail("could not write test project - " + cte.getMessage());
         }
@@ -378,7 +744,7 @@ public class ComTest {
         return new ComTestResult.Success("OK", testProject);
     }
 
-    private static Language detectLanguage(String filename) {
+    static Language detectLanguage(String filename) {
     	String filenameExtension = IoUtil.getExtension(filename);
     	Language language = Language.Unknown;
         
@@ -402,7 +768,7 @@ public class ComTest {
 		return language;
 	}
 
-	private static ComTestResult processCsSolution(String fileName, Strings projects, Strings contents) {
+	private static ComTestResult processCsSolution(String fileName, Strings projects, Strings contents, Charset charset, Output output) {
         String slnDir = findDirectory(fileName);
         boolean modified = false;
 
@@ -410,7 +776,7 @@ public class ComTest {
         String backupName = fileName + ".ctbackup";
         File backupFile = new File(backupName);
         if ( !backupFile.exists() )
-            writeToFile(contents, backupName);
+            writeToFile(contents, backupName, charset);
 
         // Read the solution
         CSSolutionFile slnFile = CSSolutionReader.read(contents);
@@ -418,13 +784,13 @@ public class ComTest {
             return new ComTestResult.Fail("Could not open the solution file.");
         }
         
-        startIndentedBlock();
+        startIndentedBlock(output);
 
         // Take a snapshot of projects to process
-        HashSet<CSSolutionFile.ProjectEntry> oldProjects;
-        oldProjects = new HashSet<CSSolutionFile.ProjectEntry>( slnFile.projects );
+        List<CSSolutionFile.ProjectEntry> oldProjects = new ArrayList<CSSolutionFile.ProjectEntry>();
+        List<NestedEntry> nested = new ArrayList<NestedEntry>();
 
-        for ( CSSolutionFile.ProjectEntry projEntry : oldProjects ) {
+        for ( CSSolutionFile.ProjectEntry projEntry : slnFile.projects ) {
             String absFileName = addPath(slnDir, projEntry.fileName);
 
             // Process all projects
@@ -433,33 +799,40 @@ public class ComTest {
                     continue;
 
                 FileEntry projectEntry = new FileEntry( absFileName, Language.CsharpProject );
-                String testProjName = getOutFileName(projectEntry);
-
-                ComTestResult testRes = printAndProcessFile(projectEntry, testProjName, slnDir);
-
-                boolean goodProject = (
-                    testRes instanceof ComTestResult.Success ||
-                    testRes instanceof ComTestResult.SkippedAsGood
-                );
-                boolean inSolution =
-                    slnFile.getProjectByName(projEntry.assemblyName + "Test") != null;
-                    //slnFile.getProjectByName(lastTestProjectFile.getAssemblyName()) != null;
-
-                String relProjName = relativePath(testProjName, slnDir);
-
-                if ( goodProject && !inSolution ) {
-                    CSProjectFile testProject = (CSProjectFile)testRes.getObject();
-                    slnFile.addProject(testProject, relProjName);
-                    modified = true;
-                }
-                else if ( !goodProject && inSolution ) {
-                    slnFile.removeProject(relProjName);
-                    modified = true;
-                }
+                oldProjects.add(projEntry);
+                nested.add(new NestedEntry(projectEntry, getOutFileName(projectEntry)));
+            }
+        }
+        processNested(nested, slnDir, output);
+
+        // Merge the results in the order of the snapshot
+        for ( int i = 0; i < nested.size(); i++ ) {
+            CSSolutionFile.ProjectEntry projEntry = oldProjects.get(i);
+            String testProjName = nested.get(i).outName;
+            ComTestResult testRes = nested.get(i).result;
+
+            boolean goodProject = (
+                testRes instanceof ComTestResult.Success ||
+                testRes instanceof ComTestResult.SkippedAsGood
+            );
+            boolean inSolution =
+                slnFile.getProjectByName(projEntry.assemblyName + "Test") != null;
+                //slnFile.getProjectByName(lastTestProjectFile.getAssemblyName()) != null;
+
+            String relProjName = relativePath(testProjName, slnDir);
+
+            if ( goodProject && !inSolution ) {
+                CSProjectFile testProject = (CSProjectFile)testRes.getObject();
+                slnFile.addProject(testProject, relProjName);
+                modified = true;
+            }
+            else if ( !goodProject && inSolution ) {
+                slnFile.removeProject(relProjName);
+                modified = true;
             }
         }
 
-        endIndentedBlock();
+        endIndentedBlock(output);
 
         if ( !modified ) {
             // No files to add or remove, do not rewrite the solution
@@ -468,30 +841,488 @@ public class ComTest {
 
         // Write back the modified solution
         Strings dest = CSSolutionWriter.write(slnFile);
-        writeToFile(dest, fileName);
+        writeToFile(dest, fileName, charset);
         return new ComTestResult.Success("OK", slnFile);
     }
 
-    private static ComTestIni getIniFile(String dir) {
-        if ( iniFiles.containsKey(dir) )
-            return iniFiles.get(dir);
+    /**
+     * Processes the source files of a project or the projects of a
+     * solution.  With workers the entries are processed in parallel,
+     * each printing to its own buffer, and the buffers are printed in
+     * the order of the entries, so the console output and the results
+     * are the same as when processing one after another.  Entries with
+     * the same output file are processed in order by one task, so the
+     * last of them writes the file last.
+     * @param entries entries to process, the results are set to them
+     * @param rootPath path the file names are printed relative to
+     * @param output where to print the status information
+     */
+    private static void processNested(List<NestedEntry> entries, final String rootPath, Output output) {
+        if ( workers == null || entries.size() < 2 ) {
+            for ( NestedEntry nested : entries )
+                nested.result = printAndProcessFile(nested.entry, nested.outName, rootPath, output);
+            return;
+        }
+
+        Map<String, List<NestedEntry>> byOutName = new LinkedHashMap<String, List<NestedEntry>>();
+        for ( NestedEntry nested : entries ) {
+            nested.output = new Output(output);
+            String key = canonicalName(nested.outName);
+            List<NestedEntry> same = byOutName.get(key);
+            if ( same == null ) {
+                same = new ArrayList<NestedEntry>();
+                byOutName.put(key, same);
+            }
+            same.add(nested);
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for ( final List<NestedEntry> same : byOutName.values() ) {
+            tasks.add(ForkJoinTask.adapt(new Runnable() {
+                public void run() {
+                    for ( NestedEntry nested : same )
+                        nested.result = printAndProcessFile(nested.entry, nested.outName, rootPath, nested.output);
+                }
+            }));
+        }
+
+        if ( ForkJoinTask.getPool() == workers ) {
+            // Inside a worker, help with the tasks while waiting for them
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            workers.invoke(new RecursiveAction() {
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+
+        for ( NestedEntry nested : entries ) nested.output.writeTo(output.out);
+    }
+
+    /**
+     * Forgets the ini files of directory and its subdirectories,
+     * so that they are read again when needed.
+     * @param dir directory whose ini file has changed
+     */
+    private static void forgetIniFiles(String dir) {
+        iniFiles.invalidate(canonicalName(dir));
+    }
+
+    private static String canonicalName(String fileName) {
+        File file = new File(fileName);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ioe) {
+            return file.getAbsolutePath();
+        }
+    }
 
-        if ( iniFiles.size() >= 10 ) {
-            // This is to limit how many ini files are cached simultaneously
-            String keyToRemove = null;
-            for ( String key : iniFiles.keySet() ) {
-                keyToRemove = key;
-                break;
+    /**
+     * Checks if file is under dir and uses the ComTest.ini of dir,
+     * so there is no ComTest.ini between them.
+     * @param fileName file to check
+     * @param dir directory of the ini file
+     * @return true if the ini governs the file
+     */
+    private static boolean governedBy(String fileName, String dir) {
+        File top = new File(dir);
+        for (File d = new File(fileName).getParentFile(); d != null; d = d.getParentFile()) {
+            if ( d.equals(top) ) return true;
+            if ( new File(d, ComTestSyntax.COMTESTINI).exists() ) return false;
+        }
+        return false;
+    }
+
+    private static boolean isInside(String fileName, String dir) {
+        return fileName.startsWith(dir + File.separator);
+    }
+
+    /**
+     * Keeps processing the files that change.  A given source file is
+     * processed when it changes, and a new or changed file in a tree
+     * when the tree accepts it.  A changed .cs file processes the C#
+     * projects and solutions it belongs to, and a changed ComTest.ini
+     * processes the files it governs.
+     * @param argInfo the options and the files processed already
+     * @param out where to print the status information
+     */
+    private static void watch(final ArgumentInfo argInfo, final PrintStream out)
+    {
+        final Set<String> sources = new LinkedHashSet<String>();
+        Set<String> trees = new TreeSet<String>();
+        Set<String> dirs = new TreeSet<String>();
+        ComTestWatcher watcher;
+
+        try {
+            watcher = new ComTestWatcher();
+            if (argInfo.finder != null) {
+                for (String base : argInfo.finder.getBases()) {
+                    if ( trees.add(base) ) watcher.watchTree(base);
+                }
+                for (FileEntry entry : argInfo.found) sources.add(canonicalName(entry.fileName));
+            }
+            for (FileEntry entry : argInfo.files) {
+                String fileName = canonicalName(entry.fileName);
+                File dir = new File(fileName).getParentFile();
+                Language language = detectLanguage(fileName);
+                sources.add(fileName);
+                // the .cs files of projects and solutions are also in the subdirectories
+                if ( language == Language.CsharpProject || language == Language.CsharpSolution ) {
+                    if ( trees.add(dir.getPath()) ) watcher.watchTree(dir.getPath());
+                } else if ( dirs.add(dir.getPath()) ) {
+                    watcher.watchDirectory(dir.getPath());
+                }
+                for (File d = dir.getParentFile(); d != null; d = d.getParentFile()) {
+                    if ( new File(d, ComTestSyntax.COMTESTINI).exists() && dirs.add(d.getPath()) )
+                        watcher.watchDirectory(d.getPath());
+                }
             }
-            iniFiles.remove(keyToRemove);
+        } catch (IOException ioe) {
+            out.println("Can not watch the files: " + ioe.getMessage());
+            return;
+        }
+
+        out.println();
+        out.println("Watching for changes, press Ctrl-C to stop");
+        out.flush();
+
+        try {
+            watcher.watch(new ComTestWatcher.Listener() {
+                public void changed(Set<String> paths) {
+                    Set<String> changed = new LinkedHashSet<String>();
+                    for (String path : paths) {
+                        String fileName = canonicalName(path);
+                        File file = new File(fileName);
+                        if ( outputs.contains(fileName) ) {
+                            continue;
+                        } else if ( file.isDirectory() ) {
+                            for (String source : sources)
+                                if ( isInside(source, fileName) ) changed.add(source);
+                        } else if ( file.getName().equalsIgnoreCase(ComTestSyntax.COMTESTINI) ) {
+                            forgetIniFiles(file.getParent());
+                            for (String source : sources)
+                                if ( governedBy(source, file.getParent()) ) changed.add(source);
+                        } else if ( IoUtil.getExtension(fileName).equalsIgnoreCase("cs") ) {
+                            for (String source : sources) {
+                                Language language = detectLanguage(source);
+                                if ( (language == Language.CsharpProject || language == Language.CsharpSolution) &&
+                                     isInside(fileName, new File(source).getParent()) )
+                                    changed.add(source);
+                            }
+                        } else if ( file.isFile() ) {
+                            Language language = detectLanguage(fileName);
+                            // only files given or found from the trees, never others next to them
+                            boolean accepted = sources.contains(fileName) ||
+                                               (argInfo.finder != null && argInfo.finder.accepts(fileName));
+                            if ( accepted && (language == Language.Java || language == Language.C ||
+                                              language == Language.CPP || language == Language.Csharp) ) {
+                                sources.add(fileName);
+                                changed.add(fileName);
+                            }
+                        }
+                    }
+                    if ( changed.isEmpty() ) return;
+
+                    ArgumentInfo changes = new ArgumentInfo();
+                    changes.jobs = argInfo.jobs;
+                    changes.cacheFile = argInfo.cacheFile;
+                    changes.reportJson = argInfo.reportJson;
+                    changes.reportXml = argInfo.reportXml;
+                    changes.metrics = argInfo.metrics;
+                    for (String fileName : changed) changes.addFile(fileName, Language.Unknown);
+                    out.println();
+                    run(changes, out);
+                }
+            });
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        ComTestIni newIni = new ComTestIni(dir);
-        iniFiles.put(dir, newIni);
-        return newIni;
+    private static ComTestIni getIniFile(String dir) {
+        return iniFiles.get(dir);
     }
     
 
+    /** Marks the end of the files in the queue */
+    private static final FileEntry END = new FileEntry(null);
+
+    /**
+     * Starts finding the files to process.  The files given
+     * explicitly come first and then the files found from the trees
+     * in the order they are found.  The walk runs in the background,
+     * so the processing can start at once.
+     * @param argInfo files and trees to process
+     * @return queue of the files, ended with END
+     */
+    private static BlockingQueue<FileEntry> queueFiles(final ArgumentInfo argInfo)
+    {
+        final BlockingQueue<FileEntry> queue = new LinkedBlockingQueue<FileEntry>(argInfo.files);
+        if (argInfo.finder == null) {
+            queue.add(END);
+            return queue;
+        }
+
+        Thread walker = new Thread(new Runnable() {
+            public void run() {
+                ForkJoinPool pool = new ForkJoinPool(argInfo.jobs);
+                try {
+                    argInfo.finder.walk(pool, new ComTestFileFinder.Sink() {
+                        public void found(String fileName) {
+                            FileEntry entry = new FileEntry(fileName, detectLanguage(fileName));
+                            argInfo.found.add(entry);
+                            queue.add(entry);
+                        }
+                    });
+                } finally {
+                    pool.shutdown();
+                    queue.add(END);
+                }
+            }
+        }, "ComTest file finder");
+        walker.setDaemon(true);
+        walker.start();
+        return queue;
+    }
+
+    /**
+     * Processes the files one after another.
+     * @param files files to process, ended with END
+     * @param out where to print the status information
+     */
+    private static void processSequential(BlockingQueue<FileEntry> files, PrintStream out)
+    {
+        Output output = new Output(out);
+
+        try {
+            for (FileEntry entry = files.take(); entry != END; entry = files.take()) {
+                printAndProcessFile(entry, getOutFileName(entry), null, output);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Processes the files with the workers.  The status of each
+     * file is printed as a whole and in the same order as the files
+     * were given, so the console output equals the sequential one.
+     * @param files files to process, ended with END
+     * @param out where to print the status information
+     */
+    private static void processParallel(BlockingQueue<FileEntry> files, PrintStream out)
+    {
+        List<FileEntry> entries = new ArrayList<FileEntry>();
+        List<Future<Output>> results = new ArrayList<Future<Output>>();
+        int printed = 0;
+
+        try {
+            while (true) {
+                final FileEntry entry = files.poll(100, TimeUnit.MILLISECONDS);
+                if (entry == END) break;
+                if (entry != null) {
+                    entries.add(entry);
+                    results.add(workers.submit(new Callable<Output>() {
+                        public Output call() {
+                            Output output = new Output();
+                            printAndProcessFile(entry, getOutFileName(entry), null, output);
+                            return output;
+                        }
+                    }));
+                }
+                printed = printResults(entries, results, printed, false, out);
+            }
+            printResults(entries, results, printed, true, out);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints the results that are ready, in order
+     * @param wait to wait for all results
+     * @return number of results printed so far
+     */
+    private static int printResults(List<FileEntry> entries, List<Future<Output>> results, int printed,
+                                    boolean wait, PrintStream out) throws InterruptedException
+    {
+        int i = printed;
+        while (i < results.size() && (wait || results.get(i).isDone())) {
+            try {
+                results.get(i).get().writeTo(out);
+            } catch (ExecutionException ee) {
+                errors.incrementAndGet();
+                out.println(entries.get(i).fileName + " !* INTERNAL ERROR: " + ee.getCause());
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static ComTestCache getCache(String fileName) {
+        String key = new File(fileName).getAbsolutePath();
+        ComTestCache c = caches.get(key);
+        if (c == null) {
+            c = new ComTestCache(key);
+            c.load();
+            caches.put(key, c);
+        }
+        c.resetCounts();
+        return c;
+    }
+
+    /**
+     * Processes the files given in arguments.  Used by the daemon
+     * for every request.
+     * @param args arguments as for main, without -d and -r
+     * @param out where to print the status information
+     * @return the results of the files, null if the arguments are invalid
+     */
+    static ComTestReport run(String[] args, PrintStream out)
+    {
+        ArgumentInfo argInfo = parseArguments(args);
+        if (argInfo == null || argInfo.daemonPort > 0 || argInfo.remotePort > 0 || argInfo.watch) {
+            out.println("Invalid arguments: " + Arrays.toString(args));
+            return null;
+        }
+        ComTestReport results = new ComTestReport();
+        run(argInfo, out, results);
+        return results;
+    }
+
+    private static void run(ArgumentInfo argInfo, PrintStream out)
+    {
+        run(argInfo, out, null);
+    }
+
+    /**
+     * Processes the files.  Metrics asked for are counted only for
+     * this run, so that a daemon does not keep counting for the
+     * requests after it.
+     * @param results where to collect the results, null to collect
+     *        them only if a report file is asked for
+     */
+    private static synchronized void run(ArgumentInfo argInfo, PrintStream out, ComTestReport results)
+    {
+        MetricsRegistry registryBefore = Metrics.getRegistry();
+        if (argInfo.metrics) Metrics.enable();
+        try {
+            runFiles(argInfo, out, results);
+        } finally {
+            if (argInfo.metrics) Metrics.setRegistry(registryBefore);
+        }
+    }
+
+    private static void runFiles(ArgumentInfo argInfo, PrintStream out, ComTestReport results)
+    {
+        errors.set(0);
+        skippedFiles.set(0);
+        skippedNanos.set(0);
+        processedFiles.set(0);
+        processedNanos.set(0);
+        cache = argInfo.cacheFile != null ? getCache(argInfo.cacheFile) : null;
+        report = results;
+        if (report == null && (argInfo.reportJson != null || argInfo.reportXml != null)) report = new ComTestReport();
+
+        BlockingQueue<FileEntry> files = queueFiles(argInfo);
+        // The workers also process the projects of a solution and
+        // the source files of a project, even if only one file is given
+        workers = argInfo.jobs > 1 ? new ForkJoinPool(argInfo.jobs) : null;
+        boolean parallel = workers != null && (argInfo.files.size() > 1 || argInfo.finder != null);
+        try {
+            if (parallel) {
+                processParallel(files, out);
+            } else {
+                processSequential(files, out);
+            }
+        } finally {
+            if (workers != null) workers.shutdownNow();
+            workers = null;
+        }
+
+        if (skippedFiles.get() > 0) {
+            out.println();
+            out.println(skippedSummary(parallel));
+        }
+
+        if (report != null) report.finish();
+        if (argInfo.reportJson != null || argInfo.reportXml != null) {
+            out.println();
+            report.printSlowest(out);
+            writeReport(argInfo, out);
+        }
+
+        if (cache != null) {
+            out.println();
+            out.println(String.format("Cache: %d file(s) unchanged, %d file(s) processed", cache.getHits(), cache.getMisses()));
+            if (!cache.save()) {
+                out.println("Could not write cache file " + argInfo.cacheFile);
+            }
+        }
+
+        if (argInfo.metrics) {
+            out.println();
+            printMetrics(out);
+        }
+
+        if (errors.get() > 0) {
+            out.println();
+            out.println(String.format("There were errors in %d file(s)", errors.get()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints the values of the metrics counted during this run
+     */
+    private static void printMetrics(PrintStream out)
+    {
+        out.println("Metrics (also in JMX as " + Metrics.OBJECTNAME + "):");
+        for (Map.Entry<String, Long> e : Metrics.getRegistry().snapshot().entrySet()) {
+            out.println(String.format("  %-28s %d", e.getKey(), e.getValue()));
+        }
+    }
+
+    private static void writeReport(ArgumentInfo argInfo, PrintStream out)
+    {
+        if (argInfo.reportJson != null) {
+            try {
+                report.writeJson(argInfo.reportJson);
+            } catch (IOException ioe) {
+                out.println("Could not write report file " + argInfo.reportJson);
+            }
+        }
+        if (argInfo.reportXml != null) {
+            try {
+                report.writeXml(argInfo.reportXml);
+            } catch (IOException ioe) {
+                out.println("Could not write report file " + argInfo.reportXml);
+            }
+        }
+    }
+
+    /**
+     * Tells how many files were skipped because they have no tests.
+     * The time saved is estimated from the average time of the files
+     * processed.  The times are summed over the threads, so with -j
+     * they are not wall-clock time, which the summary tells.
+     * @param parallel were the files processed by several threads
+     */
+    private static String skippedSummary(boolean parallel)
+    {
+        int skipped = skippedFiles.get();
+        long checkMs = skippedNanos.get() / 1000000;
+        String s = String.format("Pre-check: %d file(s) without tests skipped in %d ms", skipped, checkMs);
+        if (processedFiles.get() > 0) {
+            long average = processedNanos.get() / processedFiles.get();
+            long savedMs = Math.max(0, (skipped * average - skippedNanos.get()) / 1000000);
+            s += String.format(", saving about %d ms", savedMs);
+        }
+        if (parallel) s += " (time summed over the threads, not wall-clock time)";
+        return s;
+    }
+
     /**
      * @param args name of files to process
      */
@@ -503,13 +1334,27 @@ public class ComTest {
             return;
         }
 
-        for (FileEntry entry : argInfo.files) {
-            printAndProcessFile(entry, getOutFileName(entry) , null);
+        if (argInfo.daemonPort > 0) {
+            ComTestDaemon.serve(argInfo.daemonPort, System.out);
+            return;
+        }
+
+        if (argInfo.watch) {
+            run(argInfo, System.out);
+            watch(argInfo, System.out);
+            return;
         }
 
-        if (errors > 0) {
-            System.out.println();
-            System.out.println(String.format("There were errors in %d file(s)", errors));
+        if (argInfo.remotePort > 0) {
+            if (ComTestClient.send(argInfo.remotePort, argInfo.remoteArgs, System.out)) {
+                return;
+            }
+            if (argInfo.remoteArgs.contains(ComTestDaemon.STOP)) {
+                System.out.println("No ComTest daemon running on port " + argInfo.remotePort);
+                return;
+            }
         }
+
+        run(argInfo, System.out);
     }
 }
@@ -2,6 +2,8 @@
 package cc.jyu.fi.comtest;
 
 import cc.jyu.fi.comtest.csharp.AssertErrorMessage;
+import cc.jyu.fi.comtest.metrics.Metrics;
+import cc.jyu.fi.comtest.utils.MarkerMatcher;
 
 import java.util.regex.Matcher;
 import java.util.ArrayList;
@@ -18,6 +20,10 @@ public class ComTestBinaryOperator extends ComTestOperator {
     List<String> aliases = new ArrayList<String>();
     String formatStr;
     boolean reverseOrder;
+    /** finds the aliases and the end of sentence (;) in one pass */
+    final MarkerMatcher matcher;
+    /** counts the assertions generated */
+    final Metrics.Counter assertions;
 
     /**
      * Creates a new ComTest binary operator.
@@ -35,6 +41,26 @@ public class ComTestBinaryOperator extends ComTestOperator {
         aliases.addAll(Arrays.asList(opers));
         formatStr = format;
         reverseOrder = reverse;
+        String[] markers = Arrays.copyOf(opers, opers.length + 1);
+        markers[opers.length] = ";";
+        matcher = new MarkerMatcher(QUOTES, markers);
+        assertions = counterFor(format);
+    }
+
+    /**
+     * @param format format string of the operator
+     * @return counter of the assertions of the operator
+     * @example
+     * <pre name="test">
+     * counterFor(ComTestSyntax.almostTest) == Metrics.ALMOSTASSERTIONS === true;
+     * counterFor(ComTestSyntax.regexTest) == Metrics.REGEXASSERTIONS === true;
+     * counterFor("%s == %s") == Metrics.EQUALSASSERTIONS === true;
+     * </pre>
+     */
+    static Metrics.Counter counterFor(String format) {
+        if ( ComTestSyntax.almostTest.equals(format) ) return Metrics.ALMOSTASSERTIONS;
+        if ( ComTestSyntax.regexTest.equals(format) ) return Metrics.REGEXASSERTIONS;
+        return Metrics.EQUALSASSERTIONS;
     }
 
     /**
@@ -57,12 +83,14 @@ public class ComTestBinaryOperator extends ComTestOperator {
      * </pre>
      */
     public String apply(String s, AssertErrorMessage errorMessage, String... additional) {
+        int[] found = matcher.indexesOf(s);
         for ( int i = 0; i < aliases.size(); i++ ) {
             String oper = aliases.get(i);
-            int eqIndex = indexOfNotInQuotes(s, oper);
+            int eqIndex = found[i];
             if ( eqIndex < 0 ) continue;
+            assertions.increment();
 
-            int eos = indexOfNotInQuotes(s, ";");
+            int eos = found[aliases.size()];
 
             if ( eos < 0 )
                 // No semicolon, so end of line ends the sentence
@@ -0,0 +1,204 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import cc.jyu.fi.comtest.metrics.Metrics;
+import cc.jyu.fi.comtest.utils.SourceText;
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of processed source files.  For every source file
+ * the cache remembers a hash of its contents, the settings used and
+ * the ComTest version.  If none of those have changed and the test
+ * file still exists, there is no need to generate the test file again.
+ * @author vesal
+ */
+public class ComTestCache {
+    private static final String HEADER = "ComTest cache " + ComTestSyntax.COMTESTVERSION;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private boolean modified = false;
+
+    /**
+     * Creates a cache stored in file
+     * @param fileName name of the cache file
+     */
+    public ComTestCache(String fileName) {
+        this.file = new File(fileName);
+    }
+
+    /**
+     * Reads the cache file.  A missing or unreadable file
+     * just means an empty cache.
+     */
+    public void load() {
+        if ( !file.exists() ) return;
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            return;
+        } finally {
+            if ( in != null ) try { in.close(); } catch (IOException e) { /* ignore */ }
+        }
+        for ( String name : props.stringPropertyNames() )
+            hashes.put(name, props.getProperty(name));
+    }
+
+    /**
+     * Writes the cache file if anything has changed
+     * @return true if the cache was saved or there was nothing to save
+     */
+    public synchronized boolean save() {
+        if ( !modified ) return true;
+        Properties props = new Properties();
+        props.putAll(new TreeMap<String, String>(hashes));
+        OutputStream out = null;
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if ( dir != null ) dir.mkdirs();
+            out = new FileOutputStream(file);
+            props.store(out, HEADER);
+            modified = false;
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if ( out != null ) try { out.close(); } catch (IOException e) { /* ignore */ }
+        }
+    }
+
+    /**
+     * Calculates the key that identifies one processing of a file.
+     * The lines are encoded straight from the buffer of a SourceText,
+     * so they are not copied to strings.
+     * @param contents contents of the source file
+     * @param settings settings used for processing
+     * @param outName name of the file to generate
+     * @return hash as a hex string
+     * @example
+     * <pre name="test">
+     *   Strings a = new Strings(); a.add("x");
+     *   Strings b = new Strings(); b.add("y");
+     *   hash(a, "s", "o").length() === 40;
+     *   hash(a, "s", "o").equals(hash(a, "s", "o")) === true;
+     *   hash(a, "s", "o").equals(hash(b, "s", "o")) === false;
+     *   hash(a, "s", "o").equals(hash(a, "t", "o")) === false;
+     *   hash(a, "s", "o").equals(hash(a, "s", "p")) === false;
+     *   hash(SourceText.of("x\r\n"), "s", "o") === hash(a, "s", "o");
+     *   hash(SourceText.of("\u00e4"), "s", "o") === hash(SourceText.of(new Strings("\u00e4")), "s", "o");
+     * </pre>
+     */
+    public static String hash(List<String> contents, String settings, String outName) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(HEADER.getBytes("UTF-8"));
+            md.update((byte)0);
+            md.update(settings.getBytes("UTF-8"));
+            md.update((byte)0);
+            md.update(String.valueOf(outName).getBytes("UTF-8"));
+            md.update((byte)0);
+            SourceText text = SourceText.of(contents);
+            CharsetEncoder encoder = UTF8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocate(8192);
+            for ( int i = 0; i < text.size(); i++ ) {
+                CharBuffer line = CharBuffer.wrap(text.line(i));
+                encoder.reset();
+                while ( encoder.encode(line, bytes, true).isOverflow() ) update(md, bytes);
+                while ( encoder.flush(bytes).isOverflow() ) update(md, bytes);
+                update(md, bytes);
+                md.update((byte)'\n');
+            }
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : md.digest() ) sb.append(String.format("%02x", b & 0xff));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest md, ByteBuffer bytes) {
+        bytes.flip();
+        md.update(bytes);
+        bytes.clear();
+    }
+
+    /**
+     * Checks if the file has been processed with the same key
+     * and the output still exists.  Counts hits and misses.
+     * @param fileName source file
+     * @param key key from hash
+     * @param outName file that should have been generated
+     * @return true if there is nothing to do for the file
+     */
+    public boolean isUnchanged(String fileName, String key, String outName) {
+        boolean hit = key.equals(hashes.get(cacheName(fileName))) &&
+                      outName != null && new File(outName).exists();
+        if ( hit ) { hits.incrementAndGet(); Metrics.CACHEHITS.increment(); }
+        else { misses.incrementAndGet(); Metrics.CACHEMISSES.increment(); }
+        return hit;
+    }
+
+    /**
+     * Remembers that the file was processed with the key
+     * @param fileName source file
+     * @param key key from hash
+     */
+    public synchronized void put(String fileName, String key) {
+        String old = hashes.put(cacheName(fileName), key);
+        if ( !key.equals(old) ) modified = true;
+    }
+
+    /**
+     * Starts counting the hits and misses from zero
+     */
+    public void resetCounts() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /** @return number of files found unchanged */
+    public int getHits() { return hits.get(); }
+
+    /** @return number of files that had to be processed */
+    public int getMisses() { return misses.get(); }
+
+    private static String cacheName(String fileName) {
+        File f = new File(fileName);
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+}
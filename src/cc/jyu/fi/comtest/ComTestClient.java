@@ -0,0 +1,120 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Thin client for ComTestDaemon.  Sends the token of the daemon and
+ * the arguments to it and prints its output.  Uses nothing else of
+ * ComTest so that starting it is as fast as possible.
+ * @author vesal
+ */
+public class ComTestClient {
+
+    /**
+     * Sends the arguments to the daemon and copies the reply to out.
+     * File names are made absolute, because the daemon may run
+     * in another directory.
+     * @param port port of the daemon
+     * @param args arguments for ComTest
+     * @param out where to print the output
+     * @return false if there is no daemon of this user listening the port
+     */
+    public static boolean send(int port, List<String> args, PrintStream out) {
+        String token;
+        Socket socket;
+        try {
+            token = new String(Files.readAllBytes(ComTestDaemon.tokenFile(port).toPath()), ComTestDaemon.ENCODING).trim();
+            socket = new Socket(InetAddress.getByName(null), port);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            Writer w = new OutputStreamWriter(socket.getOutputStream(), ComTestDaemon.ENCODING);
+            w.write(token);
+            w.write('\n');
+            for (String arg : args) {
+                w.write(absolute(arg));
+                w.write('\n');
+            }
+            w.write('\n');
+            w.flush();
+
+            Reader in = new InputStreamReader(socket.getInputStream(), ComTestDaemon.ENCODING);
+            char[] buf = new char[8192];
+            int n;
+            while ( (n = in.read(buf)) >= 0 ) {
+                out.print(new String(buf, 0, n));
+            }
+            out.flush();
+        } catch (IOException e) {
+            out.println("ComTest daemon: " + e.getMessage());
+        } finally {
+            try { socket.close(); } catch (IOException e) { /* ignore */ }
+        }
+        return true;
+    }
+
+    /**
+     * Makes file names in argument absolute.  Options other than
+     * the file of -c and the files of --name=FILE are left as they are.
+     * @param arg argument to convert
+     * @return the argument with an absolute file name
+     * @example
+     * <pre name="test">
+     *   absolute("-j4") === "-j4";
+     *   absolute("-c") === "-c";
+     *   absolute("--watch") === "--watch";
+     *   absolute("--report-xml=r.xml") === "--report-xml=" + new java.io.File("r.xml").getAbsolutePath();
+     *   absolute(ComTestDaemon.STOP) === ComTestDaemon.STOP;
+     *   absolute("a.java") === new java.io.File("a.java").getAbsolutePath();
+     *   absolute("-cx.cache") === "-c" + new java.io.File("x.cache").getAbsolutePath();
+     * </pre>
+     */
+    static String absolute(String arg) {
+        if ( arg.startsWith("-c") && arg.length() > 2 )
+            return "-c" + new File(arg.substring(2)).getAbsolutePath();
+        int eq = arg.indexOf('=');
+        if ( arg.startsWith("--") && eq > 0 )
+            return arg.substring(0, eq + 1) + new File(arg.substring(eq + 1)).getAbsolutePath();
+        if ( arg.startsWith("-") ) return arg;
+        return new File(arg).getAbsolutePath();
+    }
+
+    /**
+     * @param args [-rPORT] and the arguments for ComTest
+     */
+    public static void main(String[] args) {
+        int port = ComTestDaemon.DEFAULTPORT;
+        List<String> rest = new ArrayList<String>(Arrays.asList(args));
+        if ( !rest.isEmpty() && rest.get(0).startsWith("-r") ) {
+            String value = rest.remove(0).substring(2);
+            try {
+                if ( value.length() > 0 ) port = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                port = 0;
+            }
+        }
+        if ( port < 1 || rest.isEmpty() ) {
+            System.out.println("Usage: ComTestClient [-rPORT] [options] file ...");
+            System.out.println("       ComTestClient [-rPORT] " + ComTestDaemon.STOP);
+            return;
+        }
+        if ( !send(port, rest, System.out) ) {
+            System.out.println("No ComTest daemon running on port " + port);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps ComTest running so that the JVM, the loaded ComTest.ini files
+ * and the caches stay warm between runs.  The daemon listens only on
+ * the loopback address.
+ * <p>
+ * The daemon reads and writes files as the user who started it, so it
+ * serves only clients that know its token.  A new random token is made
+ * every time the daemon starts and kept in ~/.comtest/daemon-PORT.token,
+ * which only the user can read (on Windows the profile directory is
+ * private to the user).  The file is removed when the daemon stops.
+ * <p>
+ * A request is the token and then the arguments of ComTest, one per
+ * line in UTF-8, ended by an empty line.  The reply is the output of
+ * the run followed by one line for each file processed:
+ * RESULT, the result type (Success, Fail, InternalError, SkippedAsBad
+ * or SkippedAsGood), the file and the message, separated by tabs.
+ * The connection is then closed.  Requests are handled one at a time.
+ * @author vesal
+ */
+public class ComTestDaemon {
+    /** Port used if none is given */
+    public static final int DEFAULTPORT = 7341;
+
+    /** Request that stops the daemon */
+    public static final String STOP = "-stop";
+
+    /** Start of the reply line of each file */
+    public static final String RESULT = "RESULT";
+
+    static final String ENCODING = "UTF-8";
+
+    /**
+     * Tells where the token of the daemon on the port is kept
+     * @param port port of the daemon
+     * @return the token file in the home directory of the user
+     */
+    static File tokenFile(int port) {
+        File dir = new File(System.getProperty("user.home"), ".comtest");
+        return new File(dir, "daemon-" + port + ".token");
+    }
+
+    /**
+     * Makes a new random token and writes it to a file that only
+     * the user can read
+     * @param port port of the daemon
+     * @return the token
+     * @throws IOException if the file can not be written
+     */
+    private static String writeToken(int port) throws IOException {
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) token.append(String.format("%02x", b & 0xff));
+
+        Path file = tokenFile(port).toPath();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if ( posix ) {
+            Files.createDirectories(file.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.deleteIfExists(file);
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(file.getParent());
+            Files.deleteIfExists(file);
+            Files.createFile(file);
+        }
+        Files.write(file, token.toString().getBytes(ENCODING));
+        return token.toString();
+    }
+
+    /**
+     * Serves requests until a stop request comes
+     * @param port port to listen
+     * @param log where to print the state of the daemon
+     */
+    public static void serve(int port, PrintStream log) {
+        ServerSocket server = null;
+        try {
+            server = new ServerSocket(port, 50, InetAddress.getByName(null));
+            String token = writeToken(port);
+            log.println("ComTest daemon listening on port " + port + ", token in " + tokenFile(port));
+            boolean running = true;
+            while ( running ) {
+                Socket socket = server.accept();
+                try {
+                    running = handle(socket, token, log);
+                } catch (IOException e) {
+                    log.println("ComTest daemon: " + e.getMessage());
+                } finally {
+                    socket.close();
+                }
+            }
+            log.println("ComTest daemon stopped");
+        } catch (IOException e) {
+            log.println("ComTest daemon: " + e.getMessage());
+        } finally {
+            if ( server != null ) {
+                tokenFile(port).delete();
+                try { server.close(); } catch (IOException e) { /* ignore */ }
+            }
+        }
+    }
+
+    /**
+     * Handles one request
+     * @param socket connection to the client
+     * @param token token the client has to send
+     * @param log where to tell about rejected requests
+     * @return false if the daemon should stop
+     * @throws IOException if the connection fails
+     */
+    private static boolean handle(Socket socket, String token, PrintStream log) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+        String clientToken = in.readLine();
+        PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, ENCODING);
+        try {
+            if ( clientToken == null || !MessageDigest.isEqual(token.getBytes(ENCODING), clientToken.getBytes(ENCODING)) ) {
+                log.println("ComTest daemon: rejected a request without the token");
+                out.println("ComTest daemon: wrong token, it is in " + tokenFile(socket.getLocalPort()));
+                return true;
+            }
+            List<String> args = readRequest(in);
+            if ( args.size() == 1 && STOP.equals(args.get(0)) ) {
+                out.println("ComTest daemon stopped");
+                return false;
+            }
+            ComTestReport results = ComTest.run(args.toArray(new String[args.size()]), out);
+            if ( results != null ) {
+                for (ComTestReport.Entry e : results.getEntries())
+                    out.println(resultLine(e));
+            }
+            return true;
+        } catch (RuntimeException e) {
+            out.println(" !* INTERNAL ERROR: " + e);
+            return true;
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Makes the reply line of a file
+     * @param e result of the file
+     * @return RESULT, type, file and message separated by tabs
+     * @example
+     * <pre name="test">
+     *   ComTestReport.Entry e = new ComTestReport.Entry();
+     *   e.inFile = "A.java";
+     *   e.result = new ComTestResult.SkippedAsBad("no\ttests");
+     *   resultLine(e) === "RESULT\tSkippedAsBad\tA.java\tno tests";
+     * </pre>
+     */
+    static String resultLine(ComTestReport.Entry e) {
+        return RESULT + "\t" + e.getType() + "\t" + e.inFile + "\t" + e.getMessage().replaceAll("[\t\r\n]+", " ");
+    }
+
+    /**
+     * Reads arguments until an empty line or the end of the stream
+     * @param in where to read
+     * @return the arguments
+     * @throws IOException if reading fails
+     * @example
+     * <pre name="test">
+     * #THROWS java.io.IOException
+     *   readRequest(new java.io.BufferedReader(new java.io.StringReader("a\n-j\n\nb\n"))).toString() === "[a, -j]";
+     *   readRequest(new java.io.BufferedReader(new java.io.StringReader("a"))).toString() === "[a]";
+     *   readRequest(new java.io.BufferedReader(new java.io.StringReader(""))).size() === 0;
+     * </pre>
+     */
+    static List<String> readRequest(BufferedReader in) throws IOException {
+        List<String> args = new ArrayList<String>();
+        String line;
+        while ( (line = in.readLine()) != null && line.length() > 0 )
+            args.add(line);
+        return args;
+    }
+}
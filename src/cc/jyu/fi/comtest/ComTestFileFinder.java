@@ -0,0 +1,254 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import cc.jyu.fi.comtest.ComTest.Language;
+import cc.jyu.fi.comtest.utils.GlobPattern;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the source files from directory trees.  A tree is given as a
+ * directory or as a pattern like src/**&#47;*.java, in which case the
+ * tree is the part before the first wildcard and the rest is matched
+ * against the whole path relative to it.  A pattern without ** is not
+ * walked deeper than it has directories.  Every directory is
+ * listed in its own fork-join task and the files found are given to
+ * the sink at once, so they can be processed while the walk goes on.
+ * Files named like XTest.java next to X.java are taken as generated
+ * tests and skipped.  C# solutions must be given explicitly.
+ * @author vesal
+ */
+public class ComTestFileFinder {
+    /**
+     * Gets the files found
+     */
+    public interface Sink {
+        /**
+         * Called for every file found, possibly from several threads
+         * @param fileName the file found
+         */
+        void found(String fileName);
+    }
+
+    /** One tree to walk */
+    private static class Root {
+        final File base;
+        final GlobPattern pattern;
+
+        Root(File base, GlobPattern pattern) {
+            this.base = base;
+            this.pattern = pattern;
+        }
+    }
+
+    private final List<Root> roots = new ArrayList<Root>();
+    private final List<GlobPattern> includes = new ArrayList<GlobPattern>();
+    private final List<GlobPattern> excludes = new ArrayList<GlobPattern>();
+
+    /**
+     * Checks if the argument is a directory or a pattern, not a file
+     * @param arg argument to check
+     * @return true if arg should be given to addTree
+     * @example
+     * <pre name="test">
+     *   isTree("src/*.java") === true;
+     *   isTree(".") === true;
+     *   isTree("A.java") === false;
+     *   isTree("a.sln*Proj1,Proj2") === false;
+     * </pre>
+     */
+    public static boolean isTree(String arg) {
+        int star = arg.indexOf('*');
+        if ( star > 0 && arg.substring(0, star).toLowerCase().endsWith(".sln") ) return false;
+        return GlobPattern.hasWildcards(arg) || new File(arg).isDirectory();
+    }
+
+    /**
+     * Adds a tree to walk
+     * @param arg directory or pattern
+     */
+    public void addTree(String arg) {
+        String s = arg.replace(File.separatorChar, '/');
+        if ( !GlobPattern.hasWildcards(s) ) {
+            roots.add(new Root(absolute(arg), null));
+            return;
+        }
+        int wild = 0;
+        while ( "*?[{".indexOf(s.charAt(wild)) < 0 ) wild++;
+        int slash = s.lastIndexOf('/', wild);
+        String base = slash < 0 ? "." : slash == 0 ? "/" : s.substring(0, slash);
+        roots.add(new Root(absolute(base), new GlobPattern(s.substring(slash + 1), true)));
+    }
+
+    /**
+     * @return the file as an absolute path without . and .. parts
+     */
+    private static File absolute(String fileName) {
+        return new File(fileName).getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    /**
+     * Processes only files matching the pattern.  If there are
+     * several, a file has to match one of them.
+     * @param glob pattern for the path relative to the tree
+     */
+    public void include(String glob) {
+        includes.add(new GlobPattern(glob));
+    }
+
+    /**
+     * Skips files and directories matching the pattern
+     * @param glob pattern for the path relative to the tree
+     */
+    public void exclude(String glob) {
+        excludes.add(new GlobPattern(glob));
+    }
+
+    /**
+     * @return the directories walked
+     */
+    public List<String> getBases() {
+        List<String> bases = new ArrayList<String>();
+        for (Root root : roots) bases.add(root.base.getPath());
+        return bases;
+    }
+
+    private static String relative(Root root, File file) {
+        String base = root.base.getPath();
+        String path = absolute(file.getPath()).getPath();
+        if ( !path.startsWith(base + File.separator) ) return null;
+        return path.substring(base.length() + 1).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Checks if the file would be found by the walk
+     * @param fileName file to check
+     * @return true if the file is in a tree and is accepted
+     */
+    public boolean accepts(String fileName) {
+        File file = new File(fileName);
+        for (Root root : roots) {
+            String path = relative(root, file);
+            if ( path == null || excludedDir(path) ) continue;
+            if ( accepts(root, path, file.getName(), null, file.getParentFile()) ) return true;
+        }
+        return false;
+    }
+
+    private boolean excludedDir(String path) {
+        int slash = path.indexOf('/');
+        while ( slash >= 0 ) {
+            if ( matchesAny(excludes, path.substring(0, slash)) ) return true;
+            slash = path.indexOf('/', slash + 1);
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(List<GlobPattern> patterns, String path) {
+        for (GlobPattern p : patterns)
+            if ( p.matches(path) ) return true;
+        return false;
+    }
+
+    /**
+     * @param names names of the files in the same directory, null to look from dir
+     */
+    private boolean accepts(Root root, String path, String name, Set<String> names, File dir) {
+        Language language = ComTest.detectLanguage(name);
+        if ( language == Language.Unknown || language == Language.CsharpSolution ) return false;
+        if ( root.pattern != null && !root.pattern.matches(path) ) return false;
+        if ( !includes.isEmpty() && !matchesAny(includes, path) ) return false;
+        if ( matchesAny(excludes, path) ) return false;
+        return !isGeneratedTest(name, names, dir);
+    }
+
+    /**
+     * Checks if the name is like the name of a test generated
+     * for another file in the same directory
+     * @example
+     * <pre name="test">
+     *   java.util.Set<String> names = new java.util.HashSet<String>(java.util.Arrays.asList("A.java", "ATest.java", "BTest.java"));
+     *   isGeneratedTest("ATest.java", names, null) === true;
+     *   isGeneratedTest("BTest.java", names, null) === false;
+     *   isGeneratedTest("A.java", names, null) === false;
+     * </pre>
+     */
+    static boolean isGeneratedTest(String name, Set<String> names, File dir) {
+        int dot = name.lastIndexOf('.');
+        if ( dot < 0 ) dot = name.length();
+        String base = name.substring(0, dot);
+        if ( !base.endsWith("Test") ) return false;
+        String source = base.substring(0, base.length() - 4) + name.substring(dot);
+        if ( names != null ) return names.contains(source);
+        return new File(dir, source).isFile();
+    }
+
+    /**
+     * Walks all the trees
+     * @param pool pool to run the walk in
+     * @param sink where to give the files found
+     */
+    public void walk(ForkJoinPool pool, Sink sink) {
+        List<DirTask> tasks = new ArrayList<DirTask>();
+        for (Root root : roots) tasks.add(new DirTask(root, root.base, "", sink));
+        for (DirTask task : tasks) pool.invoke(task);
+    }
+
+    /** Lists one directory and forks the subdirectories */
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Root root;
+        private final File dir;
+        private final String path;
+        private final Sink sink;
+
+        DirTask(Root root, File dir, String path, Sink sink) {
+            this.root = root;
+            this.dir = dir;
+            this.path = path;
+            this.sink = sink;
+        }
+
+        /**
+         * @return true if the subdirectory p may have matching files
+         */
+        private boolean mayMatchIn(String p) {
+            int depth = root.pattern == null ? -1 : root.pattern.getDepth();
+            if ( depth < 0 ) return true;
+            int slashes = 0;
+            for (int i = 0; i < p.length(); i++)
+                if ( p.charAt(i) == '/' ) slashes++;
+            return slashes < depth;
+        }
+
+        @Override
+        protected void compute() {
+            File[] files = dir.listFiles();
+            if ( files == null ) return;
+            Arrays.sort(files);
+            Set<String> names = new HashSet<String>();
+            for (File f : files) names.add(f.getName());
+
+            List<DirTask> subdirs = new ArrayList<DirTask>();
+            for (File f : files) {
+                String p = path + f.getName();
+                if ( f.isDirectory() ) {
+                    if ( !Files.isSymbolicLink(f.toPath()) && !matchesAny(excludes, p) && mayMatchIn(p) )
+                        subdirs.add(new DirTask(root, f, p + "/", sink));
+                } else if ( accepts(root, p, f.getName(), names, dir) ) {
+                    sink.found(f.getPath());
+                }
+            }
+            invokeAll(subdirs);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import cc.jyu.fi.comtest.utils.Strings;
+
+/**
+ * Import lines of a test file.  Every line is added only once, the
+ * lines are compared by key so white space and a comment after the
+ * semicolon do not matter.  The lines come out in groups: static
+ * imports first, then JUnit imports and then the others, like the
+ * imports from ComTest.ini.  Inside a group the lines are sorted, so the
+ * import block is the same whatever order the imports were found in.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   ComTestImports imp = new ComTestImports();
+ *   imp.add("import java.util.*;");
+ *   imp.addJUnit("import org.junit.*;");
+ *   imp.addJUnit("import static org.junit.Assert.*;");
+ *   imp.add("import  java.util.*;  // again");
+ *   imp.add("import static a.B.*;");
+ *   imp.add("");
+ *   imp.size() === 4;
+ *   imp.toStrings().toString("|") === "import static a.B.*;|import static org.junit.Assert.*;|import org.junit.*;|import java.util.*;";
+ *   imp.contains("import java.util.* ;") === true;
+ *   imp.contains("import java.io.*;") === false;
+ * </pre>
+ */
+public class ComTestImports implements Iterable<String> {
+    private static final int STATIC = 0;
+    private static final int JUNIT  = 1;
+    private static final int OTHER  = 2;
+
+    /** keys of the lines added */
+    private final Set<String> keys = new HashSet<String>();
+    /** lines sorted by group and key */
+    private final TreeMap<String, String> lines = new TreeMap<String, String>();
+
+    /**
+     * Normalizes an import line for comparing.  The key is the text
+     * before the semicolon with white space runs changed to one space.
+     * @param line line to normalize
+     * @return key of the line, "" for an empty line
+     * @example
+     * <pre name="test">
+     *   key("  import   static a.B.*; // x") === "import static a.B.*";
+     *   key("import a.B;") === "import a.B";
+     *   key("#include <stdio.h>") === "#include <stdio.h>";
+     *   key("  ") === "";
+     * </pre>
+     */
+    public static String key(String line) {
+        StringBuilder sb = new StringBuilder(line.length());
+        boolean space = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if ( c == ';' ) break;
+            if ( Character.isWhitespace(c) ) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if ( space ) sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isStatic(String key) {
+        return key.startsWith("import static ");
+    }
+
+    private void add(String line, int group) {
+        String key = key(line);
+        if ( key.length() == 0 || !keys.add(key) ) return;
+        if ( isStatic(key) ) group = STATIC;
+        lines.put(group + key, line.trim());
+    }
+
+    /**
+     * Adds an import line if it is not already there
+     * @param line line to add, like "import java.util.*;"
+     */
+    public void add(String line) {
+        add(line, OTHER);
+    }
+
+    /**
+     * Adds an import line to the JUnit group
+     * @param line line to add
+     */
+    public void addJUnit(String line) {
+        add(line, JUNIT);
+    }
+
+    /**
+     * @param line line to look for
+     * @return true if a line with the same key is added
+     */
+    public boolean contains(String line) {
+        return keys.contains(key(line));
+    }
+
+    /** @return number of different lines */
+    public int size() {
+        return keys.size();
+    }
+
+    /** Removes all lines */
+    public void clear() {
+        keys.clear();
+        lines.clear();
+    }
+
+    /**
+     * Returns the lines that are not in existing.  Every line
+     * of existing is looked at only once.
+     * @param existing lines already in the file
+     * @return missing lines in the order of this set
+     * @example
+     * <pre name="test">
+     *   ComTestImports imp = new ComTestImports();
+     *   imp.add("import a.*;"); imp.add("import b.*;");
+     *   Strings old = new Strings(); old.add("  import a.*; \n"); old.add("class A {\n");
+     *   imp.missingFrom(old).toString("|") === "import b.*;";
+     * </pre>
+     */
+    public Strings missingFrom(List<String> existing) {
+        Set<String> old = new HashSet<String>();
+        for (String s : existing) {
+            String key = key(s);
+            if ( keys.contains(key) ) old.add(key);
+        }
+        Strings result = new Strings();
+        for (Map.Entry<String, String> e : lines.entrySet())
+            if ( !old.contains(e.getKey().substring(1)) ) result.add(e.getValue());
+        return result;
+    }
+
+    /** @return the lines in order as a new list */
+    public Strings toStrings() {
+        Strings result = new Strings();
+        result.addAll(lines.values());
+        return result;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return Collections.unmodifiableCollection(lines.values()).iterator();
+    }
+
+    @Override
+    public String toString() {
+        return toStrings().toString(":");
+    }
+}
@@ -27,6 +27,9 @@ public class ComTestIni {
     public boolean classImport = false;
     public boolean dynamicImport = false;
 
+    /** Syntax variables set in the ini file */
+    public ComTestVariables variables = ComTestVariables.DEFAULTS;
+
     public ComTestIni() {
         imports = new Strings();
         packageName = null;
@@ -46,6 +49,96 @@ public class ComTestIni {
         }        
     }
 
+    /**
+     * Reads the settings of one ini file.  The directory is left
+     * null unless set in the file, use forDirectory to get the
+     * settings for a source directory.
+     * @param iniFileName ini file to read
+     * @return the settings
+     */
+    public static ComTestIni read(String iniFileName) {
+        ComTestIni ini = new ComTestIni();
+        ini.parseOptions(getFileContents(iniFileName));
+        return ini;
+    }
+
+    /**
+     * Makes a copy of the settings for the source files in dir.
+     * Same as new ComTestIni(dir) if this is read from the ini of dir.
+     * @param dir directory of the source files
+     * @return copy with directory set to dir if not set in the ini file
+     * @example
+     * <pre name="test">
+     *   ComTestIni ini = new ComTestIni();
+     *   ini.imports.add("java.util.*;");
+     *   ComTestIni copy = ini.forDirectory("src");
+     *   copy.directory === "src";
+     *   copy.imports.toString(":") === "java.util.*;";
+     *   copy.imports == ini.imports === false;
+     *   ini.directory = "test";
+     *   ini.forDirectory("src").directory === "test";
+     * </pre>
+     */
+    public ComTestIni forDirectory(String dir) {
+        ComTestIni copy = new ComTestIni();
+        copy.directory = directory != null ? directory : dir;
+        copy.packageName = packageName;
+        copy.imports.addAll(imports);
+        copy.doStaticImport = doStaticImport;
+        copy.noImportAtAll = noImportAtAll;
+        copy.fullAutoImport = fullAutoImport;
+        copy.packageImport = packageImport;
+        copy.classImport = classImport;
+        copy.dynamicImport = dynamicImport;
+        copy.variables = variables;
+        return copy;
+    }
+
+    /**
+     * Makes a copy of the settings read from the ini file in iniDir
+     * for the source files in dir, which is iniDir or one of its
+     * subdirectories.  A relative directory from the ini file is
+     * resolved against iniDir and the subdirectories from iniDir to
+     * dir are added to it and to the package, so that the sources of
+     * sibling directories do not get the same test files.
+     * @param dir directory of the source files
+     * @param iniDir directory of the ini file
+     * @return copy for dir
+     * @example
+     * <pre name="test">
+     *   ComTestIni ini = new ComTestIni();
+     *   ini.forDirectory("src", "src").directory === "src";
+     *   ini.directory = "test"; ini.packageName = "t";
+     *   java.io.File test = new java.io.File("src", "test").getAbsoluteFile();
+     *   ComTestIni a = ini.forDirectory("src" + java.io.File.separator + "a", "src");
+     *   a.directory === new java.io.File(test, "a").getPath();
+     *   a.packageName === "t.a";
+     *   ComTestIni b = ini.forDirectory("src" + java.io.File.separator + "b", "src");
+     *   b.directory === new java.io.File(test, "b").getPath();
+     *   b.packageName === "t.b";
+     *   ini.forDirectory("src", "src").directory === test.getPath();
+     *   ini.forDirectory("src", "src").packageName === "t";
+     * </pre>
+     */
+    public ComTestIni forDirectory(String dir, String iniDir) {
+        ComTestIni copy = forDirectory(dir);
+        if ( directory == null || directory.length() == 0 ) return copy;
+
+        String sub = "";
+        File d = new File(dir);
+        for (; d != null && !d.getPath().equals(iniDir); d = d.getParentFile())
+            sub = sub.length() == 0 ? d.getName() : d.getName() + File.separator + sub;
+        if ( d == null ) sub = ""; // dir is not under iniDir
+
+        File out = new File(directory);
+        if ( !out.isAbsolute() ) out = new File(iniDir, directory).getAbsoluteFile();
+        if ( sub.length() > 0 ) out = new File(out, sub);
+        copy.directory = out.getPath();
+        if ( !isEmpty(packageName) && sub.length() > 0 )
+            copy.packageName = packageName + "." + sub.replace(File.separatorChar, '.');
+        return copy;
+    }
+
     /**
      * Check the selected contents by ComTest options
      * @param contents what to check
@@ -72,7 +165,8 @@ public class ComTestIni {
         s = removeAllAfter(s, "//");
         if ( handleDirAndPackage(s) ) return;
         if ( handleImports(s) ) return;
-        if ( checkVariables(s) ) return;
+        ComTestVariables changed = variables.apply(s);
+        if ( changed != null ) variables = changed;
     }
 
     /**
@@ -82,13 +176,13 @@ public class ComTestIni {
      */
     private boolean handleDirAndPackage(String line) {
         String s = line.trim();
-        if ( indexOfNotInQuotes(s, DIRECTORYMARKER) == 0 ) {
-            directory = s.substring(DIRECTORYMARKER.length()).trim();
+        if ( indexOfNotInQuotes(s, variables.DIRECTORYMARKER) == 0 ) {
+            directory = s.substring(variables.DIRECTORYMARKER.length()).trim();
             return true;
         }
 
-        if ( indexOfNotInQuotes(s, PACKAGEMARKER) == 0 ) {
-            packageName = s.substring(PACKAGEMARKER.length()).trim();
+        if ( indexOfNotInQuotes(s, variables.PACKAGEMARKER) == 0 ) {
+            packageName = s.substring(variables.PACKAGEMARKER.length()).trim();
             return true;
         }
         return false;
@@ -131,8 +225,8 @@ public class ComTestIni {
             packageImport = true;
             return true;
         }
-        if ( indexOfNotInQuotes(s, IMPORTMARKER) == 0 ) {
-            String imp = s.substring(IMPORTMARKER.length() + 1).trim();
+        if ( indexOfNotInQuotes(s, variables.IMPORTMARKER) == 0 ) {
+            String imp = s.substring(variables.IMPORTMARKER.length() + 1).trim();
             imports.add(imp);
             // noAutoImport = true;
             return true;
@@ -142,60 +236,31 @@ public class ComTestIni {
     }
 
     /**
-     * Check if d is substitution to any know variable
-     * @param st string to check
-     * @return true if any variable, false otherwise
-     */
-    public static boolean checkVariables(String st) { // NOPMD by vesal on 13.1.2008 15:29
-        String val;
-        String s = removeAllAfter(st,";").trim();
-        val = checkVariable(s, "COLUMNSEPARATOR"     ); if ( val != null ) { COLUMNSEPARATOR      = val; return true; }
-        val = checkVariable(s, "TEMPLATELINEMARKER"  ); if ( val != null ) { TEMPLATELINEMARKER   = val; return true; }
-        val = checkVariable(s, "DELETESENTENCEMARKER"); if ( val != null ) { DELETESENTENCEMARKER = val; return true; }
-        val = checkVariable(s, "COLUMNCHAR"          ); if ( val != null ) { COLUMNCHAR           = val; return true; }
-        val = checkVariable(s, "INITLINE"            ); if ( val != null ) { INITLINE             = val; return true; }
-        val = checkVariable(s, "EVERYLINEINITS1"     ); if ( val != null ) { EVERYLINEINITS1      = val; return true; }
-        val = checkVariable(s, "EVERYLINEINITS2"     ); if ( val != null ) { EVERYLINEINITS2      = val; return true; }
-        val = checkVariable(s, "EQUALSMARKER"        ); if ( val != null ) { EQUALSMARKER         = val; return true; }
-        val = checkVariable(s, "EQUALSMARKER2"       ); if ( val != null ) { EQUALSMARKER2        = val; return true; }
-        val = checkVariable(s, "ALMOSTMARKER1"       ); if ( val != null ) { ALMOSTMARKER1        = val; return true; }
-        val = checkVariable(s, "ALMOSTMARKER2"       ); if ( val != null ) { ALMOSTMARKER2        = val; return true; }
-        val = checkVariable(s, "REGEXPMARKER1"       ); if ( val != null ) { REGEXPMARKER1        = val; return true; }
-        val = checkVariable(s, "REGEXPMARKER2"       ); if ( val != null ) { REGEXPMARKER2        = val; return true; }
-        val = checkVariable(s, "TOLERANCE"           ); if ( val != null ) { TOLERANCE            = val; return true;}
-        val = checkVariable(s, "THROWSMARKER"        ); if ( val != null ) { THROWSMARKER         = val; return true; }
-        val = checkVariable(s, "IMPORTMARKER"        ); if ( val != null ) { IMPORTMARKER         = val; return true; }
-        val = checkVariable(s, "PACKAGEMARKER"       ); if ( val != null ) { PACKAGEMARKER        = val; return true; }
-        val = checkVariable(s, "DIRECTORYMARKER"     ); if ( val != null ) { DIRECTORYMARKER      = val; return true; }
-        val = checkVariableQ(s, "BEFORETESTCLASS"    ); if ( val != null ) { BEFORETESTCLASS      = val; return true; }
-        val = checkVariableQ(s, "JUNITIMPORTS"       ); if ( val != null ) { JUNITIMPORTS         = val; return true; }
-        return false;
-    }
-
-    /**
-     * Check if s is a substitution to specified variable
-     * @param s        string to looks for
-     * @param varName  varName to look
-     * @return         new value for variable, null if not variable
-     */
-    private static String checkVariable(String s, String varName) {
-        if ( !s.startsWith("#" + varName + "=") ) return null;
-        String val = s.substring(varName.length() + 2).trim();
-        val = val.replace("\"", "");
-        val = val.replace("'", "");
-        return val;
-    }
-
-    /**
-     * Check if s is a substitution to specified variable.  Retain Quotes
-     * @param s        string to looks for
-     * @param varName  varName to look
-     * @return         new value for variable, null if not variable
+     * Returns all settings that affect the generated files
+     * as one string.
+     * @return settings in name=value lines
+     * @example
+     * <pre name="test">
+     *   ComTestIni ini = new ComTestIni();
+     *   ini.getSettings().indexOf("fullAutoImport=true\n") >= 0 === true;
+     *   String before = ini.getSettings();
+     *   ini.imports.add("java.util.*;");
+     *   ini.getSettings().equals(before) === false;
+     * </pre>
      */
-    private static String checkVariableQ(String s, String varName) {
-        if ( !s.startsWith("#" + varName + "=") ) return null;
-        String val = s.substring(varName.length() + 2).trim();
-        return val;
+    public String getSettings() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("directory=").append(directory).append('\n');
+        sb.append("packageName=").append(packageName).append('\n');
+        sb.append("imports=").append(imports.toString(":")).append('\n');
+        sb.append("doStaticImport=").append(doStaticImport).append('\n');
+        sb.append("noImportAtAll=").append(noImportAtAll).append('\n');
+        sb.append("fullAutoImport=").append(fullAutoImport).append('\n');
+        sb.append("packageImport=").append(packageImport).append('\n');
+        sb.append("classImport=").append(classImport).append('\n');
+        sb.append("dynamicImport=").append(dynamicImport).append('\n');
+        sb.append(variables.toString());
+        return sb.toString();
     }
 
     /**
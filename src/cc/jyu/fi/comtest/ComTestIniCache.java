@@ -0,0 +1,217 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import cc.jyu.fi.comtest.metrics.Metrics;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static cc.jyu.fi.comtest.ComTestSyntax.*;
+
+/**
+ * Bounded cache of the settings for source directories.  The nearest
+ * ComTest.ini of every directory is remembered, also when there is
+ * none, so sibling directories find the ini of their parent without
+ * climbing the whole tree again.  Every ini file is parsed only once
+ * and the settings of the directories using it are copied from it.
+ * The least recently used entries are dropped when the cache is full.
+ * An ini file is read again if its modification time has changed.
+ * Newly created ini files are noticed only after invalidate.
+ * A relative #DIRECTORY of an ini file is resolved against the
+ * directory of the ini file, and a subdirectory gets its own
+ * subdirectory and subpackage below the #DIRECTORY and #PACKAGE
+ * of the ini, so that sources with the same name in sibling
+ * directories do not write the same test file.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   ComTestIniCache c = new ComTestIniCache(2);
+ *   ComTestIni a = c.get("nosuchdir/a");
+ *   c.get("nosuchdir/a") == a === true;
+ *   c.getHits() === 1; c.getMisses() === 1;
+ *   c.get("nosuchdir/b").directory === "nosuchdir/b";
+ *   c.getLookupHits() === 1;
+ *   c.get("nosuchdir/c");
+ *   c.get("nosuchdir/a") == a === false;
+ *   c.invalidate("nosuchdir");
+ *   c.get("nosuchdir/c");
+ *   c.getMisses() === 5;
+ * </pre>
+ * <pre name="test">
+ * #THROWS java.io.IOException
+ *   java.io.File root = java.nio.file.Files.createTempDirectory("comtest").toFile();
+ *   java.io.File iniFile = new java.io.File(root, "ComTest.ini");
+ *   java.nio.file.Files.write(iniFile.toPath(), "#DIRECTORY=test\n#PACKAGE=t\n".getBytes());
+ *   ComTestIniCache c = new ComTestIniCache(10);
+ *   ComTestIni a = c.get(new java.io.File(root, "a").getPath());
+ *   ComTestIni b = c.get(new java.io.File(root, "b").getPath());
+ *   a.directory === new java.io.File(new java.io.File(root, "test"), "a").getPath();
+ *   b.directory === new java.io.File(new java.io.File(root, "test"), "b").getPath();
+ *   a.packageName === "t.a"; b.packageName === "t.b";
+ *   c.get(root.getPath()).directory === new java.io.File(root, "test").getPath();
+ *   iniFile.delete(); root.delete();
+ * </pre>
+ */
+public class ComTestIniCache {
+    /** Marks a directory without ComTest.ini */
+    private static final String NONE = "";
+
+    /** Parsed ini file and its modification time */
+    private static class Parsed {
+        final ComTestIni ini;
+        final long modified;
+
+        Parsed(ComTestIni ini, long modified) {
+            this.ini = ini;
+            this.modified = modified;
+        }
+    }
+
+    /** Settings of one directory and the ini they were copied from */
+    private static class DirEntry {
+        final ComTestIni ini;
+        final String iniFile;
+        final Parsed from;
+
+        DirEntry(ComTestIni ini, String iniFile, Parsed from) {
+            this.ini = ini;
+            this.iniFile = iniFile;
+            this.from = from;
+        }
+    }
+
+    private final Map<String, DirEntry> dirs;
+    private final Map<String, Parsed> parsed;
+    private final Map<String, String> nearest;
+
+    private int hits = 0;
+    private int misses = 0;
+    private int lookupHits = 0;
+    private int lookupMisses = 0;
+    private int reads = 0;
+
+    /**
+     * Creates an empty cache
+     * @param capacity how many directories and ini files are kept,
+     *        the nearest ini is remembered for four times as many directories
+     */
+    public ComTestIniCache(int capacity) {
+        dirs = lru(capacity);
+        parsed = lru(capacity);
+        nearest = lru(4 * capacity);
+    }
+
+    private static <K, V> Map<K, V> lru(final int capacity) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the settings for the source files in dir
+     * @param dir directory of the source files
+     * @return settings, shared by all callers asking for the same directory
+     */
+    public synchronized ComTestIni get(String dir) {
+        DirEntry entry = dirs.get(dir);
+        if ( entry != null && (entry.iniFile == null || read(entry.iniFile) == entry.from) ) {
+            hits++;
+            Metrics.INICACHEHITS.increment();
+            return entry.ini;
+        }
+        misses++;
+        Metrics.INICACHEMISSES.increment();
+
+        String iniFile = findIni(dir);
+        Parsed from = null;
+        ComTestIni ini;
+        if ( iniFile == null ) {
+            ini = new ComTestIni().forDirectory(dir);
+        } else {
+            from = read(iniFile);
+            ini = from.ini.forDirectory(dir, new File(iniFile).getParent());
+        }
+        dirs.put(dir, new DirEntry(ini, iniFile, from));
+        return ini;
+    }
+
+    /**
+     * Gets the parsed ini file, parsing it if it is not in the cache
+     * or has changed since it was parsed
+     */
+    private Parsed read(String iniFile) {
+        long modified = new File(iniFile).lastModified();
+        Parsed p = parsed.get(iniFile);
+        if ( p != null && p.modified == modified ) return p;
+        reads++;
+        p = new Parsed(ComTestIni.read(iniFile), modified);
+        parsed.put(iniFile, p);
+        return p;
+    }
+
+    /**
+     * Finds the nearest ComTest.ini starting from dir and climbing up
+     * @param dir where to start
+     * @return name of the ini file, null if there is none
+     */
+    private String findIni(String dir) {
+        if ( dir == null ) return null;
+        String found = nearest.get(dir);
+        if ( found != null ) {
+            lookupHits++;
+            return found == NONE ? null : found;
+        }
+        lookupMisses++;
+        File ini = new File(dir, COMTESTINI);
+        String iniFile = ini.isFile() ? ini.getPath() : findIni(new File(dir).getParent());
+        nearest.put(dir, iniFile == null ? NONE : iniFile);
+        return iniFile;
+    }
+
+    /**
+     * Forgets everything about dir and its subdirectories.  Used when
+     * a ComTest.ini has been created, changed or removed.
+     * @param dir directory to forget
+     */
+    public synchronized void invalidate(String dir) {
+        removeUnder(dirs, dir);
+        removeUnder(nearest, dir);
+        removeUnder(parsed, dir);
+    }
+
+    private static void removeUnder(Map<String, ?> map, String dir) {
+        Iterator<String> it = map.keySet().iterator();
+        while ( it.hasNext() ) {
+            String key = it.next();
+            if ( key.equals(dir) || key.startsWith(dir + File.separator) ) it.remove();
+        }
+    }
+
+    /** @return number of directories found in the cache */
+    public synchronized int getHits() { return hits; }
+
+    /** @return number of directories whose settings had to be made */
+    public synchronized int getMisses() { return misses; }
+
+    /** @return number of directories whose nearest ini was remembered */
+    public synchronized int getLookupHits() { return lookupHits; }
+
+    /** @return number of directories checked for a ComTest.ini */
+    public synchronized int getLookupMisses() { return lookupMisses; }
+
+    /** @return number of ini files parsed */
+    public synchronized int getReads() { return reads; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Ini cache: %d hit(s), %d miss(es), %d lookup hit(s), %d lookup miss(es), %d ini file(s) read",
+                             hits, misses, lookupHits, lookupMisses, reads);
+    }
+}
@@ -0,0 +1,274 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import cc.jyu.fi.comtest.ComTestTimings.Phase;
+
+/**
+ * Machine readable report of one run.  Every processed file gets an
+ * entry with the result, sizes and the time used by each phase.  The
+ * report can be written as JSON Lines, one object per file and a
+ * summary at the end, and as JUnit-style XML where every file is
+ * a test case.
+ * @author vesal
+ */
+public class ComTestReport {
+    /** How many of the slowest files the summary lists */
+    public static final int SLOWEST = 5;
+
+    /**
+     * Report of one file
+     */
+    public static class Entry {
+        public String inFile;
+        public String outFile;
+        public String language;
+        public ComTestResult result;
+        public long inBytes;
+        public int inLines;
+        public long outBytes;
+        public int testMethods;
+        public final ComTestTimings timings = new ComTestTimings();
+        public long totalNanos;
+
+        /**
+         * @return name of the result class, like Success or SkippedAsBad
+         */
+        public String getType() {
+            return result == null ? "None" : result.getClass().getSimpleName();
+        }
+
+        /**
+         * @return message of the result, empty if none
+         */
+        public String getMessage() {
+            return result == null || result.getMessage() == null ? "" : result.getMessage();
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final long started = System.nanoTime();
+    private long elapsed = 0;
+
+    /**
+     * Adds the entry of a processed file
+     * @param entry entry to add
+     */
+    public synchronized void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    /**
+     * Marks the run finished
+     */
+    public synchronized void finish() {
+        elapsed = System.nanoTime() - started;
+    }
+
+    /**
+     * @return the entries in the order the files were processed
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries);
+    }
+
+    /**
+     * @param n how many to get
+     * @return n entries that took the longest time, slowest first
+     */
+    public synchronized List<Entry> getSlowest(int n) {
+        List<Entry> sorted = new ArrayList<Entry>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.totalNanos < b.totalNanos ? 1 : a.totalNanos > b.totalNanos ? -1 : 0;
+            }
+        });
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    /**
+     * Prints the slowest files
+     * @param out where to print
+     */
+    public void printSlowest(PrintStream out) {
+        out.println("Slowest files:");
+        for (Entry e : getSlowest(SLOWEST)) {
+            out.println(String.format(Locale.ROOT, "  %8.1f ms  %s (%s)", millis(e.totalNanos), e.inFile, phases(e)));
+        }
+    }
+
+    /**
+     * Writes the report as JSON Lines
+     * @param fileName file to write
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeJson(String fileName) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8");
+        try {
+            for (Entry e : entries) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("{\"record\":\"file\"");
+                field(sb, "file", e.inFile);
+                field(sb, "out", e.outFile);
+                field(sb, "language", e.language);
+                field(sb, "result", e.getType());
+                field(sb, "message", e.getMessage());
+                sb.append(",\"inBytes\":").append(e.inBytes);
+                sb.append(",\"inLines\":").append(e.inLines);
+                sb.append(",\"outBytes\":").append(e.outBytes);
+                sb.append(",\"testMethods\":").append(e.testMethods);
+                sb.append(",\"ms\":").append(format(millis(e.totalNanos)));
+                sb.append(",\"phases\":{");
+                for (Phase p : Phase.values()) {
+                    if ( p.ordinal() > 0 ) sb.append(',');
+                    sb.append('"').append(p.getKey()).append("\":").append(format(millis(e.timings.get(p))));
+                }
+                sb.append("}}\n");
+                w.write(sb.toString());
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"record\":\"summary\",\"files\":").append(entries.size());
+            sb.append(",\"ms\":").append(format(millis(elapsed)));
+            sb.append(",\"slowest\":[");
+            List<Entry> slowest = getSlowest(SLOWEST);
+            for (int i = 0; i < slowest.size(); i++) {
+                if ( i > 0 ) sb.append(',');
+                sb.append("{\"file\":").append(jsonString(slowest.get(i).inFile));
+                sb.append(",\"ms\":").append(format(millis(slowest.get(i).totalNanos))).append('}');
+            }
+            sb.append("]}\n");
+            w.write(sb.toString());
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Writes the report as JUnit-style XML.  Failures and internal
+     * errors are failures and errors, skipped files are skipped
+     * and the phase times are in system-out.
+     * @param fileName file to write
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeXml(String fileName) throws IOException {
+        int failures = 0, errors = 0, skipped = 0;
+        for (Entry e : entries) {
+            if ( e.result instanceof ComTestResult.InternalError ) errors++;
+            else if ( e.result instanceof ComTestResult.Fail ) failures++;
+            else if ( e.result instanceof ComTestResult.SkippedAsGood || e.result instanceof ComTestResult.SkippedAsBad ) skipped++;
+        }
+
+        Writer w = new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8");
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            w.write(String.format(Locale.ROOT, "<testsuite name=\"ComTest\" tests=\"%d\" failures=\"%d\" errors=\"%d\" skipped=\"%d\" time=\"%.3f\">\n",
+                                  entries.size(), failures, errors, skipped, elapsed / 1e9));
+            for (Entry e : entries) {
+                w.write(String.format(Locale.ROOT, "  <testcase classname=\"%s\" name=\"%s\" time=\"%.3f\">\n",
+                                      xml(e.language), xml(e.inFile), e.totalNanos / 1e9));
+                String tag = null;
+                if ( e.result instanceof ComTestResult.InternalError ) tag = "error";
+                else if ( e.result instanceof ComTestResult.Fail ) tag = "failure";
+                else if ( e.result instanceof ComTestResult.SkippedAsGood || e.result instanceof ComTestResult.SkippedAsBad ) tag = "skipped";
+                if ( tag != null ) w.write("    <" + tag + " message=\"" + xml(e.getMessage()) + "\"/>\n");
+                w.write("    <system-out>" + xml(e.getType() + " " + e.outFile + ", " + e.inLines + " lines, " +
+                                                 e.testMethods + " test methods, " + phases(e)) + "</system-out>\n");
+                w.write("  </testcase>\n");
+            }
+            w.write("</testsuite>\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String format(double ms) {
+        return String.format(Locale.ROOT, "%.3f", ms);
+    }
+
+    private static String phases(Entry e) {
+        StringBuilder sb = new StringBuilder();
+        for (Phase p : Phase.values()) {
+            if ( p.ordinal() > 0 ) sb.append(' ');
+            sb.append(p.getKey()).append('=').append(String.format(Locale.ROOT, "%.1f", millis(e.timings.get(p))));
+        }
+        return sb.toString();
+    }
+
+    private static void field(StringBuilder sb, String name, String value) {
+        sb.append(",\"").append(name).append("\":").append(jsonString(value));
+    }
+
+    /**
+     * Quotes a string for JSON
+     * @param s string to quote, may be null
+     * @return quoted string or null
+     * @example
+     * <pre name="test">
+     *   jsonString("a\"b\\c") === "\"a\\\"b\\\\c\"";
+     *   jsonString("a\nb") === "\"a\\nb\"";
+     *   jsonString("\u0001") === "\"\\u0001\"";
+     *   jsonString(null) === "null";
+     * </pre>
+     */
+    static String jsonString(String s) {
+        if ( s == null ) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch ( c ) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if ( c < 0x20 ) sb.append(String.format("\\u%04x", (int)c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Escapes a string for XML text and attributes
+     * @param s string to escape, may be null
+     * @return escaped string
+     * @example
+     * <pre name="test">
+     *   xml("a<b & \"c\"") === "a&lt;b &amp; &quot;c&quot;";
+     *   xml(null) === "";
+     * </pre>
+     */
+    static String xml(String s) {
+        if ( s == null ) return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch ( c ) {
+                case '<':  sb.append("&lt;"); break;
+                case '>':  sb.append("&gt;"); break;
+                case '&':  sb.append("&amp;"); break;
+                case '"':  sb.append("&quot;"); break;
+                default:
+                    if ( c < 0x20 && c != '\n' && c != '\t' && c != '\r' ) sb.append('?');
+                    else sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
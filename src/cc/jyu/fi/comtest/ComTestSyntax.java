@@ -1,6 +1,7 @@
 // ComTest - Comments for testing
 package cc.jyu.fi.comtest;
 
+import cc.jyu.fi.comtest.utils.QuotedLine;
 import cc.jyu.fi.comtest.utils.Strings;
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
 
@@ -30,10 +31,11 @@ public abstract class ComTestSyntax {
     public static final String PACKAGEIMPORT        = "#PACKAGEIMPORT";
     public static final String NOIMPORT             = "#NOIMPORT";
     public static final String COMTESTINI           = "ComTest.ini";
+    public static final String COMTESTVERSION       = "2.0.0";
 
-    private static final String equalsTest = "Assert.AreEqual(%s, %s, \"%s\");";
-    private static final String almostTest = "Assert.AreEqual(%s, %s, %s, \"%s\");";
-    private static final String regexTest = "Assert.IsTrue( System.Text.RegularExpressions.Regex.Matches(%s, %s).Count > 0, \"%s\" );";
+    static final String equalsTest = "Assert.AreEqual(%s, %s, \"%s\");";
+    static final String almostTest = "Assert.AreEqual(%s, %s, %s, \"%s\");";
+    static final String regexTest = "Assert.IsTrue( System.Text.RegularExpressions.Regex.Matches(%s, %s).Count > 0, \"%s\" );";
 
     public static final ComTestOperator EQUALS =
        new ComTestBinaryOperator(equalsTest, false, "===");
@@ -46,27 +48,7 @@ public abstract class ComTestSyntax {
     public static final String IMPORTMACRO          = "import";
     public static final String IMPORTMACRO2         = "using";
 
-    // Constants that have corresponding variables in ComTestScanner
-    public static String COLUMNSEPARATOR      = " | ";
-    public static String COLUMNCHAR           = "|";
-    public static String TEMPLATELINEMARKER   = "$";
-    public static String DELETESENTENCEMARKER = "---";
-    public static String INITLINE             = "=====";
-    public static String EVERYLINEINITS1      = "=====";
-    public static String EVERYLINEINITS2      = "=== Every line inits ===";
-    public static String EQUALSMARKER         = "===";
-    public static String EQUALSMARKER2        = "=>";
-    public static String ALMOSTMARKER1        = "~~~";
-    public static String ALMOSTMARKER2        = "~~";
-    public static String REGEXPMARKER1        = "=R=";
-    public static String REGEXPMARKER2        = "=~";
-    public static String TOLERANCE            = "0.000001";
-    public static String THROWSMARKER         = "#THROWS";
-    public static String IMPORTMARKER         = "#import";
-    public static String PACKAGEMARKER        = "#PACKAGE=";
-    public static String DIRECTORYMARKER      = "#DIRECTORY=";
-    public static String BEFORETESTCLASS      = "@SuppressWarnings({ \"PMD\" })";
-    public static String JUNITIMPORTS         = "import static org.junit.Assert.*;:import org.junit.*;";
+    // Markers that can be changed by #NAME=value lines are in ComTestVariables
 
     /**
      * Split line to smaller tokens. Line is divided from
@@ -102,13 +84,14 @@ public abstract class ComTestSyntax {
     public static Strings splitToSentences(String s) { // NOPMD by vesal on 13.1.2008 15:29
         Strings sentences = new Strings();
         String sentence,separator;
+        QuotedLine line = new QuotedLine(s, QUOTES);
         int p = 0;
         while ( true ) {
-            int p1 = indexOfNotInQuotes(s, ";", QUOTES, p);
-            int p2 = indexOfNotInQuotes(s, "{", QUOTES, p);
-            int p3 = indexOfNotInQuotes(s, "}", QUOTES, p);
-            int p4 = indexOfNotInQuotes(s, "else", QUOTES, p);
-            int p5 = indexOfNotInQuotes(s, "]", QUOTES, p);
+            int p1 = line.indexOf(";", p);
+            int p2 = line.indexOf("{", p);
+            int p3 = line.indexOf("}", p);
+            int p4 = line.indexOf("else", p);
+            int p5 = line.indexOf("]", p);
             int p0 = p1;
             int plen = 1;
             if ( 0 <= p5 && p5 < p2 ) { // format new int[]{3,5}; => new int[]{3,5}
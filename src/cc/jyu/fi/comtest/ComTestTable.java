@@ -4,8 +4,21 @@ package cc.jyu.fi.comtest;
 import cc.jyu.fi.comtest.utils.Strings;
 
 /**
- * Class for storing ComTest tables
+ * Class for storing ComTest tables.  The values are stored by columns,
+ * so ComTestTemplate can take the value of a variable by its index.
  * @author tojukarp
+ * @example
+ * <pre name="test">
+ *   ComTestTable t = new ComTestTable(new Strings("$a", "$b"));
+ *   t.addRow(new Strings("1", "2"));
+ *   t.addValues(new Strings("3"));
+ *   t.addValues(new Strings("5", "6", "7"));
+ *   t.numRows() === 3;
+ *   t.get(1, 0) === "2";
+ *   t.get(1, 1) === null;
+ *   t.get("$b", 2) === "6";
+ *   t.getColumnNames().toString("|") === "$a|$b";
+ * </pre>
  */
 public class ComTestTable {
     private int startingLine;
@@ -40,6 +53,10 @@ public class ComTestTable {
         startingLine = line;
     }
     
+    public Strings getColumnNames() {
+        return columnNames;
+    }
+
     public String getColumnName(int index) {
         return columnNames.get(index);
     }
@@ -67,4 +84,14 @@ public class ComTestTable {
         for ( int i = 0; i < columnNames.size(); i++ )
             columnValues[i].add(items.get(i));
     }
+
+    /**
+     * Adds a row that may have too few or too many items.
+     * Missing values are null and extra items are ignored.
+     * @param items values of the row
+     */
+    public void addValues(Strings items) {
+        for ( int i = 0; i < columnNames.size(); i++ )
+            columnValues[i].add(i < items.size() ? items.get(i) : null);
+    }
 }
@@ -0,0 +1,305 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import static cc.jyu.fi.comtest.ComTestSyntax.LINENUMBERMARKER;
+import static cc.jyu.fi.comtest.utils.StringUtilities.QUOTES;
+import static cc.jyu.fi.comtest.utils.StringUtilities.indexOfNotInQuotes;
+
+import java.util.List;
+
+import cc.jyu.fi.comtest.utils.Strings;
+
+/**
+ * Template of a table test compiled once for all rows of the table.
+ * Every fragment of the template is split to literal parts and slots
+ * for the variables and the line number marker.  A row is written
+ * in one pass and without copying the template.  Fragments that would
+ * be removed for every row, because a $ is left outside quotes, are
+ * found already when compiling.
+ * <p>
+ * The variables are replaced one after another, like by
+ * Strings.replace, so a value could create a new variable name or
+ * change the quoting.  Rows that might do that, and rows with the
+ * delete marker, are expanded the old way by replacing and deleting
+ * in a copy of the template.  Both ways give the same text.
+ * <p>
+ * The Java-family scanners and the C# ComTestProcessor both expand
+ * their tables with this class, so a variable, the delete marker and
+ * the line number marker work the same way in every language.  Only
+ * the removing of fragments with an unused $ is for the Java family,
+ * because in C# a $ starts an interpolated string.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   Strings t = new Strings("  ", "assertEquals(\"" + ComTestSyntax.LINENUMBERMARKER + "\", $r, f($a))", ";", " x=$a;", "\n");
+ *   ComTestTemplate ct = new ComTestTemplate(t, new Strings("$a", "$r"), "---");
+ *   StringBuilder sb = new StringBuilder();
+ *   ct.render(new Strings(" 1 ", "2"), "7", sb) === 5;
+ *   sb.toString() === "  assertEquals(\"7\", 2, f(1)); x=1; ";
+ *   sb.setLength(0);
+ *   ct.render(new Strings("---", "2"), "7", sb) === 3;
+ *   sb.toString() === "  ; ";
+ *   sb.setLength(0);
+ *   ct.render(new Strings("\"$\"", "2"), "8", sb) === 5;
+ *   sb.toString() === "  assertEquals(\"8\", 2, f(\"$\")); x=\"$\"; ";
+ *   sb.setLength(0);
+ *   ct.render(new Strings("1"), "9", sb) === 4;
+ *   sb.toString() === "  ; x=1; ";
+ * </pre>
+ * @example
+ * <pre name="test">
+ *   // a C# template line and a Java template give the same expansion
+ *   ComTestTable table = new ComTestTable(new Strings("$a", "$r"));
+ *   table.addRow(new Strings("1", "2"));
+ *   table.addRow(new Strings("---", "3"));
+ *   table.addRow(new Strings("\"$x\"", "4"));
+ *   ComTestTemplate cs = new ComTestTemplate(new Strings("Assert.AreEqual($r, F($a));"), table.getColumnNames(), "---", false);
+ *   ComTestTemplate java = new ComTestTemplate(new Strings("assertEquals($r, f($a));"), table.getColumnNames(), "---");
+ *   StringBuilder c = new StringBuilder(), j = new StringBuilder();
+ *   for (int row = 0; row < table.numRows(); row++) {
+ *     cs.render(table, row, "", c); c.append('|');
+ *     java.render(table, row, "", j); j.append('|');
+ *   }
+ *   c.toString() === "Assert.AreEqual(2, F(1));||Assert.AreEqual(4, F(\"$x\"));|";
+ *   j.toString() === "assertEquals(2, f(1));||assertEquals(4, f(\"$x\"));|";
+ * </pre>
+ */
+public class ComTestTemplate {
+    /** slot number for the line number marker */
+    private static final int LINE = -1;
+    /** chars a value must not have to be written by the compiled template */
+    private static final String UNSAFE = QUOTES + "\\/$#";
+
+    private final Strings fragments;
+    private final String[] vars;
+    private final String deleteMarker;
+    /** literal parts of every fragment, one more than slots */
+    private final String[][] literals;
+    /** variable index, or LINE, of every slot of every fragment */
+    private final int[][] slots;
+    /** fragments kept when the values are plain */
+    private final boolean[] kept;
+    /** first chars of the variable names */
+    private final String unsafe;
+    /** false if some row could change the template in an unexpected way */
+    private final boolean compiled;
+    /** are fragments with $ left outside quotes removed */
+    private final boolean removeUnused;
+    /** the last row checked by isPlain and the result */
+    private String[] plainValues = null;
+    private boolean plain = false;
+
+    /**
+     * Compiles the template
+     * @param fragments parts of the template, as they are output
+     * @param vars names of the variables, from the header of the table
+     * @param deleteMarker value that removes the sentences of the variable
+     */
+    public ComTestTemplate(List<String> fragments, List<String> vars, String deleteMarker) {
+        this(fragments, vars, deleteMarker, true);
+    }
+
+    /**
+     * Compiles the template
+     * @param fragments parts of the template, as they are output
+     * @param vars names of the variables, from the header of the table
+     * @param deleteMarker value that removes the sentences of the variable
+     * @param removeUnused true to remove the fragments where a $ is
+     *        left outside quotes, like the Java-family scanners do
+     */
+    public ComTestTemplate(List<String> fragments, List<String> vars, String deleteMarker, boolean removeUnused) {
+        this.removeUnused = removeUnused;
+        this.fragments = new Strings(fragments);
+        this.vars = new String[vars.size()];
+        for (int v = 0; v < this.vars.length; v++) this.vars[v] = vars.get(v).trim();
+        this.deleteMarker = deleteMarker;
+        int n = fragments.size();
+        literals = new String[n][];
+        slots = new int[n][];
+        kept = new boolean[n];
+
+        StringBuilder firstChars = new StringBuilder(UNSAFE);
+        boolean ok = true;
+        for (String var : this.vars) {
+            if ( var.length() == 0 ) ok = false;
+            else firstChars.append(var.charAt(0));
+        }
+        unsafe = firstChars.toString();
+
+        Strings parts = new Strings();
+        for (int f = 0; f < n && ok; f++) {
+            // parts has literal, slot, literal, ..., literal
+            parts.clear();
+            parts.add(fragments.get(f));
+            for (int v = 0; v < this.vars.length; v++) split(parts, this.vars[v], String.valueOf(v));
+            split(parts, LINENUMBERMARKER, String.valueOf(LINE));
+
+            int count = parts.size() / 2;
+            literals[f] = new String[count + 1];
+            slots[f] = new int[count];
+            StringBuilder plain = new StringBuilder();
+            for (int i = 0; i < parts.size(); i++) {
+                if ( i % 2 == 0 ) {
+                    literals[f][i / 2] = parts.get(i);
+                    plain.append(parts.get(i));
+                    continue;
+                }
+                int slot = Integer.parseInt(parts.get(i));
+                slots[f][i / 2] = slot;
+                if ( endsWithStart(parts.get(i - 1)) ) ok = false;
+                plain.append(slot == LINE ? LINENUMBERMARKER : "x");
+            }
+            kept[f] = !removeUnused || !isFound(plain.toString(), "$", QUOTES);
+        }
+        compiled = ok;
+    }
+
+    /**
+     * Splits every literal of parts where there is target.
+     * @param parts literal, slot, literal, ..., literal
+     * @param target what to look for
+     * @param slot slot to put in place of target
+     */
+    private static void split(Strings parts, String target, String slot) {
+        for (int i = 0; i < parts.size(); i += 2) {
+            String s = parts.get(i);
+            int p = s.indexOf(target);
+            if ( p < 0 ) continue;
+            parts.set(i, s.substring(0, p));
+            parts.add(i + 1, slot);
+            parts.add(i + 2, s.substring(p + target.length()));
+        }
+    }
+
+    /**
+     * @return true if s ends with the start of a variable name or the
+     *         line number marker, so a value after it could complete one
+     */
+    private boolean endsWithStart(String s) {
+        for (String var : vars)
+            for (int k = 1; k < var.length(); k++)
+                if ( s.endsWith(var.substring(0, k)) ) return true;
+        for (int k = 1; k < LINENUMBERMARKER.length(); k++)
+            if ( s.endsWith(LINENUMBERMARKER.substring(0, k)) ) return true;
+        return false;
+    }
+
+    /**
+     * @return true if the row can be written by the compiled template
+     */
+    private boolean isPlain(String[] values) {
+        if ( !compiled || values.length < vars.length ) return false;
+        for (int v = 0; v < vars.length; v++) {
+            String value = values[v];
+            if ( value.length() == 0 || value.equals(deleteMarker) ) return false;
+            for (int i = 0; i < value.length(); i++)
+                if ( unsafe.indexOf(value.charAt(i)) >= 0 ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Values of a row of the table for the variables.  The values are
+     * trimmed and a missing value ends the row.
+     * @param table table whose columns are the variables
+     * @param row index of the row
+     * @return values of the row
+     */
+    public String[] rowValues(ComTestTable table, int row) {
+        int n = 0;
+        int columns = Math.min(table.numColumns(), vars.length);
+        while ( n < columns && table.get(n, row) != null ) n++;
+        String[] values = new String[n];
+        for (int v = 0; v < n; v++) values[v] = table.get(v, row).trim();
+        return values;
+    }
+
+    /**
+     * Writes one row of the table.  The last new line of the template
+     * is changed to a space.
+     * @param row values of the row in the order of the variables
+     * @param lineNumber text for the line number marker
+     * @param out where to write
+     * @return number of fragments written
+     */
+    public int render(List<String> row, String lineNumber, StringBuilder out) {
+        String[] values = new String[Math.min(row.size(), vars.length)];
+        for (int v = 0; v < values.length; v++) values[v] = row.get(v).trim();
+        return render(values, lineNumber, out);
+    }
+
+    /**
+     * Writes one row of the table, see render(List, String, StringBuilder)
+     * @param table table whose columns are the variables
+     * @param row index of the row
+     * @param lineNumber text for the line number marker
+     * @param out where to write
+     * @return number of fragments written
+     */
+    public int render(ComTestTable table, int row, String lineNumber, StringBuilder out) {
+        return render(rowValues(table, row), lineNumber, out);
+    }
+
+    private int render(String[] values, String lineNumber, StringBuilder out) {
+        int count = 0;
+        int last = -1;
+        for (int f = 0; f < literals.length; f++) {
+            int start = out.length();
+            if ( !render(f, values, lineNumber, out) ) continue;
+            count++;
+            last = start;
+        }
+        int n = out.length();
+        if ( count > 0 && n > last && out.charAt(n - 1) == '\n' ) out.setCharAt(n - 1, ' ');
+        return count;
+    }
+
+    /**
+     * Writes one fragment of the template for a row
+     * @param fragment index of the fragment
+     * @param values values of the row, from rowValues
+     * @param lineNumber text for the line number marker
+     * @param out where to write
+     * @return false if the fragment is removed for this row
+     */
+    public boolean render(int fragment, String[] values, String lineNumber, StringBuilder out) {
+        if ( values != plainValues ) {
+            plain = isPlain(values);
+            plainValues = values;
+        }
+        if ( !plain ) return renderByReplace(fragment, values, lineNumber, out);
+        if ( !kept[fragment] ) return false;
+        String[] lit = literals[fragment];
+        int[] slot = slots[fragment];
+        for (int i = 0; i < slot.length; i++) {
+            out.append(lit[i]);
+            out.append(slot[i] == LINE ? lineNumber : values[slot[i]]);
+        }
+        out.append(lit[slot.length]);
+        return true;
+    }
+
+    /**
+     * Writes the fragment by replacing the variables one after another
+     * and checking the sentence after every step.
+     */
+    private boolean renderByReplace(int fragment, String[] values, String lineNumber, StringBuilder out) {
+        String s = fragments.get(fragment);
+        for (int v = 0; v < values.length; v++) {
+            if ( !values[v].equals(deleteMarker) ) s = s.replace(vars[v], values[v]);
+            else if ( isFound(s, vars[v], "") ) return false;
+        }
+        if ( removeUnused && isFound(s, "$", QUOTES) ) return false; // sentence with $ outside ""
+        out.append(s.replace(LINENUMBERMARKER, lineNumber));
+        return true;
+    }
+
+    /**
+     * @return true if s has target outside quotes and before any comment
+     */
+    private static boolean isFound(String s, String target, String quotes) {
+        int p = indexOfNotInQuotes(s, target, quotes);
+        int pc = indexOfNotInQuotes(s, "//", quotes);
+        return !( p < 0 || ( 0 <= pc && pc < p ) );
+    }
+}
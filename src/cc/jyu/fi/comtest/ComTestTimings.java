@@ -0,0 +1,91 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+/**
+ * Wall-clock time used by the phases of processing one file.  Every
+ * call to end adds the time since the previous call to a phase, so the
+ * phases are measured one after another with one clock read each.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   ComTestTimings t = new ComTestTimings();
+ *   t.start();
+ *   t.end(ComTestTimings.Phase.READ);
+ *   t.get(ComTestTimings.Phase.READ) >= 0 === true;
+ *   t.get(ComTestTimings.Phase.WRITE) === 0L;
+ *   t.total() === t.get(ComTestTimings.Phase.READ);
+ * </pre>
+ */
+public class ComTestTimings {
+    /**
+     * Phases of processing a file
+     */
+    public enum Phase {
+        /** reading the source file */
+        READ("read"),
+        /** findNames and findPackage, or parsing a C# file */
+        NAMES("names"),
+        /** createTestFileBegin, reading the old test file */
+        BEGIN("begin"),
+        /** createTestFileInner, generating the tests */
+        INNER("inner"),
+        /** addImports */
+        IMPORTS("imports"),
+        /** writing the test file */
+        WRITE("write");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        /** @return short name used in reports */
+        public String getKey() { return key; }
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private long mark = System.nanoTime();
+
+    /**
+     * Starts measuring the next phase from now
+     */
+    public void start() {
+        mark = System.nanoTime();
+    }
+
+    /**
+     * Adds the time since start or the previous end to the phase
+     * @param phase phase that ended
+     */
+    public void end(Phase phase) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - mark;
+        mark = now;
+    }
+
+    /**
+     * Adds the times of other to this
+     * @param other timings to add
+     */
+    public void add(ComTestTimings other) {
+        for (int i = 0; i < nanos.length; i++) nanos[i] += other.nanos[i];
+    }
+
+    /**
+     * @param phase phase to get
+     * @return nanoseconds used in the phase
+     */
+    public long get(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return nanoseconds used in all phases
+     */
+    public long total() {
+        long sum = 0;
+        for (long n : nanos) sum += n;
+        return sum;
+    }
+}
@@ -0,0 +1,222 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import cc.jyu.fi.comtest.utils.MarkerMatcher;
+
+import static cc.jyu.fi.comtest.utils.StringUtilities.*;
+
+/**
+ * Immutable snapshot of the ComTest syntax variables that can be
+ * changed with #NAME=value lines in ComTest.ini or in the test comments.
+ * Changing a variable creates a new snapshot, so one file can not
+ * affect the syntax used for another one.
+ * @author vesal
+ */
+public final class ComTestVariables {
+    /** Variables with their default values */
+    public static final ComTestVariables DEFAULTS = new ComTestVariables();
+
+    public final String COLUMNSEPARATOR;
+    public final String COLUMNCHAR;
+    public final String TEMPLATELINEMARKER;
+    public final String DELETESENTENCEMARKER;
+    public final String INITLINE;
+    public final String EVERYLINEINITS1;
+    public final String EVERYLINEINITS2;
+    public final String EQUALSMARKER;
+    public final String EQUALSMARKER2;
+    public final String ALMOSTMARKER1;
+    public final String ALMOSTMARKER2;
+    public final String REGEXPMARKER1;
+    public final String REGEXPMARKER2;
+    public final String TOLERANCE;
+    public final String THROWSMARKER;
+    public final String IMPORTMARKER;
+    public final String PACKAGEMARKER;
+    public final String DIRECTORYMARKER;
+    public final String BEFORETESTCLASS;
+    public final String JUNITIMPORTS;
+
+    /** C# operators using the markers of this snapshot */
+    public final ComTestOperator EQUALS;
+    public final ComTestOperator ALMOST;
+    public final ComTestOperator REGEX;
+
+    /**
+     * Matcher for the Java, C and C++ operator markers in the order
+     * ALMOSTMARKER1, ALMOSTMARKER2, EQUALSMARKER, EQUALSMARKER2,
+     * REGEXPMARKER1, REGEXPMARKER2
+     */
+    public final MarkerMatcher OPERATORS;
+
+    private ComTestVariables() {
+        COLUMNSEPARATOR      = " | ";
+        COLUMNCHAR           = "|";
+        TEMPLATELINEMARKER   = "$";
+        DELETESENTENCEMARKER = "---";
+        INITLINE             = "=====";
+        EVERYLINEINITS1      = "=====";
+        EVERYLINEINITS2      = "=== Every line inits ===";
+        EQUALSMARKER         = "===";
+        EQUALSMARKER2        = "=>";
+        ALMOSTMARKER1        = "~~~";
+        ALMOSTMARKER2        = "~~";
+        REGEXPMARKER1        = "=R=";
+        REGEXPMARKER2        = "=~";
+        TOLERANCE            = "0.000001";
+        THROWSMARKER         = "#THROWS";
+        IMPORTMARKER         = "#import";
+        PACKAGEMARKER        = "#PACKAGE=";
+        DIRECTORYMARKER      = "#DIRECTORY=";
+        BEFORETESTCLASS      = "@SuppressWarnings({ \"PMD\" })";
+        JUNITIMPORTS         = "import static org.junit.Assert.*;:import org.junit.*;";
+        EQUALS = ComTestSyntax.EQUALS;
+        ALMOST = ComTestSyntax.ALMOST;
+        REGEX  = ComTestSyntax.REGEX;
+        OPERATORS = operatorMatcher();
+    }
+
+    /**
+     * Copies the snapshot changing the value of one variable
+     * @param base snapshot to copy
+     * @param name name of the variable to change
+     * @param value new value for the variable
+     */
+    private ComTestVariables(ComTestVariables base, String name, String value) {
+        COLUMNSEPARATOR      = pick(base.COLUMNSEPARATOR,      "COLUMNSEPARATOR",      name, value);
+        COLUMNCHAR           = pick(base.COLUMNCHAR,           "COLUMNCHAR",           name, value);
+        TEMPLATELINEMARKER   = pick(base.TEMPLATELINEMARKER,   "TEMPLATELINEMARKER",   name, value);
+        DELETESENTENCEMARKER = pick(base.DELETESENTENCEMARKER, "DELETESENTENCEMARKER", name, value);
+        INITLINE             = pick(base.INITLINE,             "INITLINE",             name, value);
+        EVERYLINEINITS1      = pick(base.EVERYLINEINITS1,      "EVERYLINEINITS1",      name, value);
+        EVERYLINEINITS2      = pick(base.EVERYLINEINITS2,      "EVERYLINEINITS2",      name, value);
+        EQUALSMARKER         = pick(base.EQUALSMARKER,         "EQUALSMARKER",         name, value);
+        EQUALSMARKER2        = pick(base.EQUALSMARKER2,        "EQUALSMARKER2",        name, value);
+        ALMOSTMARKER1        = pick(base.ALMOSTMARKER1,        "ALMOSTMARKER1",        name, value);
+        ALMOSTMARKER2        = pick(base.ALMOSTMARKER2,        "ALMOSTMARKER2",        name, value);
+        REGEXPMARKER1        = pick(base.REGEXPMARKER1,        "REGEXPMARKER1",        name, value);
+        REGEXPMARKER2        = pick(base.REGEXPMARKER2,        "REGEXPMARKER2",        name, value);
+        TOLERANCE            = pick(base.TOLERANCE,            "TOLERANCE",            name, value);
+        THROWSMARKER         = pick(base.THROWSMARKER,         "THROWSMARKER",         name, value);
+        IMPORTMARKER         = pick(base.IMPORTMARKER,         "IMPORTMARKER",         name, value);
+        PACKAGEMARKER        = pick(base.PACKAGEMARKER,        "PACKAGEMARKER",        name, value);
+        DIRECTORYMARKER      = pick(base.DIRECTORYMARKER,      "DIRECTORYMARKER",      name, value);
+        BEFORETESTCLASS      = pick(base.BEFORETESTCLASS,      "BEFORETESTCLASS",      name, value);
+        JUNITIMPORTS         = pick(base.JUNITIMPORTS,         "JUNITIMPORTS",         name, value);
+
+        if ( name.equals("EQUALSMARKER") )
+            EQUALS = new ComTestBinaryOperator(ComTestSyntax.equalsTest, false, EQUALSMARKER);
+        else EQUALS = base.EQUALS;
+        if ( name.equals("ALMOSTMARKER1") || name.equals("ALMOSTMARKER2") )
+            ALMOST = new ComTestBinaryOperator(ComTestSyntax.almostTest, false, ALMOSTMARKER1, ALMOSTMARKER2);
+        else ALMOST = base.ALMOST;
+        if ( name.equals("REGEXPMARKER1") || name.equals("REGEXPMARKER2") )
+            REGEX = new ComTestBinaryOperator(ComTestSyntax.regexTest, true, REGEXPMARKER1, REGEXPMARKER2);
+        else REGEX = base.REGEX;
+        if ( name.startsWith("ALMOSTMARKER") || name.startsWith("EQUALSMARKER") || name.startsWith("REGEXPMARKER") )
+            OPERATORS = operatorMatcher();
+        else OPERATORS = base.OPERATORS;
+    }
+
+    private MarkerMatcher operatorMatcher() {
+        return new MarkerMatcher(QUOTES, ALMOSTMARKER1, ALMOSTMARKER2, EQUALSMARKER, EQUALSMARKER2,
+                                 REGEXPMARKER1, REGEXPMARKER2);
+    }
+
+    private static String pick(String old, String varName, String name, String value) {
+        return varName.equals(name) ? value : old;
+    }
+
+    /** Variables whose value keeps the quotes */
+    private static final String[] QUOTEDVARIABLES = { "BEFORETESTCLASS", "JUNITIMPORTS" };
+
+    /** All variables in the order they are checked */
+    private static final String[] VARIABLES = {
+        "COLUMNSEPARATOR", "TEMPLATELINEMARKER", "DELETESENTENCEMARKER", "COLUMNCHAR",
+        "INITLINE", "EVERYLINEINITS1", "EVERYLINEINITS2", "EQUALSMARKER", "EQUALSMARKER2",
+        "ALMOSTMARKER1", "ALMOSTMARKER2", "REGEXPMARKER1", "REGEXPMARKER2", "TOLERANCE",
+        "THROWSMARKER", "IMPORTMARKER", "PACKAGEMARKER", "DIRECTORYMARKER" };
+
+    /**
+     * Check if st is substitution to any known variable.
+     * @param st string to check
+     * @return new snapshot with the variable changed, null if st is not a variable line
+     * @example
+     * <pre name="test">
+     *   ComTestVariables v = ComTestVariables.DEFAULTS;
+     *   v.apply("a === 5;") === null;
+     *   ComTestVariables v2 = v.apply("#COLUMNSEPARATOR=\" : \"");
+     *   v2.COLUMNSEPARATOR === " : ";
+     *   v.COLUMNSEPARATOR === " | ";
+     *   v2.TOLERANCE === v.TOLERANCE;
+     *   v.apply("#TOLERANCE=0.01; // comment").TOLERANCE === "0.01";
+     *   v.apply("#BEFORETESTCLASS=@Ignore(\"x\")").BEFORETESTCLASS === "@Ignore(\"x\")";
+     *   v.apply("#EQUALSMARKER2=<=").EQUALSMARKER2 === "<=";
+     *   v.apply("#EQUALSMARKER=eq").EQUALS == v.EQUALS === false;
+     *   v.apply("#TOLERANCE=1").EQUALS == v.EQUALS === true;
+     *   v.apply("#TOLERANCE=1").OPERATORS == v.OPERATORS === true;
+     *   v.apply("#EQUALSMARKER2=<=").OPERATORS.indexesOf("a <= b")[3] === 2;
+     * </pre>
+     */
+    public ComTestVariables apply(String st) {
+        String s = removeAllAfter(st,";").trim();
+        if ( !s.startsWith("#") ) return null;
+        for ( String varName : VARIABLES ) {
+            String val = checkVariable(s, varName);
+            if ( val != null ) return new ComTestVariables(this, varName, val);
+        }
+        for ( String varName : QUOTEDVARIABLES ) {
+            String val = checkVariableQ(s, varName);
+            if ( val != null ) return new ComTestVariables(this, varName, val);
+        }
+        return null;
+    }
+
+    /**
+     * Check if s is a substitution to specified variable
+     * @param s        string to looks for
+     * @param varName  varName to look
+     * @return         new value for variable, null if not variable
+     */
+    private static String checkVariable(String s, String varName) {
+        String val = checkVariableQ(s, varName);
+        if ( val == null ) return null;
+        val = val.replace("\"", "");
+        val = val.replace("'", "");
+        return val;
+    }
+
+    /**
+     * Check if s is a substitution to specified variable.  Retain Quotes
+     * @param s        string to looks for
+     * @param varName  varName to look
+     * @return         new value for variable, null if not variable
+     */
+    private static String checkVariableQ(String s, String varName) {
+        if ( !s.startsWith("#" + varName + "=") ) return null;
+        return s.substring(varName.length() + 2).trim();
+    }
+
+    /**
+     * Returns a string that identifies the values of all variables,
+     * for example to be used as a part of a cache key.
+     * @return all variables in name=value lines
+     * @example
+     * <pre name="test">
+     *   ComTestVariables.DEFAULTS.toString().startsWith("COLUMNSEPARATOR= | \n") === true;
+     * </pre>
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String[] values = { COLUMNSEPARATOR, TEMPLATELINEMARKER, DELETESENTENCEMARKER, COLUMNCHAR,
+            INITLINE, EVERYLINEINITS1, EVERYLINEINITS2, EQUALSMARKER, EQUALSMARKER2,
+            ALMOSTMARKER1, ALMOSTMARKER2, REGEXPMARKER1, REGEXPMARKER2, TOLERANCE,
+            THROWSMARKER, IMPORTMARKER, PACKAGEMARKER, DIRECTORYMARKER };
+        for ( int i = 0; i < VARIABLES.length; i++ )
+            sb.append(VARIABLES[i]).append('=').append(values[i]).append('\n');
+        sb.append("BEFORETESTCLASS=").append(BEFORETESTCLASS).append('\n');
+        sb.append("JUNITIMPORTS=").append(JUNITIMPORTS).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,140 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches directories for changed files.  Events that come close to
+ * each other are collected together, so that saving several files at
+ * once, or an editor writing one file in several steps, causes only
+ * one call to the listener.  Subdirectories created under a watched
+ * tree are watched too.
+ * @author vesal
+ */
+public class ComTestWatcher {
+    /** Milliseconds without events after which the changes are reported */
+    public static final long QUIETTIME = 100;
+
+    /**
+     * Gets the changes found by the watcher
+     */
+    public interface Listener {
+        /**
+         * Called when files have changed
+         * @param paths absolute names of changed files, or of directories
+         *        where anything may have changed if events were lost
+         */
+        void changed(Set<String> paths);
+    }
+
+    private final WatchService service;
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+    private final Set<Path> trees = new HashSet<Path>();
+
+    /**
+     * Creates a watcher not watching anything yet
+     * @throws IOException if the file system can not be watched
+     */
+    public ComTestWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches a directory and all its subdirectories
+     * @param root directory to watch
+     * @throws IOException if the directory can not be watched
+     */
+    public void watchTree(String root) throws IOException {
+        Path path = Paths.get(root).toAbsolutePath();
+        trees.add(path);
+        registerTree(path);
+    }
+
+    /**
+     * Watches just one directory
+     * @param dir directory to watch
+     * @throws IOException if the directory can not be watched
+     */
+    public void watchDirectory(String dir) throws IOException {
+        register(Paths.get(dir).toAbsolutePath());
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) throws IOException {
+        if ( keys.containsValue(dir) ) return;
+        keys.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY), dir);
+    }
+
+    private boolean inTree(Path path) {
+        for (Path root : trees)
+            if ( path.startsWith(root) ) return true;
+        return false;
+    }
+
+    /**
+     * Waits for changes and reports them to the listener until
+     * the thread is interrupted.
+     * @param listener who to tell about the changes
+     * @throws InterruptedException when interrupted
+     */
+    public void watch(Listener listener) throws InterruptedException {
+        while ( true ) {
+            Set<String> changed = new TreeSet<String>();
+            collect(service.take(), changed);
+            WatchKey key;
+            while ( (key = service.poll(QUIETTIME, TimeUnit.MILLISECONDS)) != null )
+                collect(key, changed);
+            if ( !changed.isEmpty() ) listener.changed(changed);
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> changed) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if ( dir == null ) continue;
+            if ( event.kind() == OVERFLOW ) {
+                changed.add(dir.toString());
+                continue;
+            }
+            Path path = dir.resolve((Path)event.context());
+            if ( Files.isDirectory(path) ) {
+                if ( event.kind() == ENTRY_CREATE && inTree(dir) ) {
+                    try {
+                        registerTree(path);
+                    } catch (IOException e) { /* gone already */ }
+                    changed.add(path.toString());
+                }
+                continue;
+            }
+            changed.add(path.toString());
+        }
+        if ( !key.reset() ) keys.remove(key);
+    }
+}
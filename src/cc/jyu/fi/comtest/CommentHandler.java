@@ -2,6 +2,7 @@
 package cc.jyu.fi.comtest;
 
 import cc.jyu.fi.comtest.CommentStyles.*;
+import cc.jyu.fi.comtest.metrics.Metrics;
 import cc.jyu.fi.comtest.utils.Strings;
 
 import java.util.ArrayList;
@@ -41,7 +42,9 @@ public class CommentHandler {
     /**
      * Reads a line and returns it stripped of comments.
      * Comments are added to currentBlock, and to blocks after end of comment.
-     * @param line Line to process
+     * The line is copied only if it is inside a comment or a comment
+     * may start in it, so it can be a view to a longer buffer.
+     * @param text Line to process
      * @param lineNum Line number in code starting from 0 (use negative if irrelevant)
      * @return Line without comments
      * @example
@@ -67,7 +70,12 @@ public class CommentHandler {
      * </pre>
      */
     @SuppressWarnings("empty-statement")
-    public String readLine(String line, int lineNum) {
+    public String readLine(CharSequence text, int lineNum) {
+        if ( currentBlock == null || !(currentBlock.style instanceof BlockCommentStyle) ) {
+            if ( !CommentStyles.mayStart(text) ) return text.toString();
+        }
+
+        String line = text.toString();
         if ( currentBlock != null && currentBlock.style instanceof BlockCommentStyle ) {
             // Commented out
             BlockCommentStyle blockStyle = (BlockCommentStyle)currentBlock.style;
@@ -137,6 +145,7 @@ public class CommentHandler {
             return;
 
         blocks.add(currentBlock);
+        Metrics.COMMENTBLOCKS.increment();
         currentBlock = null;
     }
 
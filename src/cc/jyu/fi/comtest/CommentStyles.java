@@ -42,6 +42,25 @@ public abstract class CommentStyles {
      * All known commmenting styles
      */
     public static final CommentStyle[] All = {C, Cpp, JavaDoc, Xml};
+
+    /**
+     * Checks without copying the line if any comment may start in it.
+     * If not, guess would return null for the line.
+     * @param line line to check
+     * @return false if no style of All starts in the line
+     * @example
+     * <pre name="test">
+     * CommentStyles.mayStart("a = b / c;") === false
+     * CommentStyles.mayStart("a = \"//\";") === true
+     * CommentStyles.mayStart("a; /" + "* c") === true
+     * </pre>
+     */
+    public static boolean mayStart(CharSequence line) {
+        for ( CommentStyle style : All ) {
+            if ( indexOf(line, style.startSequence, 0) >= 0 ) return true;
+        }
+        return false;
+    }
     
     /**
      * Base class for all commenting styles
@@ -1,6 +1,6 @@
 package cc.jyu.fi.comtest.c;
 
-import java.util.Arrays;
+import java.util.List;
 import java.io.IOException;
 import java.io.PrintWriter;
 
@@ -8,6 +8,7 @@ import cc.jyu.fi.comtest.BaseComTestScanner;
 import cc.jyu.fi.comtest.ComTestIni;
 import cc.jyu.fi.comtest.utils.FileUtilities;
 import cc.jyu.fi.comtest.utils.Strings;
+import cc.jyu.fi.comtest.utils.TextSlice;
 
 import static cc.jyu.fi.comtest.ComTestSyntax.*;
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
@@ -25,7 +26,7 @@ public class ComTestScanner extends BaseComTestScanner
      * @param ini configuration file
      * @param contents where to scan the comment tests
      */
-    public ComTestScanner(ComTestIni ini, Strings contents) {
+    public ComTestScanner(ComTestIni ini, List<String> contents) {
         super(ini, contents);
     }
     
@@ -126,7 +127,7 @@ public class ComTestScanner extends BaseComTestScanner
             int p;
             String eq, tol, tolPostFix="";
             String s = line;
-            boolean isTemplateLine = indexOfNotInQuotes(s,TEMPLATELINEMARKER) >= 0;
+            boolean isTemplateLine = indexOfNotInQuotes(s,syntax.TEMPLATELINEMARKER) >= 0;
 
             boolean isRegExp = false;
 
@@ -155,36 +156,38 @@ public class ComTestScanner extends BaseComTestScanner
                 	continue;
                 }
 
-                p = indexOfNotInQuotes(s,ALMOSTMARKER1);
-                eq = ALMOSTMARKER1;
-                tol = ", " + TOLERANCE;
+                int[] found = syntax.OPERATORS.indexesOf(s);
+                p = found[0];
+                eq = syntax.ALMOSTMARKER1;
+                tol = ", " + syntax.TOLERANCE;
                 
                 if (p < 0) { // ~~
-                	p = indexOfNotInQuotes(s, ALMOSTMARKER2);
-                	eq = ALMOSTMARKER2;
+                	p = found[1];
+                	eq = syntax.ALMOSTMARKER2;
             	}
                 
                 if (p < 0) { // ===
-                	p = indexOfNotInQuotes(s, EQUALSMARKER);
-                	eq = EQUALSMARKER;
+                	p = found[2];
+                	eq = syntax.EQUALSMARKER;
                 	tol = "";
                 	tolPostFix = "";
             	} 
                 if (p < 0) { // =>
-                	p = indexOfNotInQuotes(s, EQUALSMARKER2);
-                	eq = EQUALSMARKER2;
+                	p = found[3];
+                	eq = syntax.EQUALSMARKER2;
             	}          
                 if (p < 0) { // =R=
-                	p = indexOfNotInQuotes(s, REGEXPMARKER1);
-                	eq = REGEXPMARKER1;
+                	p = found[4];
+                	eq = syntax.REGEXPMARKER1;
                 	isRegExp = true;
             	} 
                 if (p < 0) { // =~ 
-                	p = indexOfNotInQuotes(s, REGEXPMARKER2);
-                	eq = REGEXPMARKER2;
+                	p = found[5];
+                	eq = syntax.REGEXPMARKER2;
                 	isRegExp = true;
             	}
                 if (p >= 0) {
+                    countAssertion(found);
                     String leftSide = s.substring(0, p).trim();
                     String rightSide = s.substring(p + eq.length()).trim();
                     String message = "\"From: " + className + " line: "+ LINENUMBERMARKER + "\"";
@@ -284,11 +287,11 @@ public class ComTestScanner extends BaseComTestScanner
          *
          */
         protected String checkThrows(String s) {
-            int p = indexOfNotInQuotes(s, THROWSMARKER);
+            int p = indexOfNotInQuotes(s, syntax.THROWSMARKER);
             if ( p < 0 ) return s;
             indent = baseIndent + "";
             String sentence = s.substring(0,p);
-            String exception = s.substring(p+THROWSMARKER.length()).trim();
+            String exception = s.substring(p+syntax.THROWSMARKER.length()).trim();
             String exceptionBeg = exception;
             p = exceptionBeg.indexOf(")");
             if ( p >= 0 ) exceptionBeg = exceptionBeg.substring(0,p+1);
@@ -335,8 +338,8 @@ public class ComTestScanner extends BaseComTestScanner
         }
 
         if (! ini.noImportAtAll) {
-            String[] jimp = JUNITIMPORTS.split(":");
-            imports.addAll(Arrays.asList(jimp));
+            String[] jimp = syntax.JUNITIMPORTS.split(":");
+            for (String s : jimp) imports.addJUnit(s);
         }
 
         if (outlines.size() > 2) {
@@ -361,8 +364,8 @@ public class ComTestScanner extends BaseComTestScanner
         boolean javaComment=false;
         
         for (int i=0; i < contents.size(); i++ ) {
-            String s = contents.get(i).trim();
-            if (ComTestIni.checkVariables(s)) {
+            TextSlice s = contents.line(i).trim();
+            if (s.startsWith("#") && checkVariables(s.toString())) {
             	continue;
             }
             
@@ -1,6 +1,7 @@
 // ComTest - Comments for testing
 package cc.jyu.fi.comtest.c;
 
+import cc.jyu.fi.comtest.ComTestImports;
 import cc.jyu.fi.comtest.ComTestIni;
 import cc.jyu.fi.comtest.utils.Strings;
 import static cc.jyu.fi.comtest.ComTestSyntax.*;
@@ -27,11 +28,11 @@ public class TestHelpper {
     public Strings template;
 
 
-    /** Global list for test outLines  */
-    public Strings outLines;
+    /** Global buffer for test output  */
+    public StringBuilder body;
 
     /** Import lines */
-    public Strings imports;
+    public ComTestImports imports;
 
     /**
      * Initializer for TestHelper
@@ -45,7 +46,7 @@ public class TestHelpper {
       codeHandler = scanner.createCommentCodeHandler();
       initCmnds = codeHandler.getInitCmnds();
       template  = codeHandler.getTemplate();
-      outLines = scanner.getOutlines();
+      body = scanner.getBody();
       imports = scanner.getImports();
     }
 
@@ -68,9 +69,7 @@ public class TestHelpper {
      * @return array of printed lines
      */
     public String[] getOut() {
-            StringBuilder sb = new StringBuilder();
-        for (String s:outLines) sb.append(s);
-        out = sb.toString().split("\n");
+        out = body.toString().split("\n");
         return out;
     }
 
@@ -91,7 +90,7 @@ public class TestHelpper {
     public void scan(String s) {
             contents.clear();
             contents.add(s);
-            outLines.clear();
+            body.setLength(0);
             codeHandler.getInitCmnds().clear();
             codeHandler.readCode(0);
             getOut();
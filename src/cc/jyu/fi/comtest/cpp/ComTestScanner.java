@@ -1,7 +1,7 @@
 // ComTest - Comments for testing
 package cc.jyu.fi.comtest.cpp;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -11,6 +11,7 @@ import java.io.UnsupportedEncodingException;
 import cc.jyu.fi.comtest.ComTestIni;
 import cc.jyu.fi.comtest.utils.FileUtilities;
 import cc.jyu.fi.comtest.utils.Strings;
+import cc.jyu.fi.comtest.utils.TextSlice;
 
 import static cc.jyu.fi.comtest.ComTestSyntax.*;
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
@@ -27,7 +28,7 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
      * @param ini configuration file
      * @param contents where to scan the comment tests
      */
-    public ComTestScanner(ComTestIni ini, Strings contents) {
+    public ComTestScanner(ComTestIni ini, List<String> contents) {
         super(ini, contents);
     }
     
@@ -127,7 +128,7 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
             int p;
             String eq,tol,tolPostFix="";
             String s = line;
-            boolean isTemplateLine = indexOfNotInQuotes(s,TEMPLATELINEMARKER) >= 0;
+            boolean isTemplateLine = indexOfNotInQuotes(s,syntax.TEMPLATELINEMARKER) >= 0;
 
             boolean isRegExp = false;
 
@@ -143,13 +144,15 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
                 if ( rawMode ) s = removeFromBegining(st," ",1); else s = removeFromBegining(st, " ");
                 if ( s.length() == 0 ) continue;
 
-                p = indexOfNotInQuotes(s,ALMOSTMARKER1);  eq = ALMOSTMARKER1; tol = ", " + TOLERANCE;  // tolPostFix = "Delta"; /// ~~~
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,ALMOSTMARKER2); eq = ALMOSTMARKER2; }          /// ~~
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,EQUALSMARKER);  eq = EQUALSMARKER; tol = ""; tolPostFix = "";} /// ===
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,EQUALSMARKER2); eq = EQUALSMARKER2; }          /// =>
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,REGEXPMARKER1); eq = REGEXPMARKER1; isRegExp = true; } /// =R=
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,REGEXPMARKER2); eq = REGEXPMARKER2; isRegExp = true; } /// =~
+                int[] found = syntax.OPERATORS.indexesOf(s);
+                p = found[0];  eq = syntax.ALMOSTMARKER1; tol = ", " + syntax.TOLERANCE;  // tolPostFix = "Delta"; /// ~~~
+                if ( p < 0 ) { p = found[1]; eq = syntax.ALMOSTMARKER2; }          /// ~~
+                if ( p < 0 ) { p = found[2];  eq = syntax.EQUALSMARKER; tol = ""; tolPostFix = "";} /// ===
+                if ( p < 0 ) { p = found[3]; eq = syntax.EQUALSMARKER2; }          /// =>
+                if ( p < 0 ) { p = found[4]; eq = syntax.REGEXPMARKER1; isRegExp = true; } /// =R=
+                if ( p < 0 ) { p = found[5]; eq = syntax.REGEXPMARKER2; isRegExp = true; } /// =~
                 if ( p >= 0 ) {
+                    countAssertion(found);
                     String leftSide = s.substring(0,p).trim();
                     String rightSide = s.substring(p+eq.length()).trim();
                     String message = "\"From: " + className + " line: "+LINENUMBERMARKER + "\"";
@@ -242,11 +245,11 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
          *
          */
         protected String checkThrows(String s) {
-            int p = indexOfNotInQuotes(s, THROWSMARKER);
+            int p = indexOfNotInQuotes(s, syntax.THROWSMARKER);
             if ( p < 0 ) return s;
             indent = baseIndent + "";
             String sentence = s.substring(0,p);
-            String exception = s.substring(p+THROWSMARKER.length()).trim();
+            String exception = s.substring(p+syntax.THROWSMARKER.length()).trim();
             String exceptionBeg = exception;
             p = exceptionBeg.indexOf(")");
             if ( p >= 0 ) exceptionBeg = exceptionBeg.substring(0,p+1);
@@ -291,8 +294,8 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
         }
 
         if ( ! ini.noImportAtAll ) {
-            String[] jimp = JUNITIMPORTS.split(":");
-            imports.addAll(Arrays.asList(jimp));
+            String[] jimp = syntax.JUNITIMPORTS.split(":");
+            for (String s : jimp) imports.addJUnit(s);
         }
 
         if ( outlines.size() > 2 ) return;
@@ -304,7 +307,7 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
         addOutln(" * " + getComTestVersion());
         addOutln(" *");
         addOutln(" */");
-        //if ( !BEFORETESTCLASS.equals("") ) addOutln(BEFORETESTCLASS);
+        //if ( !syntax.BEFORETESTCLASS.equals("") ) addOutln(syntax.BEFORETESTCLASS);
         //addOutln("public class " + testClassName + " {");
 
 //            addOutln("#include <iostream>");
@@ -349,8 +352,8 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
     protected void createTestFileInner() { // NOPMD by vesal on 13.1.2008 15:30
         boolean javaComment=false;
         for (int i=0; i < contents.size(); i++ ) {
-            String s = contents.get(i).trim();
-            if ( ComTestIni.checkVariables(s) ) continue;
+            TextSlice s = contents.line(i).trim();
+            if ( s.startsWith("#") && checkVariables(s.toString()) ) continue;
             if ( javaComment && indexOfNotInQuotes(s,"*/")>=0 ) {
                 javaComment = false;
                 continue;
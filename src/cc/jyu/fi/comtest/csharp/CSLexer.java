@@ -0,0 +1,377 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.csharp;
+
+import cc.jyu.fi.comtest.utils.Strings;
+
+import java.util.Arrays;
+
+/**
+ * Splits C# code to tokens one char at a time.  The code is given one
+ * line at a time, and a block comment, a verbatim string or a raw string
+ * that goes on to the next line is continued there, so every char is
+ * looked at only once.  A token never spans lines: a comment or a string
+ * of many lines gives one token on every line.
+ * <p>
+ * Strings may be regular, verbatim (@""), interpolated ($"" and $@"")
+ * or raw ("""), and the braces and quotes inside the holes of an
+ * interpolated string are part of the string.  A line starting with #
+ * is one preprocessor token.  The symbol => is one token, other symbols
+ * are one char each, so a generic type like List&lt;List&lt;int&gt;&gt;
+ * ends with two &gt; tokens.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   CSLexer lex = new CSLexer();
+ *   lex.readLine("[Obsolete(\"a]\")] public List<int> F() => @\"x\"\"y\"; // c");
+ *   lex.toStrings().toString("|") === "[|Obsolete|(|\"a]\"|)|]|public|List|<|int|>|F|(|)|=>|@\"x\"\"y\"|;|// c";
+ *   lex.kind(3) === CSLexer.Kind.STRING;
+ *   lex.kind(17) === CSLexer.Kind.COMMENT;
+ *   lex.readLine("s = $\"{a + \"}\"} {{b}}\" + '\\'' /* x");
+ *   lex.toStrings().toString("|") === "s|=|$\"{a + \"}\"} {{b}}\"|+|'\\''|/* x";
+ *   lex.readLine("  still comment *" + "/ x = @\"one");
+ *   lex.toStrings().toString("|") === "  still comment *" + "/|x|=|@\"one";
+ *   lex.readLine("two\"\" three\".Length;");
+ *   lex.toStrings().toString("|") === "two\"\" three\"|.|Length|;";
+ *   lex.kind(0) === CSLexer.Kind.STRING;
+ *   lex.readLine("  #region x // y");
+ *   lex.size() === 1;
+ *   lex.kind(0) === CSLexer.Kind.PREPROCESSOR;
+ *   lex.readLine("x = 1.5e-3f + 0x1F;");
+ *   lex.toStrings().toString("|") === "x|=|1.5e-3f|+|0x1F|;";
+ * </pre>
+ */
+public class CSLexer {
+    /** Kinds of the tokens */
+    public enum Kind {
+        /** identifier or keyword */
+        WORD,
+        NUMBER,
+        /** string of any kind, or its part on one line */
+        STRING,
+        CHAR,
+        /** => or any other char that is not part of a longer token */
+        SYMBOL,
+        /** line comment, or the part of a block comment on one line */
+        COMMENT,
+        /** line starting with # */
+        PREPROCESSOR
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    /** what goes on from the previous line */
+    private static final int CODE = 0;
+    private static final int BLOCK_COMMENT = 1;
+    private static final int VERBATIM = 2;
+    private static final int RAW = 3;
+
+    private int state = CODE;
+    /** is the verbatim string that goes on interpolated */
+    private boolean interpolated;
+    /** number of quotes that end the raw string that goes on */
+    private int quotes;
+
+    private CharSequence line = "";
+    private int n;
+
+    private int size;
+    private int[] kinds = new int[32];
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+
+    /**
+     * Splits the next line to tokens
+     * @param text the line without the line separator
+     * @return number of tokens in the line
+     */
+    public int readLine(CharSequence text) {
+        line = text;
+        n = text.length();
+        size = 0;
+        int pos = 0;
+
+        if ( state != CODE ) {
+            // a comment or a string goes on from the previous line,
+            // an empty line of it is a token too
+            int s = state;
+            state = CODE;
+            int end;
+            if ( s == BLOCK_COMMENT ) end = blockComment(0);
+            else if ( s == VERBATIM ) end = verbatim(0, interpolated, true);
+            else end = raw(0, quotes, true);
+            add(s == BLOCK_COMMENT ? Kind.COMMENT : Kind.STRING, 0, end);
+            pos = end;
+        }
+        else {
+            while ( pos < n && line.charAt(pos) <= ' ' ) pos++;
+            if ( pos < n && line.charAt(pos) == '#' ) {
+                add(Kind.PREPROCESSOR, pos, n);
+                return size;
+            }
+        }
+
+        while ( true ) {
+            while ( pos < n && line.charAt(pos) <= ' ' ) pos++;
+            if ( pos >= n ) return size;
+            pos = token(pos);
+        }
+    }
+
+    /**
+     * Reads one token
+     * @param p where the token starts
+     * @return where the token ends
+     */
+    private int token(int p) {
+        char c = line.charAt(p);
+        char next = p + 1 < n ? line.charAt(p + 1) : '\0';
+        int end;
+
+        if ( c == '/' && next == '/' ) return add(Kind.COMMENT, p, n);
+        if ( c == '/' && next == '*' ) return add(Kind.COMMENT, p, blockComment(p + 2));
+
+        end = literal(p, true);
+        if ( end >= 0 ) return add(c == '\'' ? Kind.CHAR : Kind.STRING, p, end);
+
+        if ( isDigit(c) || ( c == '.' && isDigit(next) ) ) return add(Kind.NUMBER, p, number(p));
+        if ( isWordStart(c) || ( c == '@' && isWordStart(next) ) ) {
+            end = p + 1;
+            while ( end < n && isWordPart(line.charAt(end)) ) end++;
+            return add(Kind.WORD, p, end);
+        }
+        if ( c == '=' && next == '>' ) return add(Kind.SYMBOL, p, p + 2);
+        return add(Kind.SYMBOL, p, p + 1);
+    }
+
+    private int add(Kind kind, int start, int end) {
+        if ( size == kinds.length ) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        kinds[size] = kind.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+        return end;
+    }
+
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private static boolean isWordStart(char c) {
+        return c == '_' || Character.isLetter(c);
+    }
+
+    private static boolean isWordPart(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private int number(int p) {
+        int end = p + 1;
+        while ( end < n ) {
+            char c = line.charAt(end);
+            char prev = line.charAt(end - 1);
+            if ( isWordPart(c) ) end++;
+            else if ( c == '.' && end + 1 < n && isDigit(line.charAt(end + 1)) ) end++;
+            else if ( ( c == '+' || c == '-' ) && ( prev == 'e' || prev == 'E' ) &&
+                      !( line.charAt(p) == '0' && p + 1 < n && ( line.charAt(p + 1) | 0x20 ) == 'x' ) ) end++;
+            else break;
+        }
+        return end;
+    }
+
+    /**
+     * @param p where to look for the end of the comment
+     * @return end of the block comment, n if it goes on
+     */
+    private int blockComment(int p) {
+        for (int i = p; i + 1 < n; i++)
+            if ( line.charAt(i) == '*' && line.charAt(i + 1) == '/' ) return i + 2;
+        state = BLOCK_COMMENT;
+        return n;
+    }
+
+    /**
+     * Finds the end of a string or char literal.
+     * @param p where the literal may start
+     * @param top false inside an interpolated string, where a literal
+     *        can not go on to the next line
+     * @return end of the literal, n if it goes on to the next line,
+     *         -1 if no literal starts at p
+     */
+    private int literal(int p, boolean top) {
+        int q = p;
+        int dollars = 0;
+        boolean verbatim = false;
+        while ( q < n && line.charAt(q) == '$' ) { dollars++; q++; }
+        if ( q < n && line.charAt(q) == '@' ) { verbatim = true; q++; }
+        if ( verbatim && dollars == 0 )
+            while ( q < n && line.charAt(q) == '$' ) { dollars++; q++; }
+        if ( q >= n ) return -1;
+
+        char c = line.charAt(q);
+        if ( c == '\'' && q == p ) return charLiteral(q + 1);
+        if ( c != '"' ) return -1;
+        if ( verbatim ) return verbatim(q + 1, dollars > 0, top);
+
+        int run = q;
+        while ( run < n && line.charAt(run) == '"' ) run++;
+        if ( run - q >= 3 ) return raw(run, run - q, top);
+        return regular(q + 1, dollars > 0);
+    }
+
+    private int charLiteral(int p) {
+        while ( p < n ) {
+            char c = line.charAt(p);
+            if ( c == '\\' ) p += 2;
+            else if ( c == '\'' ) return p + 1;
+            else p++;
+        }
+        return n;
+    }
+
+    /**
+     * @param p position after the opening quote
+     * @param interpolated does the string have holes
+     * @return end of the string, or of the line if it is not closed
+     */
+    private int regular(int p, boolean interpolated) {
+        while ( p < n ) {
+            char c = line.charAt(p);
+            if ( c == '\\' ) p += 2;
+            else if ( c == '"' ) return p + 1;
+            else if ( interpolated && c == '{' ) p = hole(p);
+            else p++;
+        }
+        return n;
+    }
+
+    private int verbatim(int p, boolean interpolated, boolean top) {
+        while ( p < n ) {
+            char c = line.charAt(p);
+            if ( c == '"' ) {
+                if ( p + 1 < n && line.charAt(p + 1) == '"' ) p += 2;
+                else return p + 1;
+            }
+            else if ( interpolated && c == '{' ) p = hole(p);
+            else p++;
+        }
+        if ( top ) {
+            state = VERBATIM;
+            this.interpolated = interpolated;
+        }
+        return n;
+    }
+
+    private int raw(int p, int count, boolean top) {
+        int run = 0;
+        while ( p < n ) {
+            if ( line.charAt(p++) != '"' ) run = 0;
+            else if ( ++run == count ) {
+                while ( p < n && line.charAt(p) == '"' ) p++;
+                return p;
+            }
+        }
+        if ( top ) {
+            state = RAW;
+            quotes = count;
+        }
+        return n;
+    }
+
+    /**
+     * Skips a hole of an interpolated string, or {{
+     * @param p position of the {
+     * @return position after the hole
+     */
+    private int hole(int p) {
+        if ( p + 1 < n && line.charAt(p + 1) == '{' ) return p + 2;
+        int depth = 0;
+        p++;
+        while ( p < n ) {
+            char c = line.charAt(p);
+            int end = c == '"' || c == '\'' || c == '@' || c == '$' ? literal(p, false) : -1;
+            if ( end >= 0 ) { p = end; continue; }
+            if ( c == '{' ) depth++;
+            else if ( c == '}' && depth-- == 0 ) return p + 1;
+            p++;
+        }
+        return n;
+    }
+
+    /** @return number of tokens in the line */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i index of the token
+     * @return kind of the token
+     */
+    public Kind kind(int i) {
+        return KINDS[kinds[i]];
+    }
+
+    /**
+     * @param i index of the token
+     * @return index of the first char of the token in the line
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @param i index of the token
+     * @return index after the last char of the token in the line
+     */
+    public int end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * @param i index of the token
+     * @return the token as a string
+     */
+    public String text(int i) {
+        return line.subSequence(starts[i], ends[i]).toString();
+    }
+
+    /**
+     * Compares the token without copying it
+     * @param i index of the token
+     * @param s text to compare to
+     * @return true if the token is s
+     */
+    public boolean is(int i, String s) {
+        int start = starts[i];
+        if ( ends[i] - start != s.length() ) return false;
+        for (int k = 0; k < s.length(); k++)
+            if ( line.charAt(start + k) != s.charAt(k) ) return false;
+        return true;
+    }
+
+    /**
+     * @param i index of the token
+     * @return true if there is white space or a line break before the token
+     */
+    public boolean spaceBefore(int i) {
+        return i == 0 || starts[i] > ends[i - 1];
+    }
+
+    /**
+     * @return true if a comment or a string of the last line goes on
+     *         to the next line
+     */
+    public boolean isContinued() {
+        return state != CODE;
+    }
+
+    /** @return the tokens of the line as strings */
+    public Strings toStrings() {
+        Strings tokens = new Strings();
+        for (int i = 0; i < size; i++) tokens.add(text(i));
+        return tokens;
+    }
+}
@@ -4,9 +4,15 @@ package cc.jyu.fi.comtest.csharp;
 import java.util.UUID;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import org.w3c.dom.*;
 
+import cc.jyu.fi.comtest.ComTestException;
 import cc.jyu.fi.comtest.utils.Strings;
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
 import static cc.jyu.fi.comtest.utils.UuidUtilities.*;
@@ -15,7 +21,12 @@ import static cc.jyu.fi.comtest.utils.XmlUtilities.*;
 //#import comtest.utils.Strings;
 
 /**
- * C# project file for Visual Studio 2010
+ * C# project file for Visual Studio 2010.  The properties of the main
+ * property group and the items of the item groups are read to lists,
+ * and the text of the file is kept, so that only the changed groups
+ * are written again.  The properties are indexed by name and the
+ * source files and references by Include, so looking one up, adding
+ * or removing one does not go through the whole project.
  * @author tojukarp
  */
 public class CSProjectFile {
@@ -57,65 +68,322 @@ public class CSProjectFile {
         }
     }
 
-    private Document doc;
-    private Element mainPropertiesNode;
-    private Element referenceNode;
-    private Element projReferenceNode;
-    private Element sourceNode;
-    private Strings straySourceFiles = null;
+    /**
+     * A property of a PropertyGroup or an item (Compile, Reference, ...)
+     * of an ItemGroup.  The place of an element read from the file is
+     * known, so it is written again only if it is changed.
+     */
+    static class Item {
+        final String name;
+        /** attributes in the order of the file, Include of an item among them */
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        /** contents of the simple child elements, like HintPath of a reference */
+        final Map<String, String> metadata = new LinkedHashMap<String, String>();
+        /** text of a property, null for an item */
+        String value;
+        /** where the white space before the element starts, -1 for a new element */
+        int before = -1;
+        /** where the element starts and ends in the file, -1 for a new element */
+        int start = -1;
+        int end = -1;
+        boolean removed = false;
+        boolean changed = false;
+        /** group of the item */
+        Group group;
+
+        Item(String name) {
+            this.name = name;
+        }
 
-    public CSProjectFile(Document documentData) {
-        doc = documentData;
-        Node node = doc.getFirstChild().getFirstChild();
+        String getInclude() {
+            return attributes.get("Include");
+        }
+
+        /**
+         * @param metaName name of the child element, in any case
+         * @return contents of the child element, null if none
+         */
+        String getMetadata(String metaName) {
+            for ( Map.Entry<String, String> meta : metadata.entrySet() )
+                if ( meta.getKey().equalsIgnoreCase(metaName) ) return meta.getValue();
+            return null;
+        }
+    }
 
-        while ( node != null ) {
-            String nodeName = node.getNodeName();
+    /**
+     * A PropertyGroup or an ItemGroup at the top level of the project
+     */
+    static class Group {
+        final String name;
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        /** items in the order of the file, new ones last */
+        final List<Item> items = new ArrayList<Item>();
+        /** where the group starts and ends in the file, -1 for a new group */
+        int start = -1;
+        int end = -1;
+        /** end of the last child, where new items are written, -1 if the group has no end tag */
+        int tail = -1;
+        /** white space before the first child */
+        String space;
+        boolean changed = false;
+
+        Group(String name) {
+            this.name = name;
+        }
+
+        boolean isItemGroup() {
+            return name.equals("ItemGroup");
+        }
+
+        void add(Item item) {
+            items.add(item);
+            item.group = this;
+            changed = true;
+        }
 
-            if ( nodeName.equalsIgnoreCase("PropertyGroup") ) {
-                Element propertyGroup = (Element)node;
+        void remove(Item item) {
+            if ( item.start < 0 ) items.remove(item);
+            else item.removed = true;
+            changed = true;
+        }
 
-                if ( propertyGroup.getElementsByTagName("AssemblyName").getLength() == 1 )
-                    mainPropertiesNode = (Element)node;
+        /**
+         * @param itemName name of the items
+         * @return number of the items with the name that are not removed
+         */
+        int count(String itemName) {
+            int n = 0;
+            for ( Item item : items )
+                if ( !item.removed && item.name.equals(itemName) ) n++;
+            return n;
+        }
+    }
+
+    /**
+     * Items by their name or by their Include in lower case.  The items
+     * are added and removed together with their groups, so an index
+     * has the items that are not removed.
+     */
+    static class ItemIndex {
+        private final boolean byName;
+        private final Map<String, List<Item>> items = new HashMap<String, List<Item>>();
+        private int size = 0;
+
+        /**
+         * @param byName true to index by the name of the item, false
+         *        to index by its Include in any case
+         */
+        ItemIndex(boolean byName) {
+            this.byName = byName;
+        }
+
+        private String key(String s) {
+            if ( s == null ) return "";
+            return byName ? s : s.toLowerCase(Locale.ENGLISH);
+        }
+
+        private String keyOf(Item item) {
+            return key( byName ? item.name : item.getInclude() );
+        }
+
+        void add(Item item) {
+            String key = keyOf(item);
+            List<Item> same = items.get(key);
+            if ( same == null ) {
+                same = new ArrayList<Item>(1);
+                items.put(key, same);
             }
-            else if ( nodeName.equalsIgnoreCase("ItemGroup") ) {
-                Element itemGroup = (Element)node;
-
-                if ( itemGroup.getElementsByTagName("Reference").getLength() > 0 )
-                    referenceNode = (Element)node;
-                else if(itemGroup.getElementsByTagName("ProjectReference").getLength() > 0)
-                    projReferenceNode = (Element)node;
-                else if ( itemGroup.getElementsByTagName("Compile").getLength() > 0 )
-                {
-                    if ( sourceNode != null && straySourceFiles == null )
-                    {
-                        // Multiple Compile tags. Create a new one if adding more files.
-                        straySourceFiles = new Strings();
-                        straySourceFiles.addAll( this.getSourceFiles() );
-                        Element compileElement = (Element)node;
-                        straySourceFiles.add( compileElement.getAttribute("Include") );
-                        sourceNode = null;
-                    }
-                    else
-                        sourceNode = (Element)node;
-                }
+            same.add(item);
+            size++;
+        }
+
+        void remove(Item item) {
+            List<Item> same = items.get(keyOf(item));
+            if ( same != null && same.remove(item) ) size--;
+        }
+
+        /**
+         * @param key name or Include of the items
+         * @return the items in the order they were added, empty if none
+         */
+        List<Item> get(String key) {
+            List<Item> same = items.get(key(key));
+            if ( same == null ) return Collections.emptyList();
+            return same;
+        }
+
+        Item first(String key) {
+            List<Item> same = get(key);
+            return same.isEmpty() ? null : same.get(0);
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /** text of the project as it was read */
+    String text;
+    /** top-level groups in the order of the file, new ones last */
+    final List<Group> groups = new ArrayList<Group>();
+    /** end of the last top-level node, where new groups are written */
+    int tail;
+    /** white space before the first top-level node */
+    String space;
+    private Group mainProperties;
+    /** groups where new Compile items, references and project references are added */
+    private Group sourceGroup;
+    private Group referenceGroup;
+    private Group projectReferenceGroup;
+    /** properties of the main group by name */
+    private final ItemIndex properties = new ItemIndex(true);
+    /** items of the item groups by Include */
+    private final ItemIndex sourceFiles = new ItemIndex(false);
+    private final ItemIndex references = new ItemIndex(false);
+    private final ItemIndex projectReferences = new ItemIndex(false);
+    private boolean modified = false;
+
+    /**
+     * Creates a project of a text, the groups are added by the reader
+     * @param text text of the project file
+     */
+    CSProjectFile(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Creates a project of a DOM document.  The document is written
+     * to text and read like a project file, later changes to it are
+     * not seen by the project.
+     * @param documentData project as a DOM document
+     */
+    public CSProjectFile(Document documentData) {
+        try {
+            text = CSProjectFileWriter.toText(documentData);
+            CSProjectFileReader.parse(this);
+        } catch (ComTestException cte) {
+            throw new IllegalArgumentException(cte.getMessage());
+        }
+    }
+
+    /**
+     * Indexes the groups after they are read.  The main property group
+     * is the last PropertyGroup with an AssemblyName.  New Compile items
+     * are added to the last group having them, new references to the
+     * first group having them.
+     */
+    void indexGroups() {
+        for ( Group group : groups ) {
+            for ( Item item : group.items ) item.group = group;
+
+            if ( !group.isItemGroup() ) {
+                if ( group.count("AssemblyName") == 1 ) mainProperties = group;
+                continue;
             }
 
-            node = node.getNextSibling();
+            for ( Item item : group.items ) {
+                ItemIndex index = indexFor(item);
+                if ( index == null ) continue;
+                index.add(item);
+
+                if ( index == sourceFiles ) sourceGroup = group;
+                else if ( index == references && referenceGroup == null ) referenceGroup = group;
+                else if ( index == projectReferences && projectReferenceGroup == null ) projectReferenceGroup = group;
+            }
         }
 
-        //mainProperties = mainPropertiesNode.getChildNodes();
+        if ( mainProperties != null )
+            for ( Item item : mainProperties.items ) properties.add(item);
+        modified = false;
+    }
+
+    /**
+     * @return the index where the item belongs, null if none
+     */
+    private ItemIndex indexFor(Item item) {
+        if ( item.group == mainProperties ) return properties;
+        if ( !item.group.isItemGroup() ) return null;
+        if ( item.name.equals("Compile") ) return sourceFiles;
+        if ( item.name.equals("Reference") ) return references;
+        if ( item.name.equals("ProjectReference") ) return projectReferences;
+        return null;
+    }
+
+    private void addItem(Group group, Item item) {
+        group.add(item);
+        ItemIndex index = indexFor(item);
+        if ( index != null ) index.add(item);
+        modified = true;
+    }
+
+    private void removeItem(Item item) {
+        ItemIndex index = indexFor(item);
+        if ( index != null ) index.remove(item);
+        item.group.remove(item);
+        modified = true;
+    }
+
+    private Group newItemGroup() {
+        Group group = new Group("ItemGroup");
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * Tells if the project is changed since it was read, or since
+     * setModified(false).  Changes that leave the project as it was,
+     * like adding a source file that is already there, do not count.
+     * @return true if the project is changed
+     * @example
+     * <pre name="test">
+     * #THROWS ComTestException
+     * CSProjectFile projfile = CSProjectFileReader.read(new Strings(
+     *     "<Project>", "  <PropertyGroup><AssemblyName>A</AssemblyName></PropertyGroup>",
+     *     "  <ItemGroup><Compile Include=\"A.cs\" /></ItemGroup>", "</Project>"));
+     * projfile.isModified() === false;
+     * projfile.hasSourceFile("a.CS") === true;
+     * projfile.addSourceFile("A.cs");
+     * projfile.setAssemblyName("A");
+     * projfile.removeSourceFile("B.cs");
+     * projfile.isModified() === false;
+     * projfile.addSourceFile("B.cs");
+     * projfile.isModified() === true;
+     * projfile.setModified(false);
+     * projfile.removeSourceFile("b.cs");
+     * projfile.isModified() === true;
+     * projfile.hasSourceFile("B.cs") === false;
+     * </pre>
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Sets or clears the modified flag, for example after the project
+     * is saved.  The changes are still written by CSProjectFileWriter.
+     * @param modified new value of the flag
+     */
+    public void setModified(boolean modified) {
+        this.modified = modified;
     }
 
     /**
-     * Gets the project data as a DOM document
-     * @return DOM document
+     * Gets the project data as a DOM document.  The document is made
+     * of the project as it would be written, so changes to it are not
+     * seen by the project.
+     * @return DOM document, null if the project can not be parsed
      */
     public Document getDocument() {
-        return doc;
+        try {
+            return parseDomDocument( CSProjectFileWriter.write(this).toString("\n") );
+        } catch (ComTestException cte) {
+            return null;
+        }
     }
 
     /**
-     * Gets a property from the main property group
+     * Gets a property from the main property group as a DOM element.
+     * The element belongs to a new document made by getDocument.
      * @param name Property name
      * @return Property value
      * @example
@@ -136,18 +404,35 @@ public class CSProjectFile {
      * root.appendChild(group);
      * doc.appendChild(root);
      * CSProjectFile projfile = new CSProjectFile(doc);
-     * projfile.getMainProperty("FirstProperty") === prop1;
-     * projfile.getMainProperty("SecondProperty") === prop2;
-     * projfile.getMainProperty("ThirdProperty") === prop3;
+     * projfile.getMainProperty("FirstProperty").getTextContent() === "FirstValue";
+     * projfile.getMainProperty("SecondProperty").getTextContent() === "SecondValue";
+     * projfile.getMainProperty("ThirdProperty").getNodeName() === "ThirdProperty";
      * projfile.getMainProperty("InvalidProperty") === null;
      * </pre>
      */
     public Element getMainProperty(String name) {
-        NodeList matches = mainPropertiesNode.getElementsByTagName(name);
-        if ( matches == null || matches.getLength() == 0 ) return null;
+        if ( getMainPropertyItem(name) == null ) return null;
+        Document document = getDocument();
+        if ( document == null ) return null;
+
+        // The main group is the last one with an AssemblyName, like when reading
+        Element group = null;
+        for ( Node node = document.getDocumentElement().getFirstChild(); node != null; node = node.getNextSibling() ) {
+            if ( node.getNodeName().equals("PropertyGroup") &&
+                 ((Element)node).getElementsByTagName("AssemblyName").getLength() == 1 )
+                group = (Element)node;
+        }
+        if ( group == null ) return null;
+
+        NodeList matches = group.getElementsByTagName(name);
+        if ( matches.getLength() == 0 ) return null;
         return (Element)matches.item(0);
     }
 
+    private Item getMainPropertyItem(String name) {
+        return properties.first(name);
+    }
+
     /**
      * Gets the first matching property from the main property group
      * @param name Property name
@@ -177,9 +462,9 @@ public class CSProjectFile {
      * </pre>
      */
     public String getMainPropertyValue(String name) {
-        Element propNode = getMainProperty(name);
-        if ( propNode == null ) return null;
-        return propNode.getTextContent();
+        Item property = getMainPropertyItem(name);
+        if ( property == null ) return null;
+        return property.value;
     }
 
     /**
@@ -213,17 +498,25 @@ public class CSProjectFile {
      */
     public Strings getMainPropertyValues(String name) {
         Strings values = new Strings();
-        NodeList matches = mainPropertiesNode.getElementsByTagName(name);
-        if ( matches == null ) return values;
 
-        for ( int i = 0; i < matches.getLength(); i++ ) {
-            Node propNode = matches.item(i);
-            values.add( propNode.getTextContent() );
-        }
+        for ( Item item : properties.get(name) )
+            values.add(item.value);
 
         return values;
     }
 
+    /**
+     * Gets the main property group, a new one is added if there is none
+     * @return main property group
+     */
+    private Group mainPropertyGroup() {
+        if ( mainProperties == null ) {
+            mainProperties = new Group("PropertyGroup");
+            groups.add(mainProperties);
+        }
+        return mainProperties;
+    }
+
     /**
      * Sets a single-property value in the main group.
      * If one exists, its value will be overwritten.
@@ -248,21 +541,28 @@ public class CSProjectFile {
      * </pre>
      */
     public void setMainPropertyValue(String name, String value) {
-        Element existingElement = getMainProperty(name);
-        
-        if ( existingElement == null ) {
+        Item existing = getMainPropertyItem(name);
+
+        if ( existing == null ) {
             if ( value == null ) return;
-            existingElement = doc.createElement(name);
-            mainPropertiesNode.appendChild(existingElement);
+            existing = new Item(name);
+            existing.value = value;
+            addItem(mainPropertyGroup(), existing);
+            return;
         }
-        else if ( value == null ) {
-            mainPropertiesNode.removeChild(existingElement);
+
+        if ( value == null ) {
+            removeItem(existing);
             return;
         }
-        
-        existingElement.setTextContent(value);
+
+        if ( value.equals(existing.value) ) return;
+        existing.value = value;
+        existing.changed = true;
+        mainProperties.changed = true;
+        modified = true;
     }
-    
+
     /**
      * Adds multiple values for a main property.
      * @param name Name of the property
@@ -292,9 +592,9 @@ public class CSProjectFile {
      */
     public void addMainPropertyValues(String name, Strings values) {
         for ( int i = 0; i < values.size(); i++ ) {
-            Element newElement = doc.createElement(name);
-            newElement.setTextContent(values.get(i));
-            mainPropertiesNode.appendChild(newElement);
+            Item property = new Item(name);
+            property.value = values.get(i);
+            addItem(mainPropertyGroup(), property);
         }
     }
 
@@ -324,6 +624,21 @@ public class CSProjectFile {
         return projTypes;
     }
 
+    /**
+     * Finds the items with a name from all item groups
+     * @param itemName name of the items
+     * @return items that are not removed, in the order of the file
+     */
+    private List<Item> getItems(String itemName) {
+        List<Item> found = new ArrayList<Item>();
+        for ( Group group : groups ) {
+            if ( !group.isItemGroup() ) continue;
+            for ( Item item : group.items )
+                if ( !item.removed && item.name.equals(itemName) ) found.add(item);
+        }
+        return found;
+    }
+
     /**
      * Gets the project references.
      * @return List of references
@@ -331,49 +646,37 @@ public class CSProjectFile {
     public List<Reference> getReferences() {
         List<Reference> refs = new ArrayList<Reference>();
 
-        if ( referenceNode != null ) {
-            NodeList refNodes = referenceNode.getElementsByTagName("Reference");
-
-            for ( int i = 0; i < refNodes.getLength(); i++ ) {
-                Element refNode = (Element)refNodes.item(i);
-                String assemblyName = refNode.getAttribute("Include");
+        for ( Item refItem : getItems("Reference") ) {
+            String assemblyName = refItem.getInclude();
 
-                if ( isEmpty(assemblyName) )
-                    continue;
+            if ( isEmpty(assemblyName) )
+                continue;
 
-                Reference newRef = new Reference(assemblyName);
-                NodeList refProperties = refNode.getChildNodes();
-                String privateNode = getNodeContent(refProperties, "Private");
-                String hintNode = getNodeContent(refProperties, "HintPath");
+            Reference newRef = new Reference(assemblyName);
+            String privateNode = refItem.getMetadata("Private");
+            String hintNode = refItem.getMetadata("HintPath");
 
-                if ( hintNode != null )
-                    newRef = new ExternalReference(assemblyName, hintNode);
+            if ( hintNode != null )
+                newRef = new ExternalReference(assemblyName, hintNode);
 
-                newRef.isPrivate =
-                        ( privateNode == null || !privateNode.equalsIgnoreCase("False") );
+            newRef.isPrivate =
+                    ( privateNode == null || !privateNode.equalsIgnoreCase("False") );
 
-                refs.add(newRef);
-            }
+            refs.add(newRef);
         }
 
-        if ( projReferenceNode != null ) {
-            NodeList refNodes = projReferenceNode.getElementsByTagName("ProjectReference");
-
-            for ( int i = 0; i < refNodes.getLength(); i++ ) {
-                Element refNode = (Element)refNodes.item(i);
-                String hintPath = refNode.getAttribute("Include");
+        for ( Item refItem : getItems("ProjectReference") ) {
+            String hintPath = refItem.getInclude();
 
-                if ( isEmpty(hintPath) )
-                    continue;
+            if ( isEmpty(hintPath) )
+                continue;
 
-                NodeList refProperties = refNode.getChildNodes();
-                String assemblyName = getNodeContent(refProperties, "Name");
-                String guidStr = getNodeContent(refProperties, "Project");
-                ProjectReference newRef =
-                    new ProjectReference(assemblyName, hintPath, strToUuid(guidStr));
+            String assemblyName = refItem.getMetadata("Name");
+            String guidStr = refItem.getMetadata("Project");
+            ProjectReference newRef =
+                new ProjectReference(assemblyName, hintPath, strToUuid(guidStr));
 
-                refs.add(newRef);
-            }
+            refs.add(newRef);
         }
 
         return refs;
@@ -384,20 +687,10 @@ public class CSProjectFile {
      * @return List of file name strings
      */
     public List<String> getSourceFiles() {
-        if ( sourceNode == null ) {
-            if ( straySourceFiles == null ) return new ArrayList<String>();
-            else return straySourceFiles;
-        }
-
         ArrayList<String> srcFiles = new ArrayList<String>();
-        if (straySourceFiles != null) srcFiles.addAll(straySourceFiles);
-        NodeList entries = sourceNode.getElementsByTagName("Compile");
 
-        for ( int i = 0; i < entries.getLength(); i++ ) {
-            Element entry = (Element)entries.item(i);
-            String fileName = entry.getAttribute("Include");
-            srcFiles.add(fileName);
-        }
+        for ( Item compileItem : getItems("Compile") )
+            srcFiles.add( compileItem.getInclude() );
 
         return srcFiles;
     }
@@ -407,26 +700,45 @@ public class CSProjectFile {
      * @return Number of source files
      */
     public int getNumSourceFiles() {
-        int sourceCount = sourceNode != null ? sourceNode.getElementsByTagName("Compile").getLength() : 0;
-        int strayCount = straySourceFiles != null ? straySourceFiles.size() : sourceCount;
+        return sourceFiles.size();
+    }
 
-        return sourceCount + strayCount;
+    /**
+     * Tells if a source file is in the project
+     * @param fileName Source file, in any case
+     * @return true if the project has the file
+     */
+    public boolean hasSourceFile(String fileName) {
+        return !sourceFiles.get(fileName).isEmpty();
     }
 
     /**
      * Adds a new source file into the project.
      * @param fileName Source file to add
+     * @example
+     * <pre name="test">
+     * #THROWS ComTestException
+     * CSProjectFile projfile = CSProjectFileReader.read(new Strings(
+     *     "<Project>", "  <ItemGroup>", "    <Compile Include=\"A.cs\" />",
+     *     "  </ItemGroup>", "  <ItemGroup>", "    <Compile Include=\"B.cs\" />", "  </ItemGroup>", "</Project>"));
+     * projfile.getSourceFiles().toString() === "[A.cs, B.cs]";
+     * projfile.addSourceFile("C.cs");
+     * projfile.addSourceFile("a.cs");
+     * projfile.getSourceFiles().toString() === "[B.cs, C.cs, a.cs]";
+     * projfile.removeSourceFile("c.CS");
+     * projfile.getNumSourceFiles() === 2;
+     * </pre>
      */
     public void addSourceFile(String fileName) {
-        if ( sourceNode == null ) {
-            sourceNode = doc.createElement("ItemGroup");
-            doc.getFirstChild().appendChild(sourceNode);
-        }
+        List<Item> existing = sourceFiles.get(fileName);
+        if ( existing.size() == 1 && fileName.equals(existing.get(0).getInclude()) )
+            return;
 
         removeSourceFile(fileName);
-        Element compileElement = doc.createElement("Compile");
-        compileElement.setAttribute("Include", fileName);
-        sourceNode.appendChild(compileElement);
+        Item compileItem = new Item("Compile");
+        compileItem.attributes.put("Include", fileName);
+        if ( sourceGroup == null ) sourceGroup = newItemGroup();
+        addItem(sourceGroup, compileItem);
     }
 
     /**
@@ -434,13 +746,8 @@ public class CSProjectFile {
      * @param fileName Source file to remove
      */
     public void removeSourceFile(String fileName) {
-        NodeList compileNodes = sourceNode.getElementsByTagName("Compile");
-
-        for ( int i = 0; i < compileNodes.getLength(); i++ ) {
-            Element compileElement = (Element)compileNodes.item(i);
-            if ( compileElement.getAttribute("Include").equalsIgnoreCase(fileName) )
-                sourceNode.removeChild(compileElement);
-        }
+        for ( Item item : new ArrayList<Item>(sourceFiles.get(fileName)) )
+            removeItem(item);
     }
 
     /**
@@ -451,21 +758,12 @@ public class CSProjectFile {
         if ( ref.projectGuid == null || isEmpty( ref.hintPath ) )
             return;
 
-        if ( projReferenceNode == null ) {
-            projReferenceNode = doc.createElement("ItemGroup");
-            doc.getFirstChild().appendChild(projReferenceNode);
-        }
-
-        Element refElement = doc.createElement("ProjectReference");
-        refElement.setAttribute("Include", ref.hintPath);
-        Element guidElement = doc.createElement("Project");
-        guidElement.setTextContent(uuidToStr(ref.projectGuid, true));
-        Element nameElement = doc.createElement("Name");
-        nameElement.setTextContent(ref.assemblyName);
-        
-        refElement.appendChild(guidElement);
-        refElement.appendChild(nameElement);
-        projReferenceNode.appendChild(refElement);
+        Item refItem = new Item("ProjectReference");
+        refItem.attributes.put("Include", ref.hintPath);
+        refItem.metadata.put("Project", uuidToStr(ref.projectGuid, true));
+        refItem.metadata.put("Name", ref.assemblyName);
+        if ( projectReferenceGroup == null ) projectReferenceGroup = newItemGroup();
+        addItem(projectReferenceGroup, refItem);
     }
 
     public boolean projectTypeIs(UUID projType) {
@@ -484,38 +782,22 @@ public class CSProjectFile {
             return;
         }
 
-        if ( referenceNode == null ) {
-            // Create a reference group if none
-            referenceNode = doc.createElement("ItemGroup");
-            doc.getFirstChild().appendChild(referenceNode);
-        }
-        else {
-            // Do not allow duplicate references
-            NodeList refs = referenceNode.getElementsByTagName("Reference");
-            for ( int i = 0; i < refs.getLength(); i++ ) {
-                Element e = (Element)refs.item(i);
-
-                if ( e.getAttribute("Include").equalsIgnoreCase(ref.assemblyName) )
-                    return;
-            }
-        }
+        // Do not allow duplicate references
+        if ( !references.get(ref.assemblyName).isEmpty() )
+            return;
 
-        Element refElement = doc.createElement("Reference");
-        refElement.setAttribute("Include", ref.assemblyName);
+        Item refItem = new Item("Reference");
+        refItem.attributes.put("Include", ref.assemblyName);
 
         if ( ref instanceof ExternalReference ) {
             ExternalReference eref = (ExternalReference)ref;
-            Element hintElement = doc.createElement("HintPath");
-            hintElement.setTextContent(eref.hintPath);
-            refElement.appendChild(hintElement);
-        }
-        if ( !ref.isPrivate ) {
-            Element privElement = doc.createElement("Private");
-            privElement.setTextContent("False");
-            refElement.appendChild(privElement);
+            refItem.metadata.put("HintPath", eref.hintPath);
         }
+        if ( !ref.isPrivate )
+            refItem.metadata.put("Private", "False");
 
-        sourceNode.appendChild(refElement);
+        if ( referenceGroup == null ) referenceGroup = newItemGroup();
+        addItem(referenceGroup, refItem);
     }
 
     public CSSourceFile GeneratePropertiesFile() {
@@ -1,60 +1,227 @@
 // ComTest - Comments for testing
 package cc.jyu.fi.comtest.csharp;
 
-import java.io.InputStream;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import org.w3c.dom.*;
-import org.xml.sax.SAXParseException;
+import java.io.StringReader;
+import java.util.Map;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import cc.jyu.fi.comtest.ComTestException;
 import cc.jyu.fi.comtest.utils.Strings;
-import cc.jyu.fi.comtest.utils.StringsInputStream;
+import static cc.jyu.fi.comtest.utils.XmlUtilities.createStreamReader;
 
 /**
- * Reads csproj files
+ * Reads csproj files.  The file is read in one pass with a StAX
+ * reader, and only the top-level property and item groups are taken
+ * to the project.  The places of the groups and their children in the
+ * text are found by following the events in the text, so that the
+ * writer can copy everything that is not changed as it was.
  * @author tojukarp
+ * @example
+ * <pre name="test">
+ * #THROWS ComTestException
+ * Strings source = new Strings("<?xml version=\"1.0\"?>", "<Project xmlns=\"x\">",
+ *     "  <PropertyGroup>", "    <AssemblyName>A&amp;B</AssemblyName>", "  </PropertyGroup>",
+ *     "  <!-- <ItemGroup> -->", "  <ItemGroup>",
+ *     "    <Reference Include=\"Lib\"><HintPath>..\\Lib.dll</HintPath></Reference>",
+ *     "    <Compile Include=\"A.cs\" />", "  </ItemGroup>", "</Project>");
+ * CSProjectFile projfile = read(source);
+ * projfile.getAssemblyName() === "A&B";
+ * projfile.getSourceFiles().toString() === "[A.cs]";
+ * ((CSProjectFile.ExternalReference)projfile.getReferences().get(0)).hintPath === "..\\Lib.dll";
+ * CSProjectFile.Item compile = projfile.groups.get(1).items.get(1);
+ * projfile.text.substring(compile.start, compile.end) === "<Compile Include=\"A.cs\" />";
+ * read(new Strings("<Solution />")); #THROWS ComTestException
+ * </pre>
  */
 public class CSProjectFileReader {
     public static CSProjectFile read(Strings source) throws cc.jyu.fi.comtest.ComTestException {
+        CSProjectFile project = new CSProjectFile( source.toString("\n") );
+        parse(project);
+        return project;
+    }
+
+    /**
+     * Reads the groups of the project from its text
+     * @param project project with the text and no groups
+     * @throws ComTestException if the text is not a project file
+     */
+    static void parse(CSProjectFile project) throws ComTestException {
+        String text = project.text;
+        int pos = text.startsWith("\uFEFF") ? 1 : 0;
+        XMLStreamReader xml = null;
+
         try {
-            InputStream srcStream = new StringsInputStream(source);
-            DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-            Document doc = docBuilder.parse( srcStream );
-            srcStream.close();
+            xml = createStreamReader(new StringReader(text.substring(pos)));
+            if ( text.startsWith("<?xml", pos) ) pos = text.indexOf("?>", pos) + 2;
 
-            // Normalize text representation and get root element
-            doc.getDocumentElement().normalize();
-            Element rootElement = doc.getDocumentElement();
+            int depth = 0;
+            boolean emptyTag = false;
+            CSProjectFile.Group group = null;
+            CSProjectFile.Item item = null;
+            String metaName = null;
+            StringBuilder value = new StringBuilder();
+            StringBuilder content = new StringBuilder();
+            project.tail = pos;
 
-            if ( !doc.getDocumentElement().getNodeName().equalsIgnoreCase("project") )
-                throw new ComTestException("Project XML element missing", true);
+            while ( xml.hasNext() ) {
+                int event = xml.next();
 
-            return new CSProjectFile(doc);
+                switch ( event ) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        int start = text.indexOf('<', pos);
+                        int end = tagEnd(text, start);
+                        emptyTag = text.charAt(end - 2) == '/';
+                        String name = xml.getLocalName();
+                        depth++;
 
-        } catch (SAXParseException err) {
-            String msg = "Parsing error" + ", line "
-                    + err.getLineNumber() + ", uri " + err.getSystemId() +
-                    ", message " + err.getMessage();
-            throw new ComTestException(msg, true);
+                        if ( depth == 1 && !name.equalsIgnoreCase("project") )
+                            throw new ComTestException("Project XML element missing", true);
+                        if ( depth == 2 ) {
+                            if ( project.space == null ) project.space = text.substring(pos, start);
+                            group = name.equals("PropertyGroup") || name.equals("ItemGroup") ?
+                                new CSProjectFile.Group(name) : null;
+                            if ( group != null ) {
+                                readAttributes(xml, group.attributes);
+                                group.start = start;
+                                if ( !emptyTag ) group.tail = end;
+                            }
+                        }
+                        else if ( depth == 3 && group != null ) {
+                            if ( group.space == null ) group.space = text.substring(pos, start);
+                            item = new CSProjectFile.Item(name);
+                            readAttributes(xml, item.attributes);
+                            item.before = pos;
+                            item.start = start;
+                            value.setLength(0);
+                        }
+                        else if ( depth == 4 && item != null ) {
+                            metaName = name;
+                            content.setLength(0);
+                        }
+                        pos = end;
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        if ( !emptyTag ) pos = tagEnd(text, text.indexOf("</", pos));
+                        emptyTag = false;
+
+                        if ( depth == 4 && item != null ) {
+                            item.metadata.put(metaName, content.toString());
+                        }
+                        else if ( depth == 3 && item != null ) {
+                            if ( !group.isItemGroup() ) item.value = value.toString();
+                            item.end = pos;
+                            group.items.add(item);
+                            group.tail = pos;
+                            item = null;
+                        }
+                        else if ( depth == 2 ) {
+                            if ( group != null ) {
+                                group.end = pos;
+                                project.groups.add(group);
+                            }
+                            group = null;
+                            project.tail = pos;
+                        }
+                        depth--;
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        appendText(xml, depth, value, content);
+                        break;
+
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        if ( depth >= 3 ) value.append(xml.getText());
+                        if ( depth >= 4 ) content.append(xml.getText());
+                        break;
+
+                    case XMLStreamConstants.CDATA:
+                        appendText(xml, depth, value, content);
+                        pos = text.indexOf("]]>", text.indexOf("<![CDATA[", pos)) + 3;
+                        break;
+
+                    case XMLStreamConstants.COMMENT:
+                        pos = text.indexOf("-->", text.indexOf("<!--", pos) + 4) + 3;
+                        if ( depth == 1 ) project.tail = pos;
+                        break;
+
+                    case XMLStreamConstants.DTD:
+                        pos = text.indexOf("<!DOCTYPE", pos);
+                        int subset = text.indexOf('[', pos);
+                        if ( subset >= 0 && subset < text.indexOf('>', pos) ) pos = text.indexOf(']', subset);
+                        pos = text.indexOf('>', pos) + 1;
+                        break;
 
-        }catch (Throwable t) {
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        pos = text.indexOf("?>", text.indexOf("<?", pos)) + 2;
+                        if ( depth == 1 ) project.tail = pos;
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+
+            project.indexGroups();
+
+        } catch (XMLStreamException err) {
+            String msg = "Parsing error";
+            if ( err.getLocation() != null )
+                msg += ", line " + err.getLocation().getLineNumber();
+            throw new ComTestException(msg + ", message " + err.getMessage(), true);
+
+        } catch (ComTestException cte) {
+            throw cte;
+
+        } catch (Throwable t) {
             String msg = t.getClass() + " with message: " + t.getMessage();
             throw new ComTestException(msg, true);
+
+        } finally {
+            try {
+                if ( xml != null ) xml.close();
+            } catch (XMLStreamException e) { }
         }
     }
 
-    private static String getAttributeValue(Node xmlNode, String attribName) {
-        if ( !xmlNode.hasAttributes() )
-            return null;
-
-        NamedNodeMap attribs = xmlNode.getAttributes();
-        Node attribNode = attribs.getNamedItem(attribName);
+    /**
+     * Adds the text of the event to the value of the item and to the
+     * content of its child, without making a string of it
+     */
+    private static void appendText(XMLStreamReader xml, int depth, StringBuilder value, StringBuilder content) {
+        if ( depth < 3 ) return;
+        char[] chars = xml.getTextCharacters();
+        int start = xml.getTextStart();
+        int length = xml.getTextLength();
+        value.append(chars, start, length);
+        if ( depth >= 4 ) content.append(chars, start, length);
+    }
 
-        if ( attribNode == null )
-            return null;
+    private static void readAttributes(XMLStreamReader xml, Map<String, String> attributes) {
+        for ( int i = 0; i < xml.getAttributeCount(); i++ )
+            attributes.put(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+    }
 
-        return attribNode.getNodeValue();
+    /**
+     * Finds the end of a start or end tag.  A > in a quoted attribute
+     * value does not end the tag.
+     * @param text text of the file
+     * @param start where the tag starts
+     * @return index after the >
+     */
+    private static int tagEnd(String text, int start) {
+        char quote = 0;
+        for ( int i = start + 1; i < text.length(); i++ ) {
+            char c = text.charAt(i);
+            if ( quote != 0 ) {
+                if ( c == quote ) quote = 0;
+            }
+            else if ( c == '"' || c == '\'' ) quote = c;
+            else if ( c == '>' ) return i + 1;
+        }
+        return text.length();
     }
 }
@@ -1,33 +1,134 @@
 // ComTest - Comments for testing
 package cc.jyu.fi.comtest.csharp;
 
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Map;
 import javax.xml.transform.*;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.dom.DOMSource;
+import org.w3c.dom.Document;
 
 import cc.jyu.fi.comtest.ComTestException;
 import cc.jyu.fi.comtest.utils.Strings;
-import cc.jyu.fi.comtest.utils.StringsOutputStream;
+import static cc.jyu.fi.comtest.utils.XmlUtilities.getTransformer;
 
 /**
- * Writes csproj files
+ * Writes csproj files.  The text of the project is copied as it was
+ * read, and only the groups with changes are patched: removed items
+ * are cut out with the white space before them, changed items are
+ * written again, and new items are written after the last child of
+ * their group with the same indent.  New groups are written after the
+ * last top-level node.
  * @author tojukarp
+ * @example
+ * <pre name="test">
+ * #THROWS ComTestException
+ * Strings source = new Strings("<Project>", "  <PropertyGroup>",
+ *     "    <AssemblyName Condition=\"'a' &gt; 'b'\">A</AssemblyName>", "  </PropertyGroup>",
+ *     "  <ItemGroup>", "    <Reference Include=\"System\"/>", "  </ItemGroup>",
+ *     "  <ItemGroup>", "    <Compile Include=\"A.cs\"/>", "    <Compile Include=\"B.cs\"/>", "  </ItemGroup>",
+ *     "</Project>");
+ * CSProjectFile projfile = CSProjectFileReader.read(source);
+ * write(projfile).equals(source) === true;
+ * projfile.removeSourceFile("A.cs");
+ * projfile.addSourceFile("C&D.cs");
+ * projfile.setAssemblyName("B");
+ * projfile.addReference(new CSProjectFile.ExternalReference("Lib", "..\\Lib.dll"));
+ * projfile.addReference(new CSProjectFile.ProjectReference("P", "P.csproj", java.util.UUID.randomUUID()));
+ * Strings dest = write(projfile);
+ * dest.get(2) === "    <AssemblyName Condition=\"'a' &gt; 'b'\">B</AssemblyName>";
+ * dest.get(5) === "    <Reference Include=\"System\"/>";
+ * dest.get(6) === "    <Reference Include=\"Lib\">";
+ * dest.get(7) === "      <HintPath>..\\Lib.dll</HintPath>";
+ * dest.get(8) === "      <Private>False</Private>";
+ * dest.get(9) === "    </Reference>";
+ * dest.get(12) === "    <Compile Include=\"B.cs\"/>";
+ * dest.get(13) === "    <Compile Include=\"C&amp;D.cs\" />";
+ * dest.get(15) === "  <ItemGroup>";
+ * dest.get(16) === "    <ProjectReference Include=\"P.csproj\">";
+ * dest.get(dest.size() - 1) === "</Project>";
+ * CSProjectFileReader.read(dest).getSourceFiles().toString() === "[B.cs, C&D.cs]";
+ * </pre>
  */
 public class CSProjectFileWriter {
-    private static Transformer xformer;
-    
     public static Strings write(CSProjectFile source) throws ComTestException {
-        Strings dest = new Strings();
-        OutputStream destStream = new StringsOutputStream(dest);
+        String text = source.text;
+        StringBuilder dest = new StringBuilder(text.length() + 256);
+        int pos = 0;
+
+        for ( CSProjectFile.Group group : source.groups ) {
+            if ( !group.changed || group.start < 0 ) continue;
+
+            if ( group.tail < 0 ) {
+                // <ItemGroup /> has no place for children, write it again
+                dest.append(text, pos, group.start);
+                writeGroup(group, lineIndent(text, group.start), dest);
+                pos = group.end;
+                continue;
+            }
+
+            String space = childSpace(group, lineIndent(text, group.start));
+            String indent = lastLine(space);
+
+            for ( CSProjectFile.Item item : group.items ) {
+                if ( item.start < 0 ) continue;
+
+                if ( item.removed ) {
+                    dest.append(text, pos, item.before);
+                    pos = item.end;
+                }
+                else if ( item.changed ) {
+                    dest.append(text, pos, item.start);
+                    writeItem(item, indent, dest);
+                    pos = item.end;
+                }
+            }
+
+            dest.append(text, pos, group.tail);
+            pos = group.tail;
+
+            for ( CSProjectFile.Item item : group.items ) {
+                if ( item.start >= 0 ) continue;
+                dest.append(space);
+                writeItem(item, indent, dest);
+            }
+        }
+
+        dest.append(text, pos, source.tail);
+        pos = source.tail;
+
+        String space = source.space != null ? source.space : "\n  ";
+        for ( CSProjectFile.Group group : source.groups ) {
+            if ( group.start >= 0 || group.items.isEmpty() ) continue;
+            dest.append(space);
+            writeGroup(group, lastLine(space), dest);
+        }
+
+        dest.append(text, pos, text.length());
+
+        Strings lines = new Strings();
+        int lineStart = 0;
+        for ( int i = 0; i <= dest.length(); i++ ) {
+            if ( i < dest.length() && dest.charAt(i) != '\n' ) continue;
+            lines.add( dest.substring(lineStart, i) );
+            lineStart = i + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the project as a DOM document to text
+     * @param source project as a DOM document
+     * @return the XML text
+     * @throws ComTestException if the document can not be written
+     */
+    static String toText(Document source) throws ComTestException {
+        StringWriter dest = new StringWriter();
 
         try {
-            Source domSource = new DOMSource(source.getDocument());
-            Result result = new StreamResult(destStream);
-            if ( xformer == null )
-                xformer = TransformerFactory.newInstance().newTransformer();
-            xformer.transform(domSource, result);
+            Source domSource = new DOMSource(source);
+            Result result = new StreamResult(dest);
+            getTransformer().transform(domSource, result);
 
         } catch (TransformerConfigurationException tce) {
             throw new ComTestException(tce.toString(), true);
@@ -35,11 +136,85 @@ public class CSProjectFileWriter {
             throw new ComTestException(te.toString(), true);
         }
 
-        try {
-            destStream.close();
-        } catch (IOException ioe) {
+        return dest.toString();
+    }
+
+    /**
+     * @return white space to write before a new child of the group
+     */
+    private static String childSpace(CSProjectFile.Group group, String groupIndent) {
+        if ( group.space != null && group.space.indexOf('\n') >= 0 ) return group.space;
+        return "\n" + groupIndent + "  ";
+    }
+
+    /**
+     * @return the part of the white space after its last line break
+     */
+    private static String lastLine(String space) {
+        return space.substring(space.lastIndexOf('\n') + 1);
+    }
+
+    /**
+     * @return the white space at the start of the line where pos is
+     */
+    private static String lineIndent(String text, int pos) {
+        int start = text.lastIndexOf('\n', pos - 1) + 1;
+        int end = start;
+        while ( end < pos && Character.isWhitespace(text.charAt(end)) ) end++;
+        return text.substring(start, end);
+    }
+
+    private static void writeGroup(CSProjectFile.Group group, String indent, StringBuilder dest) {
+        writeStartTag(group.name, group.attributes, dest);
+        for ( CSProjectFile.Item item : group.items ) {
+            if ( item.removed ) continue;
+            dest.append('\n').append(indent).append("  ");
+            writeItem(item, indent + "  ", dest);
+        }
+        dest.append('\n').append(indent).append("</").append(group.name).append('>');
+    }
+
+    private static void writeItem(CSProjectFile.Item item, String indent, StringBuilder dest) {
+        if ( item.value == null && item.metadata.isEmpty() ) {
+            dest.append('<').append(item.name);
+            writeAttributes(item.attributes, dest);
+            dest.append(" />");
+            return;
         }
 
-        return dest;
+        writeStartTag(item.name, item.attributes, dest);
+        if ( item.value != null ) escape(item.value, false, dest);
+        for ( Map.Entry<String, String> meta : item.metadata.entrySet() ) {
+            dest.append('\n').append(indent).append("  <").append(meta.getKey()).append('>');
+            escape(meta.getValue(), false, dest);
+            dest.append("</").append(meta.getKey()).append('>');
+        }
+        if ( !item.metadata.isEmpty() ) dest.append('\n').append(indent);
+        dest.append("</").append(item.name).append('>');
+    }
+
+    private static void writeStartTag(String name, Map<String, String> attributes, StringBuilder dest) {
+        dest.append('<').append(name);
+        writeAttributes(attributes, dest);
+        dest.append('>');
+    }
+
+    private static void writeAttributes(Map<String, String> attributes, StringBuilder dest) {
+        for ( Map.Entry<String, String> attribute : attributes.entrySet() ) {
+            dest.append(' ').append(attribute.getKey()).append("=\"");
+            escape(attribute.getValue(), true, dest);
+            dest.append('"');
+        }
+    }
+
+    private static void escape(String s, boolean attribute, StringBuilder dest) {
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            if ( c == '&' ) dest.append("&amp;");
+            else if ( c == '<' ) dest.append("&lt;");
+            else if ( c == '>' ) dest.append("&gt;");
+            else if ( c == '"' && attribute ) dest.append("&quot;");
+            else dest.append(c);
+        }
     }
 }
@@ -4,93 +4,186 @@ package cc.jyu.fi.comtest.csharp;
 import cc.jyu.fi.comtest.ComTestException;
 import cc.jyu.fi.comtest.CommentHandler;
 import cc.jyu.fi.comtest.csharp.CSSourceFile.*;
+import cc.jyu.fi.comtest.utils.SourceText;
 import cc.jyu.fi.comtest.utils.Strings;
-
-import java.util.Stack;
-
-import static cc.jyu.fi.comtest.utils.StringUtilities.*;
+import cc.jyu.fi.comtest.utils.TextSlice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
 
 /**
  * Reads C# code and generates a CSSourceFile object.
+ * The code is split to tokens by CSLexer and the tokens are read one
+ * by one, so the namespaces, classes and methods are found in one pass
+ * over the code.  Comments of a line are given to the CommentHandler
+ * before the code of the line, and they are attached to the next
+ * namespace, class or method that starts.
+ * <p>
+ * A statement ends at a semicolon and a block starts at a brace
+ * that are not inside parentheses, strings or comments.  After an = or
+ * => the braces belong to the statement, so an initializer, a lambda
+ * or an expression-bodied member does not start a block.  An attribute
+ * before a class or a method may have arguments and be on the same line
+ * as the declaration.
  * @author tojukarp
+ * @example
+ * <pre name="test">
+ * #THROWS ComTestException
+ *   Strings code = new Strings();
+ *   code.add("using System;");
+ *   code.add("namespace A.B {");
+ *   code.add("  [Serializable, Description(\"a ] b\")] public class Map<K, V> : Base where K : class {");
+ *   code.add("    private string s = @\"{ x;");
+ *   code.add("      y }\";");
+ *   code.add("    /// <summary>Keys</summary>");
+ *   code.add("    public static List<K> Keys<T>(Dictionary<K, V> d, int n = 0) where T : new() {");
+ *   code.add("      Func<int, int> f = x => { return x; };");
+ *   code.add("      return null;");
+ *   code.add("    }");
+ *   code.add("    /// Twice");
+ *   code.add("    public int Twice(int x) => x * 2;");
+ *   code.add("  }");
+ *   code.add("}");
+ *   CSSourceFile file = CSReader.read(code);
+ *   file.usings.toString("|") === "System";
+ *   CSSourceFile.Class map = file.namespaces.get("A.B").classes.get("Map<K, V>");
+ *   map.decoratorAttributes.toString("|") === "Serializable, Description(\"a ] b\")";
+ *   map.methods.size() === 2;
+ *   CSSourceFile.Method keys = map.methods.get(0);
+ *   keys.name === "Keys<T>";
+ *   keys.returnType === "List<K>";
+ *   keys.isStatic === true;
+ *   keys.params.get(0).type === "Dictionary<K, V>";
+ *   keys.params.get(1).name === "n";
+ *   keys.commentBlocks.get(0).codeLine === 5;
+ *   keys.body.size() === 2;
+ *   map.methods.get(1).name === "Twice";
+ *   map.methods.get(1).body.get(0) === "x * 2";
+ *   map.methods.get(1).commentBlocks.size() === 1;
+ * </pre>
  */
 public class CSReader {
-    private Strings source;
-    private CSSourceFile dest = new CSSourceFile();
-    private CommentHandler commentHandler = new CommentHandler();
-    private Strings Decorators = new Strings();
-    private String currentLine = "";
+    /** words that may come before the type of a class or a member */
+    private static final Set<String> MODIFIERS = new HashSet<String>(Arrays.asList(
+            "public", "protected", "internal", "private", "static", "virtual", "override",
+            "abstract", "sealed", "extern", "async", "unsafe", "new", "partial",
+            "readonly", "const", "volatile", "implicit", "explicit", "required", "file"));
+
+    /** last words of the blocks that are read like methods */
+    private static final Set<String> ACCESSORS = new HashSet<String>(Arrays.asList(
+            "get", "set", "init", "add", "remove"));
+
+    /** words before ( that do not name a method */
+    private static final Set<String> NOT_METHODS = new HashSet<String>(Arrays.asList(
+            "if", "while", "for", "foreach", "switch", "using", "lock", "fixed", "catch",
+            "return", "new", "typeof", "sizeof", "nameof", "checked", "unchecked",
+            "default", "base", "this", "when"));
+
+    private static final List<String> ACCESS = Arrays.asList(CSSourceFile.AccessModifiers);
+    private static final List<String> IMPLEMENTED = Arrays.asList(Method.ImplementedModifiers);
+
+    /** Token of a statement outside methods */
+    private static final class Token {
+        final CSLexer.Kind kind;
+        final String text;
+        /** is there white space before the token */
+        final boolean space;
+
+        Token(CSLexer.Kind kind, String text, boolean space) {
+            this.kind = kind;
+            this.text = text;
+            this.space = space;
+        }
+
+        boolean is(String s) {
+            return text.equals(s);
+        }
+
+        boolean isWord() {
+            return kind == CSLexer.Kind.WORD;
+        }
+    }
+
+    private final SourceText source;
+    private final CSLexer lexer = new CSLexer();
+    private final CSSourceFile dest = new CSSourceFile();
+    private final CommentHandler commentHandler = new CommentHandler();
+    private Strings decorators = new Strings();
     private int currentLineNum = 0;
-    private String currentStatement = "";    
-    private Stack<Block> blocks = new Stack<Block>();
+    private final Stack<Block> blocks = new Stack<Block>();
     private Namespace currentNamespace;
-    private CSSourceFile.Class currentClass;
+    private CSSourceFile.Class currentClass = null;
     private Method currentMethod = null;
-    
-    public static CSSourceFile read(Strings source) throws ComTestException {
-        CSReader reader = new CSReader(source);
+
+    /** text of the statement being read */
+    private final StringBuilder statement = new StringBuilder();
+    /** tokens of the statement outside methods, up to an = or => */
+    private final List<Token> words = new ArrayList<Token>();
+    /** depth of () and [] in the statement */
+    private int depth = 0;
+    /** depth of the braces that belong to the statement */
+    private int braces = 0;
+    /** are the braces part of the statement */
+    private boolean initializer = false;
+    private boolean operator = false;
+    private boolean parameters = false;
+    /** index in words of => and where the expression starts in statement */
+    private int arrow = -1;
+    private int arrowText = 0;
+    /** text of the attribute being read, null if not in an attribute */
+    private StringBuilder attribute = null;
+    private int attributeDepth = 0;
+
+    /**
+     * Reads C# code
+     * @param source lines of the code, Strings or SourceText
+     * @return the code as a CSSourceFile
+     * @throws ComTestException if the code can not be read
+     */
+    public static CSSourceFile read(List<String> source) throws ComTestException {
+        CSReader reader = new CSReader(SourceText.of(source));
         reader.readProgram();
         return reader.dest;
     }
 
-    private CSReader(Strings source) {
+    private CSReader(SourceText source) {
         this.source = source;
         currentNamespace = dest.namespaces.get("");
-        currentClass = currentNamespace.classes.get("");
     }
 
     private void readProgram() throws ComTestException {
         for (int i = 0; i < source.size(); i++) {
-            currentLine = source.get(i).trim();
             currentLineNum = i;
-
-            try
-            {
-                if ( handlePreprocessor() ) continue;
-                if ( handleComments() ) continue;
-                if ( handleDecorators() ) continue;
-
-                do {
-                    int eos = indexOfNotInQuotes(currentLine, ";");
-                    int sob = indexOfNotInQuotes(currentLine, "{");
-                    int eob = indexOfNotInQuotes(currentLine, "}");
-                    int min = minPositive(eos, sob, eob);
-
-                    if ( min < 0 ) {
-                        // Middle of a statement
-                        currentStatement += currentLine;
-                        break;
-                    }
-                    else if ( min == eos ) {
-                        // Statement
-                        currentStatement += currentLine.substring(0, eos);
-                        handleStatement();
-                        currentLine = currentLine.substring(eos + 1);
-                    }
-                    else if ( min == sob ) {
-                        // Start of block
-                        currentStatement += currentLine.substring(0, sob);
-                        startBlock();
-                        currentLine = currentLine.substring(sob + 1);
-                    }
-                    else if ( min == eob ) {
-                        // End of block
-                        endBlock();
-                        currentLine = currentLine.substring(eob + 1);
-                    }
-
-                    currentStatement = "";
-                } while (true);
-
-            } catch ( Throwable t ) {
-                if ( !(t instanceof ComTestException) ) {
-                    String msg = String.format("exception of %s: %s on line %d", t.getClass(), t.getMessage(), i + 1);
-                    throw new ComTestException(msg, true);
-                }
+            try {
+                readLine(source.line(i));
+            } catch ( RuntimeException e ) {
+                String msg = String.format("exception of %s: %s on line %d", e.getClass(), e.getMessage(), i + 1);
+                throw new ComTestException(msg, true);
             }
         }
+
+        // Blocks left open by a missing brace end with the file
+        while ( !blocks.isEmpty() ) endBlock();
+    }
+
+    private void readLine(TextSlice line) {
+        int count = lexer.readLine(line);
+        if ( count == 0 ) return;
+        if ( lexer.kind(0) == CSLexer.Kind.PREPROCESSOR ) return;
+
+        for (int t = 0; t < count; t++)
+            if ( lexer.kind(t) == CSLexer.Kind.COMMENT )
+                commentHandler.readLine(line.subSequence(lexer.start(t), lexer.end(t)).trim(), currentLineNum);
+
+        for (int t = 0; t < count; t++) {
+            if ( lexer.kind(t) == CSLexer.Kind.COMMENT ) continue;
+            if ( attribute != null ) readAttribute(t);
+            else readToken(t);
+        }
     }
 
     /**
@@ -117,179 +210,145 @@ public class CSReader {
         return minval;
     }
 
-    private boolean handlePreprocessor() {
-        return currentLine.startsWith("#");
+    private void readAttribute(int t) {
+        if ( lexer.is(t, "[") ) attributeDepth++;
+        else if ( lexer.is(t, "]") && --attributeDepth == 0 ) {
+            decorators.add(attribute.toString());
+            attribute = null;
+            return;
+        }
+        if ( attribute.length() > 0 && lexer.spaceBefore(t) ) attribute.append(' ');
+        attribute.append(lexer.text(t));
     }
 
-    private boolean handleComments() {
-        currentLine = commentHandler.readLine(currentLine, currentLineNum);
-        return currentLine.length() == 0;
+    private void readToken(int t) {
+        if ( lexer.kind(t) == CSLexer.Kind.SYMBOL && braces == 0 ) {
+            if ( lexer.is(t, "[") && statement.length() == 0 && currentMethod == null ) {
+                attribute = new StringBuilder();
+                attributeDepth = 1;
+                return;
+            }
+            if ( lexer.is(t, ";") && depth == 0 ) {
+                handleStatement();
+                clearStatement();
+                return;
+            }
+            if ( lexer.is(t, "{") && depth == 0 && !initializer ) {
+                startBlock();
+                clearStatement();
+                return;
+            }
+            if ( lexer.is(t, "}") ) {
+                endBlock();
+                clearStatement();
+                return;
+            }
+        }
+        addToken(t);
     }
 
-    private boolean handleDecorators() {
-        if ( currentLine.length() < 2 )
-            return false;
+    private void addToken(int t) {
+        CSLexer.Kind kind = lexer.kind(t);
+        boolean space = lexer.spaceBefore(t);
+        if ( statement.length() > 0 && space ) statement.append(' ');
+        statement.append(lexer.text(t));
+        boolean top = depth == 0 && braces == 0;
+
+        if ( kind == CSLexer.Kind.SYMBOL ) {
+            if ( lexer.is(t, "(") || lexer.is(t, "[") ) {
+                depth++;
+                parameters = true;
+            }
+            else if ( lexer.is(t, ")") || lexer.is(t, "]") ) depth = Math.max(0, depth - 1);
+            else if ( lexer.is(t, "{") ) braces++;
+            else if ( lexer.is(t, "}") ) braces--;
+            else if ( top && lexer.is(t, "=>") ) {
+                if ( !initializer && currentMethod == null ) {
+                    arrow = words.size();
+                    arrowText = statement.length();
+                }
+                initializer = true;
+            }
+            else if ( top && lexer.is(t, "=") && ( !operator || parameters ) ) initializer = true;
+        }
+        else if ( kind == CSLexer.Kind.WORD ) {
+            if ( lexer.is(t, "operator") ) operator = true;
+            else if ( top && currentMethod != null && lexer.is(t, "new") ) initializer = true;
+        }
 
-        int decStart = indexOfNotInQuotes(currentLine, "[");
-        int decEnd = indexOfNotInQuotes(currentLine, "]");
+        if ( currentMethod == null && ( !initializer || arrow == words.size() ) )
+            words.add(new Token(kind, lexer.text(t), space));
+    }
 
-        if ( decStart == 0 && decEnd > 0 ) {
-            String decorator = currentLine.substring(decStart + 1, decEnd);
-            Decorators.add(decorator);
-            return true;
-        }
-        
-        return false;
+    private void clearStatement() {
+        statement.setLength(0);
+        words.clear();
+        depth = 0;
+        braces = 0;
+        initializer = false;
+        operator = false;
+        parameters = false;
+        arrow = -1;
     }
 
     private void handleStatement() {
-        String[] words = currentStatement.split(" ");
-
-        if ( words.length == 0 )
-            return;
-
-        if (words[0].equals("using")) {
-            dest.usings.add(words[1]);
+        if ( currentMethod != null ) {
+            currentMethod.body.add(statement.toString());
         }
-        else if ( currentMethod != null ) {
-            currentMethod.body.add(currentStatement);
+        else if ( words.size() > 1 && words.get(0).is("using") ) {
+            dest.usings.add(join(words, 1, words.size()));
+        }
+        else if ( words.size() > 2 && words.get(0).is("global") && words.get(1).is("using") ) {
+            dest.usings.add(join(words, 2, words.size()));
+        }
+        else if ( words.size() > 1 && words.get(0).is("namespace") ) {
+            // File-scoped namespace
+            currentNamespace = namespace(join(words, 1, words.size()));
+        }
+        else if ( arrow > 0 ) {
+            // Expression-bodied member
+            Method m = method(arrow);
+            if ( m != null ) {
+                m.body.add(statement.substring(arrowText).trim());
+                m.commentBlocks = commentHandler.blocks;
+                m.codeLine = currentLineNum;
+                if ( currentClass != null ) currentClass.methods.add(m);
+            }
         }
-        //else
-        //    dest.debug.add(currentStatement);
 
-        // Forget comments for statements
+        // Forget comments and attributes for statements
         commentHandler.clear();
+        decorators = new Strings();
     }
 
     private void startBlock() {
-        String[] words = currentStatement.split(" ");
-        int nwords = words.length;
         Block newBlock = new Block();
+        int nwords = words.size();
 
         if ( currentMethod != null ) {
             // Block inside a method
-            //dest.debug.add(currentStatement);
-            if ( currentStatement != null )
-                currentMethod.body.add(currentStatement);
+            currentMethod.body.add(statement.toString());
             currentMethod.body.add("{");
         }
-        else if ( nwords > 0 && words[0].equals("namespace") ) {
-            Namespace ns = new Namespace(words[1]);
-            ns.name = words[1];
+        else if ( nwords > 1 && words.get(0).is("namespace") ) {
+            Namespace ns = namespace(join(words, 1, nwords));
             ns.parent = currentNamespace;
-
             newBlock = ns;
             currentNamespace = ns;
         }
-        else if ( nwords > 1 && ( arrayContains(words, "class" ) || arrayContains(words, "struct" ) ) ) {
-            CSSourceFile.Class cl = new CSSourceFile.Class(words[nwords - 1]);
-
-            for ( int i = 0 ; i < nwords - 1; i++ ) {
-                if ( words[i].equals("class") ) {
-                    cl.name = words[i+1];
-                    break;
-                }
-
-                if ( words[i].equals("struct") ) {
-                    cl.name = words[i+1];
-                    cl.isStruct = true;
-                    break;
-                }
-            }
-
-            cl.access = returnMatching(words, CSSourceFile.AccessModifiers, " ");            
-            cl.parent = currentClass;
-            cl.modifiers = "";
-            cl.decoratorAttributes = Decorators;
-
-            for ( String word : words ) {
-                if ( word.equals("class") || word.equals("struct") ||
-                        word.equals(cl.name) ||
-                        arrayContains( CSSourceFile.AccessModifiers, word ) )
-                    continue;
-
-                if ( cl.modifiers.length() == 0 )
-                    cl.modifiers = word;
-                else
-                    cl.modifiers += " " + word;
-            }
-
-            newBlock = cl;
-            currentClass = cl;
+        else if ( ( newBlock = classOrMethod() ) instanceof CSSourceFile.Class ) {
+            currentClass = (CSSourceFile.Class)newBlock;
         }
-        else if ( nwords > 0 && ( words[nwords-1].equals("get") || words[nwords-1].equals("set") || words[nwords-1].equals("delegate") ) ) {
-            Method m = new Method("");
-            m.access = returnMatching(words, CSSourceFile.AccessModifiers, " ");
-            newBlock = m;
-            currentMethod = m;
+        else if ( newBlock instanceof Method ) {
+            currentMethod = (Method)newBlock;
         }
         else {
-            int openingParenthesis = indexOfNotInQuotes(currentStatement, "(");
-            int closingParenthesis = indexOfNotInQuotes(currentStatement, ")");
-
-            if ( openingParenthesis > 0 &&
-                    closingParenthesis > openingParenthesis &&
-                    currentMethod == null )
-            {
-                String sigNoParams = currentStatement.substring(0, openingParenthesis);
-                words = sigNoParams.split(" ");
-                nwords = words.length;
-                Method m = new Method(words[nwords - 1]);
-
-                m.isStatic = arrayContains(words, "static");
-                m.isVirtual = arrayContains(words, "virtual");
-                m.isOverride = arrayContains(words, "override");
-                m.access = returnMatching(words, CSSourceFile.AccessModifiers, " ");
-                m.returnType = words[nwords-2];
-                m.modifiers = "";
-                m.parent = currentClass;
-                m.decoratorAttributes = Decorators;
-
-                for ( int i = 0; i < words.length - 1; i++ ) {
-                    if ( words[i].equals(m.name) || arrayContains( CSSourceFile.AccessModifiers, words[i] ) )
-                        continue;
-                    if ( words[i].equals(m.returnType) || arrayContains( Method.ImplementedModifiers, words[i] ) )
-                        continue;
-
-                    if ( m.modifiers.length() == 0 )
-                        m.modifiers = words[i];
-                    else
-                        m.modifiers += " " + words[i];
-                }
-
-                if ( closingParenthesis - openingParenthesis > 1 ) {
-                    String paramStr = currentStatement.substring(openingParenthesis + 1, closingParenthesis - 1).trim();
-                    int plen = paramStr.length();
-                    String paramType = null;
-                    int lastSpace = -1;
-
-                    for (int i = 0; i <= plen; i++) {
-                        if ( i == plen || Character.isWhitespace(paramStr.charAt(i)) ) {
-                            if ( lastSpace < i - 1 ) {
-                                String lastWord = paramStr.substring(lastSpace + 1, i);
-                                if ( paramType == null ) paramType = lastWord;
-                                else {
-                                    m.params.add(new Variable(paramType, lastWord));
-                                    paramType = null;
-                                }
-                            }
-
-                            lastSpace = i;
-                        }
-                    }
-                }
-
-                newBlock = m;
-                currentMethod = m;
-            }
-            else {
-                // Other block outside a method
-                NestedCodeBlock nested = new NestedCodeBlock();
-                nested.blockBefore.add(currentStatement);
-                nested.blockBefore.add("{");
-                nested.blockAfter.add("}");
-                newBlock = nested;
-            }
+            // Other block outside a method
+            NestedCodeBlock nested = new NestedCodeBlock();
+            nested.blockBefore.add(statement.toString());
+            nested.blockBefore.add("{");
+            nested.blockAfter.add("}");
+            newBlock = nested;
         }
 
         if ( commentHandler.blocks.size() > 0 ) {
@@ -303,72 +362,253 @@ public class CSReader {
             commentHandler.clear();
         }
 
-        Decorators = new Strings();
+        decorators = new Strings();
         newBlock.codeLine = currentLineNum;
         blocks.push(newBlock);
     }
 
     /**
-     * Returns whether the string array contains an element.
-     * @param array
-     * @param test
-     * @return
+     * Finds or makes a namespace.  A namespace inside another one
+     * gets the full name.
+     * @param name name of the namespace in the code
+     * @return the namespace
      */
-    private boolean arrayContains(String[] array, String test) {
-        for ( String s : array ) {
-            if ( s.equals(test) )
-                return true;
+    private Namespace namespace(String name) {
+        if ( currentNamespace.name.length() > 0 ) name = currentNamespace.name + "." + name;
+        Namespace ns = dest.namespaces.get(name);
+        if ( ns == null ) {
+            ns = new Namespace(name);
+            dest.namespaces.put(name, ns);
+        }
+        return ns;
+    }
+
+    /**
+     * Reads the statement before a block as a class, a method or an
+     * accessor of a property.
+     * @return the class or the method, null if the block is something else
+     */
+    private ClassOrMethod classOrMethod() {
+        int nwords = words.size();
+        int level = 0;
+        for (int i = 0; i < nwords; i++) {
+            Token w = words.get(i);
+            if ( w.is("(") && level == 0 ) return method(nwords);
+            if ( w.is("<") || w.is("[") ) level++;
+            else if ( w.is(">") || w.is("]") ) level--;
+            else if ( level == 0 && ( w.is("class") || w.is("struct") || w.is("record") ) ) return newClass(i);
+            else if ( level == 0 && ( w.is("interface") || w.is("enum") ) ) return null;
+        }
+
+        if ( nwords > 0 && ACCESSORS.contains(words.get(nwords - 1).text) ) {
+            int mods = modifiers(nwords - 1);
+            if ( mods != nwords - 1 ) return null;
+            Method m = new Method("");
+            m.access = access(mods);
+            m.parent = currentClass;
+            return m;
+        }
+        return null;
+    }
+
+    private CSSourceFile.Class newClass(int keyword) {
+        int nwords = words.size();
+        boolean isStruct = words.get(keyword).is("struct");
+        if ( keyword + 1 < nwords && ( words.get(keyword + 1).is("struct") || words.get(keyword + 1).is("class") ) ) {
+            // record struct or record class
+            keyword++;
+            isStruct = words.get(keyword).is("struct");
         }
-        return false;
+        if ( keyword + 1 >= nwords ) return null;
+
+        int nameEnd = keyword + 2;
+        if ( nameEnd < nwords && words.get(nameEnd).is("<") ) nameEnd = closing(nameEnd, "<", ">") + 1;
+
+        CSSourceFile.Class cl = new CSSourceFile.Class(join(words, keyword + 1, nameEnd));
+        cl.isStruct = isStruct;
+        cl.access = access(keyword);
+        cl.modifiers = otherModifiers(keyword, new ArrayList<String>());
+        cl.parent = currentClass;
+        cl.decoratorAttributes = decorators;
+        return cl;
     }
 
     /**
-     * Returns all string elements found in an array concatenated and separated.
-     * @param array Array in which to search
-     * @param test Words to search for
-     * @param sep Separator
-     * @return All matches in test separated by sep
+     * Reads a method signature from words.
+     * @param end index after the signature in words
+     * @return the method, null if words do not start with a signature
      */
-    private String returnMatching(String[] array, String[] test, String sep) {
-        String res = "";
-
-        for ( String t : test ) {
-            if ( arrayContains(array, t) ) {
-                if (res.length() == 0)
-                    res = t;
-                else
-                    res += sep + t;
+    private Method method(int end) {
+        int open = -1;
+        int level = 0;
+        for (int i = 0; i < end && open < 0; i++) {
+            Token w = words.get(i);
+            if ( w.is("(") && level == 0 ) open = i;
+            else if ( w.is("<") || w.is("[") ) level++;
+            else if ( w.is(">") || w.is("]") ) level--;
+        }
+        if ( open < 1 ) return null;
+
+        int nameStart = open - 1;
+        if ( words.get(nameStart).is(">") ) nameStart = opening(nameStart, "<", ">") - 1;
+        if ( nameStart < 0 ) return null;
+        int typeEnd = nameStart;
+
+        String name;
+        int op = indexOf("operator", open);
+        if ( op >= 0 ) {
+            name = join(words, op + 1, open);
+            typeEnd = op;
+        }
+        else {
+            Token w = words.get(nameStart);
+            if ( !w.isWord() || NOT_METHODS.contains(w.text) ) return null;
+            name = join(words, nameStart, open);
+        }
+
+        Method m = new Method(name);
+        int mods = modifiers(typeEnd);
+        for (int i = 0; i < mods; i++) {
+            String word = words.get(i).text;
+            if ( word.equals("static") ) m.isStatic = true;
+            if ( word.equals("virtual") ) m.isVirtual = true;
+            if ( word.equals("override") ) m.isOverride = true;
+        }
+        m.access = access(mods);
+        m.modifiers = otherModifiers(mods, IMPLEMENTED);
+        if ( typeEnd > mods && words.get(mods).isWord() ) m.returnType = join(words, mods, typeEnd);
+        m.parent = currentClass;
+        m.decoratorAttributes = decorators;
+
+        int close = closing(open, "(", ")");
+        int from = open + 1;
+        level = 0;
+        for (int i = open + 1; i <= close && i < end; i++) {
+            Token w = words.get(i);
+            if ( i == close || ( level == 0 && w.is(",") ) ) {
+                addParam(m, from, i);
+                from = i + 1;
             }
+            else if ( w.is("(") || w.is("[") || w.is("<") ) level++;
+            else if ( w.is(")") || w.is("]") || w.is(">") ) level--;
         }
+        return m;
+    }
 
-        return res;
+    /**
+     * Adds a parameter like "[In] ref int x = 0" as type "ref int"
+     * and name "x".
+     */
+    private void addParam(Method m, int from, int to) {
+        if ( from < to && words.get(from).is("[") ) from = closing(from, "[", "]") + 1;
+        for (int i = from; i < to; i++)
+            if ( words.get(i).is("=") ) to = i;
+        if ( to - from < 2 ) return;
+        m.params.add(new Variable(join(words, from, to - 1), words.get(to - 1).text));
     }
 
-    private String[] removeItems(String[] array, String[] items) {
-        ArrayList<String> newArray = new ArrayList<String>();
+    /**
+     * @param end where to stop
+     * @return number of modifier words at the start of words
+     */
+    private int modifiers(int end) {
+        int i = 0;
+        while ( i < end && words.get(i).isWord() && MODIFIERS.contains(words.get(i).text) ) i++;
+        return i;
+    }
+
+    /**
+     * Returns the access modifiers found before end.
+     * @param end where to stop
+     * @return the access modifiers in the order of AccessModifiers
+     */
+    private String access(int end) {
+        StringBuilder res = new StringBuilder();
+        for ( String a : CSSourceFile.AccessModifiers ) {
+            if ( indexOf(a, end) < 0 ) continue;
+            if ( res.length() > 0 ) res.append(' ');
+            res.append(a);
+        }
+        return res.toString();
+    }
 
-        for ( String item : items ) {
-            if ( !arrayContains(array, item) )
-                newArray.add(item);
+    /**
+     * @param end where to stop
+     * @param skip modifiers that are not returned, besides the access
+     *        modifiers
+     * @return the other modifiers before end
+     */
+    private String otherModifiers(int end, List<String> skip) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < end; i++) {
+            String word = words.get(i).text;
+            if ( !MODIFIERS.contains(word) || ACCESS.contains(word) || skip.contains(word) ) continue;
+            if ( res.length() > 0 ) res.append(' ');
+            res.append(word);
         }
-        
-        return (String[])newArray.toArray();
+        return res.toString();
+    }
+
+    private int indexOf(String word, int end) {
+        for (int i = 0; i < end; i++)
+            if ( words.get(i).isWord() && words.get(i).is(word) ) return i;
+        return -1;
+    }
+
+    /**
+     * @param from index of an opening token
+     * @return index of the matching closing token, or the last word
+     */
+    private int closing(int from, String open, String close) {
+        int level = 0;
+        for (int i = from; i < words.size(); i++) {
+            if ( words.get(i).is(open) ) level++;
+            else if ( words.get(i).is(close) && --level == 0 ) return i;
+        }
+        return words.size() - 1;
+    }
+
+    /**
+     * @param from index of a closing token
+     * @return index of the matching opening token, -1 if not found
+     */
+    private int opening(int from, String open, String close) {
+        int level = 0;
+        for (int i = from; i >= 0; i--) {
+            if ( words.get(i).is(close) ) level++;
+            else if ( words.get(i).is(open) && --level == 0 ) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Joins tokens with a space where there was white space in the code
+     */
+    private static String join(List<Token> tokens, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            Token w = tokens.get(i);
+            if ( sb.length() > 0 && w.space ) sb.append(' ');
+            sb.append(w.text);
+        }
+        return sb.toString();
     }
 
     private void endBlock() {
+        // A brace without a block is left alone
+        if ( blocks.isEmpty() ) return;
         Block lastBlock = blocks.pop();
-        
-        if ( lastBlock instanceof CSSourceFile.Class ) {            
+
+        if ( lastBlock instanceof CSSourceFile.Class ) {
             currentNamespace.classes.put(currentClass.name, currentClass);
-            currentClass = currentClass.getParentClass();
+            currentClass = currentClass.parent instanceof CSSourceFile.Class ? (CSSourceFile.Class)currentClass.parent : null;
         }
         else if ( lastBlock instanceof Method ) {
-            currentClass.methods.add(currentMethod);
+            if ( currentClass != null ) currentClass.methods.add(currentMethod);
             currentMethod = null;
         }
         else if ( lastBlock instanceof Namespace ) {
-            dest.namespaces.put(currentNamespace.name, currentNamespace);
-            currentNamespace = currentNamespace.getParentNamespace();
+            currentNamespace = (Namespace)lastBlock.parent;
         }
         else if ( currentMethod != null ) {
             currentMethod.body.add("}");
@@ -8,12 +8,14 @@ import java.util.regex.Pattern;
 
 import cc.jyu.fi.comtest.ComTestException;
 import cc.jyu.fi.comtest.ComTestIni;
-import cc.jyu.fi.comtest.ComTestSyntax;
 import cc.jyu.fi.comtest.ComTestTable;
+import cc.jyu.fi.comtest.ComTestTemplate;
+import cc.jyu.fi.comtest.ComTestVariables;
 import cc.jyu.fi.comtest.CommentHandler;
 import cc.jyu.fi.comtest.CommentStyles;
 import cc.jyu.fi.comtest.CommentHandler.CommentBlock;
 import cc.jyu.fi.comtest.csharp.CSSourceFile.*;
+import cc.jyu.fi.comtest.metrics.Metrics;
 import cc.jyu.fi.comtest.utils.Strings;
 
 import java.text.ParseException;
@@ -40,12 +42,14 @@ public class ComTestProcessor {
     }
 
     ComTestIni ini;
+    ComTestVariables syntax = ComTestVariables.DEFAULTS;
 
     public ComTestProcessor() {
     }
 
     public ComTestProcessor(ComTestIni ini) {
         this.ini = ini;
+        this.syntax = ini.variables;
     }
 
     /**
@@ -112,7 +116,7 @@ public class ComTestProcessor {
      * @param block Comment block
      * @return Code block
      */
-    private static CodeBlock processBody(ComTestBlock block) {
+    private CodeBlock processBody(ComTestBlock block) {
         CommentHandler ch = new CommentHandler();
         CodeBlock codeBlock = new SimpleCodeBlock();
         CodeBlock templateBlock = null;
@@ -158,7 +162,7 @@ public class ComTestProcessor {
 
                     // Template begins
                     String cols = templateBlock.removeLastLine();
-                    String[] elemArray = cols.split( Pattern.quote(COLUMNSEPARATOR) );
+                    String[] elemArray = cols.split( Pattern.quote(syntax.COLUMNSEPARATOR) );
                     Strings elements = new Strings();
                     elements.addAll(Arrays.asList(elemArray));
                     elements.trim();
@@ -174,7 +178,7 @@ public class ComTestProcessor {
                         templateBlock.add(sb);
                     }
 
-                    else if ( s2.contains(ComTestSyntax.TEMPLATELINEMARKER) ) {
+                    else if ( s2.contains(syntax.TEMPLATELINEMARKER) ) {
                         // First line of a template block
                         templateBlock = new SimpleCodeBlock();
                         templateBlock.add(sb);
@@ -207,8 +211,8 @@ public class ComTestProcessor {
      * @param codeLine Line number in original source
      * @return New template table, or null if not processed.
      */
-    private static ComTestTable processTemplateLine(ComTestTable templateTable, String s, String methodName, int codeLine) {
-        String[] elemArray = s.split( Pattern.quote(COLUMNSEPARATOR) );
+    private ComTestTable processTemplateLine(ComTestTable templateTable, String s, String methodName, int codeLine) {
+        String[] elemArray = s.split( Pattern.quote(syntax.COLUMNSEPARATOR) );
         Strings elements = new Strings();
         elements.addAll(Arrays.asList(elemArray));
         int numElements = elements.size();
@@ -228,7 +232,7 @@ public class ComTestProcessor {
      * @param codeLine Line number in original source
      * @return Processed code block, or null if template line
      */
-    private static CodeBlock processNormalLine(String s, String methodName, int codeLine) {
+    private CodeBlock processNormalLine(String s, String methodName, int codeLine) {
         CodeBlock block = new SimpleCodeBlock();
         int separIndex = indexOfNotInQuotes(s, SEPARATORLINE);
 
@@ -240,9 +244,9 @@ public class ComTestProcessor {
         Strings newLines;
 
         // Operators
-        newLines = EQUALS.applyAll(s, message);
-        newLines = ALMOST.applyAll(newLines, message, TOLERANCE);
-        newLines = REGEX.applyAll(newLines, message);
+        newLines = syntax.EQUALS.applyAll(s, message);
+        newLines = syntax.ALMOST.applyAll(newLines, message, syntax.TOLERANCE);
+        newLines = syntax.REGEX.applyAll(newLines, message);
 
         // Macros
         block.add( newLines );
@@ -257,7 +261,7 @@ public class ComTestProcessor {
      * @param codeLine Line number in original source
      * @return Code block with all applicable macros applied
      */
-    public static NestedCodeBlock applyMacros(String s, String methodName, int codeLine) {
+    public NestedCodeBlock applyMacros(String s, String methodName, int codeLine) {
         NestedCodeBlock result = new NestedCodeBlock();
         int macroIndex = indexOfNotInQuotes(s, MACROMARKER);
         if ( macroIndex < 0 ) {
@@ -321,34 +325,39 @@ public class ComTestProcessor {
      * @param table Template table to apply
      * @return Block with template applied
      */
-    private static CodeBlock applyTemplate(CodeBlock srcBlock, ComTestTable table) {
+    private CodeBlock applyTemplate(CodeBlock srcBlock, ComTestTable table) {
         CodeBlock appliedBlock = new SimpleCodeBlock();
-        Pattern[] colPatterns = new Pattern[table.numColumns()];
+        Metrics.TABLEROWS.add(table.numRows());
+
+        // Only the lines with the template marker are expanded
+        Strings templateLines = new Strings();
+        int[] fragment = new int[srcBlock.size()];
+        for ( int line = 0; line < srcBlock.size(); line++ ) {
+            String s = srcBlock.get(line);
+            if ( s.indexOf(syntax.TEMPLATELINEMARKER) < 0 ) {
+                fragment[line] = -1;
+                continue;
+            }
+            fragment[line] = templateLines.size();
+            templateLines.add(s);
+        }
+        ComTestTemplate template = new ComTestTemplate(templateLines, table.getColumnNames(),
+                                                       syntax.DELETESENTENCEMARKER, false);
 
+        StringBuilder sb = new StringBuilder();
         for ( int row = 0; row < table.numRows(); row++) {
+            String[] values = template.rowValues(table, row);
             for ( int line = 0; line < srcBlock.size(); line++ ) {
-                String s = srcBlock.get(line);
-
-                if ( s.indexOf(TEMPLATELINEMARKER) < 0 ) {
-                    appliedBlock.add(s);
+                if ( fragment[line] < 0 ) {
+                    appliedBlock.add(srcBlock.get(line));
                     continue;
                 }
 
-                for ( int col = 0; col < table.numColumns(); col++) {
-                    String colName = table.getColumnName(col);
-                    if ( s.indexOf(colName) < 0 )
-                        continue;
-
-                    String colValue = table.getColumnValues(col).get(row);
-                    if ( colPatterns[col] == null )
-                        colPatterns[col] = Pattern.compile(Pattern.quote(colName));
-
-                    s = colPatterns[col].matcher(s).replaceAll(colValue);
-                }
+                sb.setLength(0);
+                if ( !template.render(fragment[line], values, LINENUMBERMARKER, sb) ) continue;
 
                 //s = incrementLineNum(s, row);
-                s = setLineNum(s, table.getStartingLine() + row + 1);
-                appliedBlock.add(s);
+                appliedBlock.add(setLineNum(sb.toString(), table.getStartingLine() + row + 1));
             }
         }
 
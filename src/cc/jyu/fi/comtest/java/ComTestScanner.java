@@ -1,11 +1,12 @@
 // ComTest - Comments for testing
 package cc.jyu.fi.comtest.java;
 
-import java.util.Arrays;
+import java.util.List;
 import java.io.IOException;
 
 import cc.jyu.fi.comtest.ComTestIni;
 import cc.jyu.fi.comtest.utils.Strings;
+import cc.jyu.fi.comtest.utils.TextSlice;
 
 import static cc.jyu.fi.comtest.ComTestSyntax.*;
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
@@ -20,7 +21,7 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
      * @param ini configuration file
      * @param contents where to scan the comment tests
      */
-    public ComTestScanner(ComTestIni ini, Strings contents) {
+    public ComTestScanner(ComTestIni ini, List<String> contents) {
         super(ini, contents);
     }
 
@@ -120,7 +121,7 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
             int p;
             String eq,tol;
             String s = line;
-            boolean isTemplateLine = indexOfNotInQuotes(s,TEMPLATELINEMARKER) >= 0;
+            boolean isTemplateLine = indexOfNotInQuotes(s,syntax.TEMPLATELINEMARKER) >= 0;
 
             boolean isRegExp = false;
 
@@ -136,13 +137,15 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
                 if ( rawMode ) s = removeFromBegining(st," ",1); else s = removeFromBegining(st, " ");
                 if ( s.length() == 0 ) continue;
 
-                p = indexOfNotInQuotes(s,ALMOSTMARKER1);  eq = ALMOSTMARKER1; tol = ", " + TOLERANCE;  /// ~~~
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,ALMOSTMARKER2); eq = ALMOSTMARKER2; }          /// ~~
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,EQUALSMARKER);  eq = EQUALSMARKER; tol = ""; } /// ===
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,EQUALSMARKER2); eq = EQUALSMARKER2; }          /// =>
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,REGEXPMARKER1); eq = REGEXPMARKER1; isRegExp = true; } /// =R=
-                if ( p < 0 ) { p = indexOfNotInQuotes(s,REGEXPMARKER2); eq = REGEXPMARKER2; isRegExp = true; } /// =~
+                int[] found = syntax.OPERATORS.indexesOf(s);
+                p = found[0];  eq = syntax.ALMOSTMARKER1; tol = ", " + syntax.TOLERANCE;  /// ~~~
+                if ( p < 0 ) { p = found[1]; eq = syntax.ALMOSTMARKER2; }          /// ~~
+                if ( p < 0 ) { p = found[2];  eq = syntax.EQUALSMARKER; tol = ""; } /// ===
+                if ( p < 0 ) { p = found[3]; eq = syntax.EQUALSMARKER2; }          /// =>
+                if ( p < 0 ) { p = found[4]; eq = syntax.REGEXPMARKER1; isRegExp = true; } /// =R=
+                if ( p < 0 ) { p = found[5]; eq = syntax.REGEXPMARKER2; isRegExp = true; } /// =~
                 if ( p >= 0 ) {
+                    countAssertion(found);
                     String leftSide = s.substring(0,p).trim();
                     String rightSide = s.substring(p+eq.length()).trim();
                     String message = "\"From: " + className + " line: "+ LINENUMBERMARKER + "\"";
@@ -234,11 +237,11 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
          *
          */
         protected String checkThrows(String s) {
-            int p = indexOfNotInQuotes(s, THROWSMARKER);
+            int p = indexOfNotInQuotes(s, syntax.THROWSMARKER);
             if ( p < 0 ) return s;
             indent = baseIndent + "";
             String sentence = s.substring(0,p);
-            String exception = s.substring(p+THROWSMARKER.length()).trim();
+            String exception = s.substring(p+syntax.THROWSMARKER.length()).trim();
             String exceptionBeg = exception;
             p = exceptionBeg.indexOf(")");
             if ( p >= 0 ) exceptionBeg = exceptionBeg.substring(0,p+1);
@@ -277,8 +280,8 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
         }
 
         if ( ! ini.noImportAtAll ) {
-            String[] jimp = JUNITIMPORTS.split(":");
-            imports.addAll(Arrays.asList(jimp));
+            String[] jimp = syntax.JUNITIMPORTS.split(":");
+            for (String s : jimp) imports.addJUnit(s);
         }
 
         if ( outlines.size() > 2 ) return;
@@ -290,7 +293,7 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
         addOutln(" * " + getComTestVersion());
         addOutln(" *");
         addOutln(" */");
-        if ( !BEFORETESTCLASS.equals("") ) addOutln(BEFORETESTCLASS);
+        if ( !syntax.BEFORETESTCLASS.equals("") ) addOutln(syntax.BEFORETESTCLASS);
         addOutln("public class " + testClassName + " {");
     }
 
@@ -301,8 +304,8 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
     protected void createTestFileInner() { // NOPMD by vesal on 13.1.2008 15:30
         boolean javaComment=false;
         for (int i=0; i < contents.size(); i++ ) {
-            String s = contents.get(i).trim();
-            if ( ComTestIni.checkVariables(s) ) continue;
+            TextSlice s = contents.line(i).trim();
+            if ( s.startsWith("#") && checkVariables(s.toString()) ) continue;
             if ( javaComment && indexOfNotInQuotes(s,"*/")>=0 ) {
                 javaComment = false;
                 continue;
@@ -329,23 +332,24 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
     }
 
     /**
-     * Add imports-list to outlines
+     * Add imports-list to importLines, written before the line importsAt of outlines
      * Also if doStaticImport is true then add also static import
      */
     protected void addImports() { // NOPMD by vesal on 13.1.2008 21:08
         int i;
         boolean javaComment=false;
 
-        if ( "".equals(originalPackageName) ) ini.fullAutoImport = false;
+        // the ini is shared between files, so do not change it here
+        boolean fullAutoImport = ini.fullAutoImport && !"".equals(originalPackageName);
 
-        if ( ini.fullAutoImport && !needsStaticImport && !needsClassImport ) needsClassImport = true;
+        if ( fullAutoImport && !needsStaticImport && !needsClassImport ) needsClassImport = true;
 
-        if ( ini.fullAutoImport && needsStaticImport )
+        if ( fullAutoImport && needsStaticImport )
         		imports.add("import static " + originalPackageName + "." + className +".*;");
-        if ( ini.fullAutoImport && needsClassImport )
+        if ( fullAutoImport && needsClassImport )
         	imports.add("import " + originalPackageName + ".*;");
 
-        for (i=0; i<outlines.size()-1; i++) {
+        for (i=0; i<outlines.size(); i++) {
             String s = outlines.get(i).trim();
             if ( javaComment ) {
               if ( indexOfNotInQuotes(s,"*/")>=0 ) javaComment = false;
@@ -362,10 +366,11 @@ public class ComTestScanner extends cc.jyu.fi.comtest.BaseComTestScanner { // NO
             if ( s.indexOf("class")   >= 0 ) { break;      }
             if ( s.indexOf("import")  >= 0 ) { break;      }
         }
-        outlines.add(i++,"// " + COMTESTID+ " " + COMTESTBEGIN + "\n");
-        for ( String s:imports ) i = addIfNotAllready(i,s);
-        if ( ini.doStaticImport ) i = addIfNotAllready(i,"import static " + originalPackageName + "." + className +".*;");
-        // if ( !noAutoImport && !originalPackageName.equals(testFilePackageName) ) i = addIfNotAllready(i,JAVAIMPOPRT + originalPackageName + "." + className +";");
-        outlines.add(i++,"// " + COMTESTID+ " " + COMTESTEND + "\n");
+        if ( ini.doStaticImport ) imports.add("import static " + originalPackageName + "." + className +".*;");
+        // if ( !noAutoImport && !originalPackageName.equals(testFilePackageName) ) imports.add(JAVAIMPOPRT + originalPackageName + "." + className +";");
+        importsAt = i;
+        importLines.add("// " + COMTESTID+ " " + COMTESTBEGIN + "\n");
+        for ( String s:imports.missingFrom(outlines) ) importLines.add(s + "\n");
+        importLines.add("// " + COMTESTID+ " " + COMTESTEND + "\n");
     }
 }
@@ -0,0 +1,201 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation of ComTest.  The counters and histograms are created
+ * once as constants and used on the hot paths.  By default the registry
+ * is MetricsRegistry.NOOP and every call just checks one volatile flag,
+ * so nothing is allocated and no clock is read.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   Metrics.setRegistry(null);
+ *   Metrics.Counter c = Metrics.counter("test.c");
+ *   c.add(5);
+ *   Metrics.getRegistry().snapshot().size() === 0;
+ *   SimpleMetricsRegistry r = new SimpleMetricsRegistry();
+ *   Metrics.setRegistry(r);
+ *   Metrics.isEnabled() === true;
+ *   c.add(5); c.increment();
+ *   r.snapshot().get("test.c").longValue() === 6L;
+ *   Metrics.setRegistry(null);
+ *   Metrics.isEnabled() === false;
+ *   Metrics.start() === 0L;
+ * </pre>
+ */
+public final class Metrics {
+    /** Name of the MBean the metrics are published with */
+    public static final String OBJECTNAME = "cc.jyu.fi.comtest:type=Metrics";
+
+    private static volatile MetricsRegistry registry = MetricsRegistry.NOOP;
+    private static volatile boolean enabled = false;
+
+    /** comment blocks found by CommentHandler */
+    public static final Counter COMMENTBLOCKS = counter("commentBlocks");
+    /** table rows expanded to tests */
+    public static final Counter TABLEROWS = counter("tableRows");
+    /** assertions generated from ~~~ and ~~ */
+    public static final Counter ALMOSTASSERTIONS = counter("assertions.almost");
+    /** assertions generated from === and => */
+    public static final Counter EQUALSASSERTIONS = counter("assertions.equals");
+    /** assertions generated from =R= and =~ */
+    public static final Counter REGEXASSERTIONS = counter("assertions.regex");
+    /** bytes of source files read */
+    public static final Counter BYTESREAD = counter("bytes.read");
+    /** bytes of test files written */
+    public static final Counter BYTESWRITTEN = counter("bytes.written");
+    /** source files found unchanged from the cache */
+    public static final Counter CACHEHITS = counter("cache.hits");
+    /** source files not found from the cache */
+    public static final Counter CACHEMISSES = counter("cache.misses");
+    /** ini files found from the ini cache */
+    public static final Counter INICACHEHITS = counter("iniCache.hits");
+    /** ini files that had to be looked for */
+    public static final Counter INICACHEMISSES = counter("iniCache.misses");
+    /** XML parser and transformer factories looked up */
+    public static final Counter XMLFACTORIES = counter("xml.factories");
+    /** XML document builders and transformers made for the threads */
+    public static final Counter XMLPARSERS = counter("xml.parsers");
+
+    private Metrics() {
+    }
+
+    /**
+     * Sets where the values are stored.  Calls before this go nowhere.
+     * @param r registry to use, null or NOOP to disable instrumentation
+     */
+    public static void setRegistry(MetricsRegistry r) {
+        registry = r == null ? MetricsRegistry.NOOP : r;
+        enabled = registry != MetricsRegistry.NOOP;
+    }
+
+    /** @return registry in use, NOOP if disabled */
+    public static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /** @return true if the values are stored anywhere */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables the instrumentation with SimpleMetricsRegistry, unless
+     * some registry is already set, and publishes it with JMX.
+     * @return the registry in use
+     */
+    public static synchronized MetricsRegistry enable() {
+        if ( !enabled ) setRegistry(new SimpleMetricsRegistry());
+        register();
+        return registry;
+    }
+
+    /**
+     * Publishes the registry in the platform MBean server.
+     * Does nothing if it is already published.
+     * @return false if JMX is not available
+     */
+    public static boolean register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECTNAME);
+            if ( server.isRegistered(name) ) return true;
+            server.registerMBean(new MetricsMBean(), name);
+            return true;
+        } catch (InstanceAlreadyExistsException e) {
+            return true;
+        } catch (JMException e) {
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts measuring a latency
+     * @return start time for Histogram.since, 0 when disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param name name of the counter
+     * @return handle to the counter, create it only once
+     */
+    public static Counter counter(String name) {
+        return new Counter(name);
+    }
+
+    /**
+     * @param name name of the histogram
+     * @return handle to the histogram, create it only once
+     */
+    public static Histogram histogram(String name) {
+        return new Histogram(name);
+    }
+
+    /**
+     * Handle to a counter of the current registry
+     */
+    public static final class Counter {
+        private final String name;
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        /** @return name of the counter */
+        public String getName() { return name; }
+
+        /** Adds one to the counter */
+        public void increment() {
+            if ( enabled ) registry.add(name, 1);
+        }
+
+        /**
+         * Adds to the counter
+         * @param n how much to add
+         */
+        public void add(long n) {
+            if ( enabled ) registry.add(name, n);
+        }
+    }
+
+    /**
+     * Handle to a histogram of the current registry
+     */
+    public static final class Histogram {
+        private final String name;
+
+        private Histogram(String name) {
+            this.name = name;
+        }
+
+        /** @return name of the histogram */
+        public String getName() { return name; }
+
+        /**
+         * Records a value
+         * @param value value to record
+         */
+        public void record(long value) {
+            if ( enabled ) registry.record(name, value);
+        }
+
+        /**
+         * Records the time since start
+         * @param start value from Metrics.start
+         */
+        public void since(long start) {
+            if ( enabled && start != 0 ) registry.record(name, System.nanoTime() - start);
+        }
+    }
+}
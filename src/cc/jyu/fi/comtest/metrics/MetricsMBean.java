@@ -0,0 +1,89 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Publishes the registry installed in Metrics with JMX.  Every value
+ * of the snapshot is a read only attribute, so the attributes appear
+ * when the counters are used for the first time.  The registry is
+ * looked up on every call, so changing it needs no new registration.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ * #THROWS javax.management.JMException
+ *   SimpleMetricsRegistry r = new SimpleMetricsRegistry();
+ *   Metrics.setRegistry(r);
+ *   r.add("files.Java", 3);
+ *   MetricsMBean bean = new MetricsMBean();
+ *   bean.getAttribute("files.Java") === 3L;
+ *   bean.getMBeanInfo().getAttributes().length === 1;
+ *   bean.invoke("reset", null, null);
+ *   bean.getAttribute("files.Java") === 0L;
+ *   Metrics.setRegistry(null);
+ * </pre>
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        Long value = Metrics.getRegistry().snapshot().get(name);
+        if ( value == null ) throw new AttributeNotFoundException(name);
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Long> values = Metrics.getRegistry().snapshot();
+        AttributeList list = new AttributeList();
+        for ( String name : names ) {
+            Long value = values.get(name);
+            if ( value != null ) list.add(new Attribute(name, value));
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+        if ( "reset".equals(action) ) {
+            Metrics.getRegistry().reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for ( String name : Metrics.getRegistry().snapshot().keySet() )
+            attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Sets all values to zero",
+            new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "ComTest metrics",
+            attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+            new MBeanOperationInfo[] { reset }, null);
+    }
+}
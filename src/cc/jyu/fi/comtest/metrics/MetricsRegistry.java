@@ -0,0 +1,48 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Where the counters and histograms of Metrics are stored.  Install
+ * your own implementation with Metrics.setRegistry to send the values
+ * to some other monitoring system.  Implementations must be thread safe,
+ * because files are processed in parallel.
+ * @author vesal
+ */
+public interface MetricsRegistry {
+    /**
+     * Registry that throws everything away.  This is the default.
+     */
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override public void add(String name, long n) { /* nothing */ }
+        @Override public void record(String name, long value) { /* nothing */ }
+        @Override public Map<String, Long> snapshot() { return Collections.emptyMap(); }
+        @Override public void reset() { /* nothing */ }
+    };
+
+    /**
+     * Adds n to a counter
+     * @param name name of the counter
+     * @param n how much to add
+     */
+    void add(String name, long n);
+
+    /**
+     * Records one value, usually nanoseconds, to a histogram
+     * @param name name of the histogram
+     * @param value value to record
+     */
+    void record(String name, long value);
+
+    /**
+     * @return current values by name, sorted by name
+     */
+    Map<String, Long> snapshot();
+
+    /**
+     * Sets all values back to zero
+     */
+    void reset();
+}
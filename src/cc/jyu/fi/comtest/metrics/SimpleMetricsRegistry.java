@@ -0,0 +1,129 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry that keeps the values in memory.  Counters are atomic longs.
+ * Histograms count the values in buckets of powers of two, so recording
+ * a value never allocates after the first one and the percentiles are
+ * accurate to a factor of two.  For a histogram h the snapshot has the
+ * values h.count, h.total, h.max, h.p50, h.p90 and h.p99.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   SimpleMetricsRegistry r = new SimpleMetricsRegistry();
+ *   r.add("a", 2); r.add("a", 3);
+ *   r.record("t", 1); r.record("t", 100); r.record("t", 1000);
+ *   r.snapshot().get("a").longValue() === 5L;
+ *   r.snapshot().get("t.count").longValue() === 3L;
+ *   r.snapshot().get("t.total").longValue() === 1101L;
+ *   r.snapshot().get("t.max").longValue() === 1000L;
+ *   r.snapshot().get("t.p50").longValue() === 127L;
+ *   r.snapshot().get("t.p99").longValue() === 1000L;
+ *   r.snapshot().firstKey() === "a";
+ *   r.reset();
+ *   r.snapshot().get("a").longValue() === 0L;
+ *   r.snapshot().get("t.count").longValue() === 0L;
+ * </pre>
+ */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, LogHistogram> histograms = new ConcurrentHashMap<String, LogHistogram>();
+
+    @Override
+    public void add(String name, long n) {
+        AtomicLong counter = counters.get(name);
+        if ( counter == null ) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if ( counter == null ) counter = created;
+        }
+        counter.addAndGet(n);
+    }
+
+    @Override
+    public void record(String name, long value) {
+        LogHistogram histogram = histograms.get(name);
+        if ( histogram == null ) {
+            LogHistogram created = new LogHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if ( histogram == null ) histogram = created;
+        }
+        histogram.record(value);
+    }
+
+    @Override
+    public TreeMap<String, Long> snapshot() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for ( Map.Entry<String, AtomicLong> e : counters.entrySet() )
+            values.put(e.getKey(), e.getValue().get());
+        for ( Map.Entry<String, LogHistogram> e : histograms.entrySet() )
+            e.getValue().snapshot(e.getKey(), values);
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        for ( AtomicLong counter : counters.values() ) counter.set(0);
+        for ( LogHistogram histogram : histograms.values() ) histogram.reset();
+    }
+
+    /**
+     * Histogram with a bucket for every power of two.  Bucket i
+     * counts the values that need i bits.
+     */
+    private static class LogHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(65);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            long v = Math.max(value, 0);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            count.incrementAndGet();
+            total.addAndGet(v);
+            long m = max.get();
+            while ( v > m && !max.compareAndSet(m, v) ) m = max.get();
+        }
+
+        void reset() {
+            for ( int i = 0; i < buckets.length(); i++ ) buckets.set(i, 0);
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+
+        void snapshot(String name, Map<String, Long> values) {
+            long n = count.get();
+            long m = max.get();
+            values.put(name + ".count", n);
+            values.put(name + ".total", total.get());
+            values.put(name + ".max", m);
+            values.put(name + ".p50", percentile(n, 50, m));
+            values.put(name + ".p90", percentile(n, 90, m));
+            values.put(name + ".p99", percentile(n, 99, m));
+        }
+
+        /**
+         * @return upper bound of the bucket where the percentile is,
+         *         but at most the largest value recorded
+         */
+        private long percentile(long n, int percent, long m) {
+            if ( n == 0 ) return 0;
+            long rank = (n * percent + 99) / 100;
+            long seen = 0;
+            for ( int i = 0; i < buckets.length(); i++ ) {
+                seen += buckets.get(i);
+                if ( seen >= rank ) return i >= 63 ? m : Math.min((1L << i) - 1, m);
+            }
+            return m;
+        }
+    }
+}
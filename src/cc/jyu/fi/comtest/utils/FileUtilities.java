@@ -1,7 +1,14 @@
 package cc.jyu.fi.comtest.utils;
 
+import cc.jyu.fi.comtest.metrics.Metrics;
+
 import java.util.Scanner;
+import java.util.regex.Pattern;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import static cc.jyu.fi.comtest.utils.StringUtilities.*;
 
@@ -13,6 +20,13 @@ import static cc.jyu.fi.comtest.utils.StringUtilities.*;
 public abstract class FileUtilities {
     // #import comtest.utils.Strings;
 
+    /** Charset of the written files when no other is given */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Timestamp of the @version line, which is ignored when comparing files */
+    private static final Pattern VERSIONSTAMP =
+        Pattern.compile("@version \\d+\\.\\d+\\.\\d+ \\d+:\\d+:\\d+");
+
     private static class SingleFilenameFilter implements FilenameFilter {
         private String acceptFileName;
         
@@ -145,7 +159,7 @@ public abstract class FileUtilities {
         FilenameFilter filter = new SingleFilenameFilter(fileName);
 
         while ( dir != null ) {
-            File[] files = dir.listFiles();
+            File[] files = dir.listFiles(filter);
 
             if ( files == null )
                 // No such directory
@@ -256,4 +270,89 @@ public abstract class FileUtilities {
         
         return lines;
     }
+
+    /**
+     * Compares two file contents ignoring the timestamps
+     * of @version lines.
+     * @param a first contents
+     * @param b second contents
+     * @return true if the contents are equal
+     * @example
+     * <pre name="test">
+     * sameIgnoringVersion("a", "a") === true;
+     * sameIgnoringVersion("a", "b") === false;
+     * sameIgnoringVersion(" * @version 2013.06.24 12:00:01 // x\n", " * @version 2014.01.02 08:30:00 // x\n") === true;
+     * sameIgnoringVersion(" * @version 2013.06.24 12:00:01 // x\nA", " * @version 2014.01.02 08:30:00 // x\nB") === false;
+     * </pre>
+     */
+    public static boolean sameIgnoringVersion(String a, String b) {
+        if ( a.equals(b) ) return true;
+        if ( a.length() != b.length() ) return false;
+        return VERSIONSTAMP.matcher(a).replaceAll("@version").equals(VERSIONSTAMP.matcher(b).replaceAll("@version"));
+    }
+
+    /**
+     * Writes text to a file in UTF-8 unless the file already has the
+     * same contents.
+     * @param text contents to write
+     * @param fileName file to write
+     * @return true if the file was written, false if it was unchanged
+     * @throws IOException if the file could not be written
+     */
+    public static boolean writeIfChanged(String text, String fileName) throws IOException {
+        return writeIfChanged(text, fileName, null);
+    }
+
+    /**
+     * Writes text to a file unless the file already has the same
+     * contents (ignoring the @version timestamp).  The file is first
+     * written to a temporary file in the same directory and then
+     * renamed, so a reader never sees a half written file.
+     * @param text contents to write
+     * @param fileName file to write
+     * @param charset charset of the source the text was made from,
+     *        null for UTF-8, which SourceReader tries first
+     * @return true if the file was written, false if it was unchanged
+     * @throws IOException if the file could not be written
+     * @example
+     * <pre name="test">
+     * #THROWS java.io.IOException
+     * java.io.File f = java.io.File.createTempFile("comtest", ".java");
+     * writeIfChanged("a\u00e4\n", f.getPath(), null) === true;
+     * java.util.Arrays.toString(java.nio.file.Files.readAllBytes(f.toPath())) === "[97, -61, -92, 10]";
+     * SourceText t = SourceReader.readText(f.getPath());
+     * t.get(0) === "a\u00e4";
+     * writeIfChanged(t.get(0) + "\n", f.getPath(), t.getCharset()) === false;
+     * f.delete();
+     * </pre>
+     */
+    public static boolean writeIfChanged(String text, String fileName, Charset charset) throws IOException {
+        File file = new File(fileName);
+        if ( charset == null ) charset = UTF8;
+        byte[] bytes = text.getBytes(charset);
+        if ( file.isFile() && file.length() == bytes.length ) {
+            String old = new String(Files.readAllBytes(file.toPath()), charset);
+            if ( sameIgnoringVersion(old, text) ) return false;
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            Metrics.BYTESWRITTEN.add(bytes.length);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if ( temp.exists() ) temp.delete();
+        }
+        return true;
+    }
 }
@@ -0,0 +1,160 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.utils;
+
+import java.util.regex.Pattern;
+
+/**
+ * File name pattern like src/**&#47;*.java.  The paths are matched with
+ * / as the separator.  * matches any chars except /, ** matches
+ * also /, **&#47; matches zero or more directories, ? matches one char,
+ * [abc] one of the chars and {a,b} one of the alternatives.
+ * A pattern without / is matched against the last part of the path,
+ * unless it is made to match the whole path.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   new GlobPattern("**" + "/*.java").matches("A.java") === true;
+ *   new GlobPattern("**" + "/*.java").matches("a/b/A.java") === true;
+ *   new GlobPattern("*.java").matches("a/b/A.java") === true;
+ *   new GlobPattern("a/*.java").matches("a/b/A.java") === false;
+ *   new GlobPattern("a/**").matches("a/b/A.java") === true;
+ *   new GlobPattern("*.{c,cpp}").matches("x.cpp") === true;
+ *   new GlobPattern("*.{c,cpp}").matches("x.cs") === false;
+ *   new GlobPattern("?[ab].c").matches("xb.c") === true;
+ *   new GlobPattern("[!ab].c").matches("a.c") === false;
+ *   new GlobPattern("a+b.c").matches("a+b.c") === true;
+ * </pre>
+ */
+public class GlobPattern {
+    private final Pattern regex;
+    private final boolean matchName;
+    private final int depth;
+
+    /**
+     * Compiles the pattern
+     * @param glob pattern to compile, \ is taken as /
+     */
+    public GlobPattern(String glob) {
+        this(glob, false);
+    }
+
+    /**
+     * Compiles the pattern
+     * @param glob pattern to compile, \ is taken as /
+     * @param wholePath true to match the whole path also when the
+     *        pattern has no /
+     * @example
+     * <pre name="test">
+     *   new GlobPattern("*.java", true).matches("A.java") === true;
+     *   new GlobPattern("*.java", true).matches("a/A.java") === false;
+     * </pre>
+     */
+    public GlobPattern(String glob, boolean wholePath) {
+        String g = glob.replace('\\', '/');
+        this.matchName = !wholePath && g.indexOf('/') < 0;
+        this.regex = Pattern.compile(toRegex(g));
+        int slashes = 0;
+        for (int i = 0; i < g.length(); i++)
+            if ( g.charAt(i) == '/' ) slashes++;
+        this.depth = matchName || g.indexOf("**") >= 0 ? -1 : slashes;
+    }
+
+    /**
+     * Tells how deep in the directories the matching paths can be
+     * @return the most / a matching path can have, -1 if no limit
+     * @example
+     * <pre name="test">
+     *   new GlobPattern("*.java", true).getDepth() === 0;
+     *   new GlobPattern("a/*" + "/*.java", true).getDepth() === 2;
+     *   new GlobPattern("a/**" + "/*.java", true).getDepth() === -1;
+     *   new GlobPattern("*.java").getDepth() === -1;
+     * </pre>
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Checks if s has chars that make it a pattern
+     * @param s string to check
+     * @return true if s has any of *?[{
+     * @example
+     * <pre name="test">
+     *   hasWildcards("src/*.java") === true;
+     *   hasWildcards("src/A.java") === false;
+     * </pre>
+     */
+    public static boolean hasWildcards(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if ( "*?[{".indexOf(s.charAt(i)) >= 0 ) return true;
+        return false;
+    }
+
+    /**
+     * Converts a glob to a regular expression
+     * @param glob pattern to convert
+     * @return regular expression matching the same strings
+     * @example
+     * <pre name="test">
+     *   toRegex("**") === ".*";
+     *   toRegex("*.java") === "[^/]*\\.java";
+     *   toRegex("a?{b,c}") === "a[^/](?:b|c)";
+     * </pre>
+     */
+    public static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int groups = 0;
+        int n = glob.length();
+        for (int i = 0; i < n; i++) {
+            char c = glob.charAt(i);
+            switch ( c ) {
+                case '*':
+                    if ( i + 1 < n && glob.charAt(i + 1) == '*' ) {
+                        i++;
+                        if ( i + 1 < n && glob.charAt(i + 1) == '/' ) {
+                            i++;
+                            sb.append("(?:.*/)?");
+                        } else sb.append(".*");
+                    } else sb.append("[^/]*");
+                    break;
+                case '?':
+                    sb.append("[^/]");
+                    break;
+                case '{':
+                    groups++;
+                    sb.append("(?:");
+                    break;
+                case '}':
+                    if ( groups > 0 ) { groups--; sb.append(')'); }
+                    else sb.append("\\}");
+                    break;
+                case ',':
+                    sb.append(groups > 0 ? "|" : ",");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if ( end < 0 ) { sb.append("\\["); break; }
+                    String set = glob.substring(i + 1, end);
+                    if ( set.startsWith("!") ) set = "^" + set.substring(1);
+                    sb.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end;
+                    break;
+                default:
+                    if ( "\\.^$|+()]".indexOf(c) >= 0 ) sb.append('\\');
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks if the path matches the pattern
+     * @param path path to check, separated by /
+     * @return true if matches
+     */
+    public boolean matches(String path) {
+        String p = path;
+        if ( matchName ) p = p.substring(p.lastIndexOf('/') + 1);
+        return regex.matcher(p).matches();
+    }
+}
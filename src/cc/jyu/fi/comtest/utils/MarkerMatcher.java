@@ -0,0 +1,178 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds several markers from a line in one pass (Aho-Corasick
+ * automaton).  Only the occurrences outside of quotes are counted,
+ * in the same way as in StringUtilities.indexOfNotInQuotes.
+ * The matcher is immutable and can be shared between threads.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   MarkerMatcher m = new MarkerMatcher("\"'", "~~~", "~~", "===", "=>");
+ *   int[] p = m.indexesOf("a ~~~ b");
+ *   p[0] === 2; p[1] === 2; p[2] === -1; p[3] === -1;
+ *   p = m.indexesOf("\"===\" === '=>' => x");
+ *   p[2] === 6; p[3] === 15;
+ *   p = m.indexesOf("");
+ *   p[0] === -1; p[3] === -1;
+ * </pre>
+ */
+public class MarkerMatcher {
+    private final String quote;
+    private final String[] markers;
+    /** is the marker searched outside quotes or everywhere */
+    private final boolean[] notInQuotes;
+    /** chars used in markers, sorted */
+    private final char[] alphabet;
+    /** next state for every state and char of alphabet */
+    private final int[][] next;
+    /** markers that end in every state */
+    private final int[][] out;
+
+    /**
+     * Builds the automaton for the markers
+     * @param quote chars that start and end quotes
+     * @param markers strings to find
+     */
+    public MarkerMatcher(String quote, String... markers) {
+        this.quote = quote;
+        this.markers = markers.clone();
+        this.notInQuotes = new boolean[markers.length];
+
+        StringBuilder chars = new StringBuilder();
+        for (int k = 0; k < markers.length; k++) {
+            String m = markers[k];
+            notInQuotes[k] = quote.length() > 0 && quote.indexOf(m) < 0;
+            for (int i = 0; i < m.length(); i++)
+                if ( chars.indexOf(String.valueOf(m.charAt(i))) < 0 ) chars.append(m.charAt(i));
+        }
+        alphabet = chars.toString().toCharArray();
+        Arrays.sort(alphabet);
+
+        // trie
+        List<int[]> trie = new ArrayList<int[]>();
+        List<List<Integer>> outs = new ArrayList<List<Integer>>();
+        trie.add(newState());
+        outs.add(new ArrayList<Integer>());
+        for (int k = 0; k < markers.length; k++) {
+            String m = markers[k];
+            if ( m.length() == 0 ) continue;
+            int state = 0;
+            for (int i = 0; i < m.length(); i++) {
+                int c = symbol(m.charAt(i));
+                if ( trie.get(state)[c] < 0 ) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    outs.add(new ArrayList<Integer>());
+                }
+                state = trie.get(state)[c];
+            }
+            outs.get(state).add(k);
+        }
+
+        // failure links in breadth first order, turning the trie to an automaton
+        int[] fail = new int[trie.size()];
+        int[] queue = new int[trie.size()];
+        int head = 0, tail = 0;
+        int[] root = trie.get(0);
+        for (int c = 0; c < alphabet.length; c++) {
+            if ( root[c] < 0 ) root[c] = 0;
+            else { fail[root[c]] = 0; queue[tail++] = root[c]; }
+        }
+        while ( head < tail ) {
+            int state = queue[head++];
+            int[] row = trie.get(state);
+            outs.get(state).addAll(outs.get(fail[state]));
+            for (int c = 0; c < alphabet.length; c++) {
+                int target = row[c];
+                if ( target < 0 ) {
+                    row[c] = trie.get(fail[state])[c];
+                } else {
+                    fail[target] = trie.get(fail[state])[c];
+                    queue[tail++] = target;
+                }
+            }
+        }
+
+        next = trie.toArray(new int[trie.size()][]);
+        out = new int[outs.size()][];
+        for (int s = 0; s < out.length; s++) {
+            List<Integer> o = outs.get(s);
+            out[s] = new int[o.size()];
+            for (int i = 0; i < o.size(); i++) out[s][i] = o.get(i);
+        }
+    }
+
+    private int[] newState() {
+        int[] row = new int[alphabet.length];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int symbol(char c) {
+        return Arrays.binarySearch(alphabet, c);
+    }
+
+    /**
+     * @return number of markers
+     */
+    public int size() {
+        return markers.length;
+    }
+
+    /**
+     * @param k index of the marker
+     * @return the marker
+     */
+    public String getMarker(int k) {
+        return markers[k];
+    }
+
+    /**
+     * Finds the first occurrence of every marker.
+     * @param s line to search
+     * @return position of the first occurrence outside quotes for
+     *         every marker, -1 for the markers not found
+     * @example
+     * <pre name="test">
+     *   MarkerMatcher m = new MarkerMatcher("\"'", "he", "she", "his", "hers", "");
+     *   int[] p = m.indexesOf("ushers");
+     *   p[0] === 2; p[1] === 1; p[2] === -1; p[3] === 2; p[4] === 0;
+     *   p = m.indexesOf("'he' \"s\\\"he\" his");
+     *   p[0] === -1; p[1] === -1; p[2] === 13;
+     * </pre>
+     */
+    public int[] indexesOf(String s) {
+        int[] first = new int[markers.length];
+        int missing = 0;
+        for (int k = 0; k < markers.length; k++) {
+            if ( markers[k].length() == 0 ) first[k] = 0;
+            else { first[k] = -1; missing++; }
+        }
+        if ( missing == 0 ) return first;
+
+        QuotedLine line = null;
+        int state = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int c = symbol(s.charAt(i));
+            if ( c < 0 ) { state = 0; continue; }
+            state = next[state][c];
+            for (int k : out[state]) {
+                if ( first[k] >= 0 ) continue;
+                int start = i - markers[k].length() + 1;
+                if ( notInQuotes[k] ) {
+                    if ( line == null ) line = new QuotedLine(s, quote);
+                    if ( line.isQuoted(start) ) continue;
+                }
+                first[k] = start;
+                if ( --missing == 0 ) return first;
+            }
+        }
+        return first;
+    }
+}
@@ -0,0 +1,153 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.utils;
+
+/**
+ * Index of the quoted parts of one line.  The line is scanned once
+ * and after that any number of strings can be searched outside of
+ * quotes without scanning the quotes again.  Inside quotes a
+ * backslash escapes the next char.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   QuotedLine q = new QuotedLine("a = \"b = c\"; d = 'e'", "\"'");
+ *   q.indexOf("=") === 2;
+ *   q.indexOf("=", 3) === 15;
+ *   q.indexOf("e") === -1;
+ *   q.indexOf(";") === 11;
+ *   q.isQuoted(4) === true;
+ *   q.isQuoted(10) === true;
+ *   q.isQuoted(11) === false;
+ * </pre>
+ */
+public class QuotedLine {
+    private static final int[] NOSPANS = new int[0];
+
+    private final String line;
+    /** start and end (exclusive) of every quoted part, in order */
+    private final int[] spans;
+    private final int spanCount;
+
+    /**
+     * Indexes the line starting from the beginning
+     * @param line line to index
+     * @param quote chars that start and end quotes
+     */
+    public QuotedLine(String line, String quote) {
+        this(line, quote, 0);
+    }
+
+    /**
+     * Indexes the line starting from pos.  Chars before pos are
+     * handled as if they were not quoted.
+     * @param line line to index
+     * @param quote chars that start and end quotes
+     * @param pos where to start
+     * @example
+     * <pre name="test">
+     *   QuotedLine q = new QuotedLine("\"a\" b \"c", "\"", 2);
+     *   q.indexOf("b") === -1;
+     *   q.indexOf("c") === 7;
+     * </pre>
+     */
+    public QuotedLine(String line, String quote, int pos) {
+        this.line = line;
+        int[] found = NOSPANS;
+        int count = 0;
+        int n = line.length();
+        for (int i = pos; i < n; i++) {
+            char c = line.charAt(i);
+            if ( quote.indexOf(c) < 0 ) continue;
+            int start = i;
+            for (i++; i < n; i++) {
+                char ci = line.charAt(i);
+                if ( ci == '\\' ) { i++; continue; }
+                if ( ci == c ) break;
+            }
+            if ( count + 2 > found.length ) {
+                int[] bigger = new int[Math.max(4, found.length * 2)];
+                System.arraycopy(found, 0, bigger, 0, count);
+                found = bigger;
+            }
+            found[count++] = start;
+            found[count++] = Math.min(i + 1, n);
+        }
+        spans = found;
+        spanCount = count;
+    }
+
+    /**
+     * @return the indexed line
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Checks if position i is inside quotes.  The quote chars
+     * themselves are counted to be inside.
+     * @param i position to check
+     * @return true if quoted
+     */
+    public boolean isQuoted(int i) {
+        for (int k = 0; k < spanCount; k += 2) {
+            if ( i < spans[k] ) return false;
+            if ( i < spans[k + 1] ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find first instance of what that is not inside of quotes
+     * @param what string to find
+     * @param pos position where to start
+     * @return index of first occurrence or -1 if not found
+     */
+    public int indexOf(String what, int pos) {
+        int i = line.indexOf(what, pos);
+        if ( spanCount == 0 ) return i;
+        int k = 0;
+        while ( i >= 0 ) {
+            while ( k < spanCount && spans[k + 1] <= i ) k += 2;
+            if ( k >= spanCount || i < spans[k] ) return i;
+            i = line.indexOf(what, spans[k + 1]);
+        }
+        return -1;
+    }
+
+    /**
+     * Find first instance of what that is not inside of quotes
+     * @param what string to find
+     * @return index of first occurrence or -1 if not found
+     */
+    public int indexOf(String what) {
+        return indexOf(what, 0);
+    }
+
+    /**
+     * Finds the first position where any of whats is found
+     * outside of quotes.  If several strings are found at
+     * the same position, the first of them in whats wins.
+     * @param pos position where to start
+     * @param whats strings to find
+     * @return index in whats of the string found first, -1 if none found.
+     *         Use indexOf to get the position.
+     * @example
+     * <pre name="test">
+     *   QuotedLine q = new QuotedLine("x \"=\" == y = z", "\"");
+     *   q.indexOfFirst(0, "=", "==") === 0;
+     *   q.indexOfFirst(0, "==", "=") === 0;
+     *   q.indexOfFirst(0, "y", "==") === 1;
+     *   q.indexOfFirst(9, "y", "==") === 0;
+     *   q.indexOfFirst(0, "a", "b") === -1;
+     * </pre>
+     */
+    public int indexOfFirst(int pos, String... whats) {
+        int best = -1;
+        int bestPos = Integer.MAX_VALUE;
+        for (int w = 0; w < whats.length; w++) {
+            int p = indexOf(whats[w], pos);
+            if ( 0 <= p && p < bestPos ) { best = w; bestPos = p; }
+        }
+        return best;
+    }
+}
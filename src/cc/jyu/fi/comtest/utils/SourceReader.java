@@ -0,0 +1,270 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.utils;
+
+import cc.jyu.fi.comtest.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads text files to lines with NIO.  Small files are read to a
+ * buffer that is reused by the same thread, large files to a buffer
+ * of their own.  Files are not memory mapped, because on Windows a
+ * mapped file can not be replaced until it is garbage collected.
+ * <p>
+ * The charset is taken from the byte order mark if there is one,
+ * otherwise UTF-8 is used if the file is valid UTF-8 and the platform
+ * default charset if not.  The charset is kept with the text, so the
+ * files made from it can be written with the same charset.  Lines may
+ * end with CR LF, LF or CR.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ * #THROWS java.io.IOException
+ * java.io.File f = java.io.File.createTempFile("comtest", ".java");
+ * java.nio.file.Files.write(f.toPath(), new byte[]{ 'a', (byte)0xC3, (byte)0xA4 });
+ * SourceText t = readText(f.getPath());
+ * t.get(0) === "a\u00e4";
+ * t.getCharset().name() === "UTF-8";
+ * java.nio.file.Files.write(f.toPath(), new byte[]{ (byte)0xFF, (byte)0xFE, 'b', 0 });
+ * readText(f.getPath()).getCharset().name() === "UTF-16";
+ * f.delete();
+ * </pre>
+ */
+public final class SourceReader {
+    /** Buffers for files larger than this are not kept for the thread */
+    static final int POOLTHRESHOLD = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset UTF16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF16LE = Charset.forName("UTF-16LE");
+    /** UTF-16 with a byte order mark, for writing what was read as UTF-16 */
+    private static final Charset UTF16 = Charset.forName("UTF-16");
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private SourceReader() {
+    }
+
+    /**
+     * Reads the lines of a file
+     * @param fileName file to read
+     * @return the lines, null if the file could not be read
+     */
+    public static Strings readLines(String fileName) {
+        SourceText text = readText(fileName);
+        return text == null ? null : text.toStrings();
+    }
+
+    /**
+     * Reads the file to one buffer of chars.  The lines are
+     * copied to strings only when they are asked for.
+     * @param fileName file to read
+     * @return the lines, null if the file could not be read
+     */
+    public static SourceText readText(String fileName) {
+        File file = new File(fileName);
+        if ( !file.isFile() ) return null;
+
+        try {
+            Charset[] charset = new Charset[1];
+            CharBuffer chars = decode(readBytes(file), charset);
+            return SourceText.of(chars, charset[0]);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks from the raw bytes if the file may contain the text.
+     * The file is not decoded, so this is much faster than reading
+     * the lines.  Files in UTF-16 can not be checked this way.
+     * @param fileName file to check
+     * @param ascii text to look for, only ASCII chars
+     * @return false only if the file surely does not contain the text
+     */
+    public static boolean mayContain(String fileName, String ascii) {
+        File file = new File(fileName);
+        if ( !file.isFile() ) return true;
+
+        try {
+            ByteBuffer bytes = readBytes(file);
+            return isUtf16(bytes) || indexOf(bytes, ascii) >= 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Reads the whole file.  The buffer of small files is reused
+     * by the next read of the same thread.
+     */
+    private static ByteBuffer readBytes(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            Metrics.BYTESREAD.add(size);
+            ByteBuffer bytes = size > POOLTHRESHOLD ? ByteBuffer.allocate((int)size) : buffer((int)size);
+            while ( bytes.hasRemaining() && channel.read(bytes) >= 0 ) { /* fill */ }
+            bytes.flip();
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean isUtf16(ByteBuffer bytes) {
+        int p = bytes.position();
+        if ( bytes.remaining() < 2 ) return false;
+        byte b0 = bytes.get(p), b1 = bytes.get(p+1);
+        return (b0 == (byte)0xFE && b1 == (byte)0xFF) || (b0 == (byte)0xFF && b1 == (byte)0xFE);
+    }
+
+    /**
+     * Finds ASCII text from bytes.  Searches the first byte with a
+     * tight loop and compares the rest only where it is found.
+     * @param bytes bytes to search, from position to limit
+     * @param ascii text to find
+     * @return offset from position, -1 if not found
+     * @example
+     * <pre name="test">
+     * indexOf(java.nio.ByteBuffer.wrap("ab <pre name".getBytes()), "<pre") === 3;
+     * indexOf(java.nio.ByteBuffer.wrap("<pr <pre".getBytes()), "<pre") === 4;
+     * indexOf(java.nio.ByteBuffer.wrap("<pr".getBytes()), "<pre") === -1;
+     * indexOf(java.nio.ByteBuffer.wrap("".getBytes()), "") === 0;
+     * </pre>
+     */
+    public static int indexOf(ByteBuffer bytes, String ascii) {
+        int m = ascii.length();
+        if ( m == 0 ) return 0;
+        byte[] needle = new byte[m];
+        for (int i = 0; i < m; i++) needle[i] = (byte)ascii.charAt(i);
+        byte first = needle[0];
+        int start = bytes.position();
+        int last = bytes.limit() - m;
+
+        if ( bytes.hasArray() ) {
+            byte[] a = bytes.array();
+            int off = bytes.arrayOffset();
+            for (int i = start + off, end = last + off; i <= end; i++) {
+                if ( a[i] != first ) continue;
+                int k = 1;
+                while ( k < m && a[i+k] == needle[k] ) k++;
+                if ( k == m ) return i - off - start;
+            }
+            return -1;
+        }
+
+        for (int i = start; i <= last; i++) {
+            if ( bytes.get(i) != first ) continue;
+            int k = 1;
+            while ( k < m && bytes.get(i+k) == needle[k] ) k++;
+            if ( k == m ) return i - start;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the buffer of this thread cleared and limited to size.
+     * Buffers larger than POOLTHRESHOLD are never asked for.
+     */
+    private static ByteBuffer buffer(int size) {
+        ByteBuffer buf = buffers.get();
+        if ( buf == null || buf.capacity() < size ) {
+            buf = ByteBuffer.allocate(Math.max(size, 8192));
+            buffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * Decodes bytes to chars.  The byte order mark is skipped.
+     * @param bytes bytes to decode
+     * @return decoded chars
+     * @throws CharacterCodingException never, malformed input is replaced
+     * @example
+     * <pre name="test">
+     * #THROWS java.nio.charset.CharacterCodingException
+     * decode(java.nio.ByteBuffer.wrap(new byte[]{ (byte)0xEF, (byte)0xBB, (byte)0xBF, 'a' })).toString() === "a";
+     * decode(java.nio.ByteBuffer.wrap(new byte[]{ (byte)0xFF, (byte)0xFE, 'a', 0 })).toString() === "a";
+     * decode(java.nio.ByteBuffer.wrap(new byte[]{ (byte)0xFE, (byte)0xFF, 0, 'a' })).toString() === "a";
+     * decode(java.nio.ByteBuffer.wrap(new byte[]{ (byte)0xC3, (byte)0xA4 })).toString() === "\u00e4";
+     * decode(java.nio.ByteBuffer.wrap(new byte[]{ 'a', 'b' })).toString() === "ab";
+     * </pre>
+     */
+    public static CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException {
+        return decode(bytes, new Charset[1]);
+    }
+
+    /**
+     * Decodes bytes to chars and tells the charset to write them with.
+     * Text read as UTF-16 is written as UTF-16 with a byte order mark.
+     */
+    private static CharBuffer decode(ByteBuffer bytes, Charset[] used) throws CharacterCodingException {
+        Charset charset = null;
+        int n = bytes.remaining();
+        int p = bytes.position();
+        if ( n >= 3 && bytes.get(p) == (byte)0xEF && bytes.get(p+1) == (byte)0xBB && bytes.get(p+2) == (byte)0xBF ) {
+            bytes.position(p + 3);
+            charset = UTF8;
+        } else if ( n >= 2 && bytes.get(p) == (byte)0xFE && bytes.get(p+1) == (byte)0xFF ) {
+            bytes.position(p + 2);
+            charset = UTF16BE;
+        } else if ( n >= 2 && bytes.get(p) == (byte)0xFF && bytes.get(p+1) == (byte)0xFE ) {
+            bytes.position(p + 2);
+            charset = UTF16LE;
+        }
+
+        if ( charset == null ) {
+            CharsetDecoder strict = UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            int start = bytes.position();
+            try {
+                CharBuffer chars = strict.decode(bytes);
+                used[0] = UTF8;
+                return chars;
+            } catch (CharacterCodingException e) {
+                bytes.position(start);
+                charset = Charset.defaultCharset();
+            }
+        }
+
+        used[0] = charset == UTF16BE || charset == UTF16LE ? UTF16 : charset;
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .decode(bytes);
+    }
+
+    /**
+     * Splits text to lines.  Line separators are CR LF, LF, CR and
+     * the Unicode line separators, like in java.util.Scanner.
+     * A separator at the end of the text does not start a new line.
+     * @param text text to split
+     * @return lines without separators
+     * @example
+     * <pre name="test">
+     * toLines("a\r\nb\nc\rd").toString("|") === "a|b|c|d";
+     * toLines("a\n").size() === 1;
+     * toLines("a\n\n").toString("|") === "a|";
+     * toLines("\n").size() === 1;
+     * toLines("").size() === 0;
+     * toLines("a\r").size() === 1;
+     * </pre>
+     */
+    public static Strings toLines(CharSequence text) {
+        return SourceText.of(text).toStrings();
+    }
+}
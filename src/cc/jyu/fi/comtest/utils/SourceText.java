@@ -0,0 +1,178 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.utils;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Lines of a source file over one buffer.  The file is split to lines
+ * only by remembering where the lines start and end.  A line is copied
+ * to a String when get is first called for it, so the lines that are
+ * only looked at through line() are never copied.  The scanners check
+ * most lines with line() and get only the lines of the test comments.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   SourceText t = SourceText.of("a\r\n  b \nc");
+ *   t.size() === 3;
+ *   t.line(1).toString() === "  b ";
+ *   t.line(1).trim().toString() === "b";
+ *   t.get(2) === "c";
+ *   t.get(1) == t.get(1) === true;
+ *   t.toStrings().toString("|") === "a|  b |c";
+ *   SourceText.of(t.toStrings()).get(1) == t.get(1) === true;
+ * </pre>
+ */
+public final class SourceText extends AbstractList<String> implements RandomAccess {
+    private final CharSequence text;
+    /** start and end (exclusive) of every line in text */
+    private final int[] bounds;
+    private final String[] strings;
+    /** lines given as strings, null when the lines are in text */
+    private final List<String> list;
+    /** charset the text was decoded with, null if not read from a file */
+    private final Charset charset;
+
+    private SourceText(CharSequence text, int[] bounds, int lines, Charset charset) {
+        this.text = text;
+        this.bounds = bounds;
+        this.strings = new String[lines];
+        this.list = null;
+        this.charset = charset;
+    }
+
+    private SourceText(List<String> lines) {
+        this.text = null;
+        this.bounds = null;
+        this.strings = null;
+        this.list = lines;
+        this.charset = null;
+    }
+
+    /**
+     * Splits text to lines.  Line separators are CR LF, LF, CR and
+     * the Unicode line separators, like in java.util.Scanner.
+     * A separator at the end of the text does not start a new line.
+     * The text must not change while the lines are used.
+     * @param text text to split
+     * @return lines of the text
+     * @example
+     * <pre name="test">
+     * SourceText.of("a\r\nb\nc\rd").size() === 4;
+     * SourceText.of("a\n").size() === 1;
+     * SourceText.of("a\n\n").get(1) === "";
+     * SourceText.of("").size() === 0;
+     * </pre>
+     */
+    public static SourceText of(CharSequence text) {
+        return of(text, null);
+    }
+
+    /**
+     * Splits decoded text to lines and remembers its charset
+     * @param text text to split
+     * @param charset charset the text was decoded with
+     * @return lines of the text
+     */
+    static SourceText of(CharSequence text, Charset charset) {
+        int[] bounds = new int[64];
+        int count = 0;
+        int n = text.length();
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if ( c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085' ) {
+                if ( count + 2 > bounds.length ) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                bounds[count++] = start;
+                bounds[count++] = i;
+                if ( c == '\r' && i + 1 < n && text.charAt(i + 1) == '\n' ) i++;
+                start = i + 1;
+            }
+        }
+        if ( start < n ) {
+            if ( count + 2 > bounds.length ) bounds = Arrays.copyOf(bounds, bounds.length + 2);
+            bounds[count++] = start;
+            bounds[count++] = n;
+        }
+        return new SourceText(text, bounds, count / 2, charset);
+    }
+
+    /**
+     * Adapter for lines that are already strings.  The list is not
+     * copied, so lines added to it later are seen too.
+     * @param lines lines to use
+     * @return the lines as SourceText
+     * @example
+     * <pre name="test">
+     * Strings lines = new Strings();
+     * SourceText t = SourceText.of(lines);
+     * t.size() === 0;
+     * lines.add("a === 5");
+     * t.size() === 1;
+     * t.line(0).toString() === "a === 5";
+     * </pre>
+     */
+    public static SourceText of(List<String> lines) {
+        if ( lines instanceof SourceText ) return (SourceText)lines;
+        return new SourceText(lines);
+    }
+
+    /**
+     * Returns the charset to write files made from these lines with,
+     * so that the characters of the source come out as the same bytes.
+     * @return charset of the file the lines were read from, null if
+     *         the lines were not read from a file
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int size() {
+        if ( list != null ) return list.size();
+        return strings.length;
+    }
+
+    /**
+     * Returns the line as a String.  The line is copied from the
+     * buffer only once.
+     * @param i index of the line
+     * @return the line without the line separator
+     */
+    @Override
+    public String get(int i) {
+        if ( list != null ) return list.get(i);
+        String s = strings[i];
+        if ( s == null ) {
+            s = text.subSequence(bounds[2 * i], bounds[2 * i + 1]).toString();
+            strings[i] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns a view to the line without copying it
+     * @param i index of the line
+     * @return the line without the line separator
+     */
+    public TextSlice line(int i) {
+        if ( list != null ) return new TextSlice(list.get(i));
+        String s = strings[i];
+        if ( s != null ) return new TextSlice(s);
+        return new TextSlice(text, bounds[2 * i], bounds[2 * i + 1]);
+    }
+
+    /**
+     * Adapter to the old interfaces, copies every line
+     * @return the lines as a new Strings
+     */
+    public Strings toStrings() {
+        Strings lines = new Strings();
+        lines.ensureCapacity(size());
+        for (int i = 0; i < size(); i++) lines.add(get(i));
+        return lines;
+    }
+}
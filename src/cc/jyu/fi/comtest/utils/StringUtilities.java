@@ -1,11 +1,6 @@
 package cc.jyu.fi.comtest.utils;
-import java.util.Scanner;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.FileWriter;
+import java.nio.charset.Charset;
 
 /**
  * A collection of static string handling functions
@@ -59,9 +54,10 @@ public class StringUtilities { // NOPMD by vesal on 13.1.2008 15:27
      */
     public static Strings splitBy(String s, String where, int jump, boolean trim, String remove) {
         Strings parts = new Strings();
+        QuotedLine line = new QuotedLine(s, QUOTES);
         int p = 0, p2; 
         while ( true ) {
-          p2 = indexOfNotInQuotes(s, where, QUOTES, p);
+          p2 = line.indexOf(where, p);
           if ( p2 < 0 ) break;
           String part = s.substring(p, p2 + where.length() - jump);
           part = removeChars(part, remove);
@@ -130,35 +126,31 @@ public class StringUtilities { // NOPMD by vesal on 13.1.2008 15:27
     }
 
     /**
-     * Find first instance of what that is not inside of quotes 
+     * Find first instance of what that is not inside of quotes.
+     * To find several strings from the same line use QuotedLine
+     * to scan the quotes only once.
      * @param s     from where to find
      * @param what  string to find
      * @param quote what chars are used as a quote
      * @param pos position where to start
      * @return index of first occurrence or -1 if not found
+     * @example
+     * <pre name="test">
+     * indexOfNotInQuotes("a \"b\" b", "b", QUOTES, 0) === 6;
+     * indexOfNotInQuotes("a \"b\\\"b\" b", "b", QUOTES, 0) === 9;
+     * indexOfNotInQuotes("a 'b' b", "b", QUOTES, 3) === 3;
+     * indexOfNotInQuotes("a 'b' b", "b", QUOTES, 4) === -1;
+     * indexOfNotInQuotes("a 'b' c", "b", QUOTES, 0) === -1;
+     * indexOfNotInQuotes("a \"b", "b", QUOTES, 0) === -1;
+     * indexOfNotInQuotes("a \"b", "\"", QUOTES, 0) === 2;
+     * </pre>
      */
     public static int indexOfNotInQuotes(String s, String what, String quote, int pos) { // NOPMD by vesal on 13.1.2008 15:27
         if ( quote.equals("") ) return s.indexOf(what); // NOPMD by vesal on 13.1.2008 15:27
         if ( quote.indexOf(what) >= 0 ) return s.indexOf(what);
+        if ( s.indexOf(what, pos) < 0 ) return -1; // not even inside quotes
 
-        boolean inQuote = false;
-        char quoteChar = 0;
-        
-        for (int i=pos; i<s.length(); i++) {
-            if ( inQuote && s.charAt(i) == '\\'  ) { i += 1; continue; }
-            int p = quote.indexOf(s.charAt(i));
-            if ( !inQuote && p >= 0 )  {
-                inQuote = true;
-                quoteChar = quote.charAt(p);
-                continue;
-            } 
-            if ( inQuote ) {
-                if ( s.charAt(i) == quoteChar ) inQuote = false;
-                continue;
-            }
-            if ( s.startsWith(what,i) ) return i; 
-        }
-        return -1;
+        return new QuotedLine(s, quote, pos).indexOf(what, pos);
     }
 
     
@@ -209,6 +201,67 @@ public class StringUtilities { // NOPMD by vesal on 13.1.2008 15:27
       return indexOfNotInQuotes(s,what,QUOTES);  
     }
 
+
+    /**
+     * Find first instance of what that is not inside of quotes.
+     * The text is copied to a string only if what is found from it.
+     * @param s     from where to find
+     * @param what  string to find
+     * @param quote what chars are used as a quote
+     * @param pos position where to start
+     * @return index of first occurrence or -1 if not found
+     * @example
+     * <pre name="test">
+     * indexOfNotInQuotes(new TextSlice("x a 'b' b"), "b", QUOTES, 0) === 8;
+     * indexOfNotInQuotes(new TextSlice("x a 'b' b"), "c", QUOTES, 0) === -1;
+     * </pre>
+     */
+    public static int indexOfNotInQuotes(CharSequence s, String what, String quote, int pos) {
+        if ( quote.length() > 0 && quote.indexOf(what) < 0 && indexOf(s, what, pos) < 0 ) return -1;
+        return indexOfNotInQuotes(s.toString(), what, quote, pos);
+    }
+
+
+    /**
+     * Find first instance of what that is not inside of quotes
+     * @param s     from where to find
+     * @param what  string to find
+     * @return index of first occurrence or -1 if not found
+     */
+    public static int indexOfNotInQuotes(CharSequence s, String what) {
+      return indexOfNotInQuotes(s,what,QUOTES,0);
+    }
+
+
+    /**
+     * Finds what from any char sequence without copying it
+     * @param s     from where to find
+     * @param what  string to find
+     * @param from  position where to start
+     * @return index of first occurrence or -1 if not found
+     * @example
+     * <pre name="test">
+     * indexOf(new StringBuilder("abcabc"), "ca", 0) === 2;
+     * indexOf(new StringBuilder("abcabc"), "ca", 3) === -1;
+     * indexOf(new StringBuilder("abc"), "", 1) === 1;
+     * indexOf(new StringBuilder("abc"), "d", -1) === -1;
+     * </pre>
+     */
+    public static int indexOf(CharSequence s, String what, int from) {
+        if ( s instanceof String ) return ((String)s).indexOf(what, from);
+        int m = what.length();
+        int last = s.length() - m;
+        if ( m == 0 ) return Math.min(Math.max(from, 0), s.length());
+        char first = what.charAt(0);
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            if ( s.charAt(i) != first ) continue;
+            int k = 1;
+            while ( k < m && s.charAt(i + k) == what.charAt(k) ) k++;
+            if ( k == m ) return i;
+        }
+        return -1;
+    }
+
         
      /**
      * Find first instance of what that is not inside of quotes 
@@ -585,32 +638,15 @@ public class StringUtilities { // NOPMD by vesal on 13.1.2008 15:27
     }*/
 
     /**
-     * Read the file and return the contents as a ArrayList
+     * Read the file and return the contents as a ArrayList.
+     * The charset and line ends are detected by SourceReader.
      * @param fileName the file name to read
      * @return null if problems, otherwise the file contents
      * 
      */
     public static Strings getFileContents(String fileName)
     {
-        Scanner scanner = null;
-
-        try {
-            scanner = new Scanner(new FileInputStream(new File(fileName)));
-            Strings lines = new Strings();
-            if (scanner.hasNextLine()) {
-                lines.add(deUnicode(scanner.nextLine()));
-            }
-            while (scanner.hasNextLine()) {
-                lines.add(scanner.nextLine());
-            }
-            return lines;
-        } catch (FileNotFoundException e) {
-            return null;
-        } finally {
-            if (scanner != null) {
-            	scanner.close();
-            }
-        }
+        return SourceReader.readLines(fileName);
     }
 
     /**
@@ -650,31 +686,45 @@ public class StringUtilities { // NOPMD by vesal on 13.1.2008 15:27
     }
 
     /**
-     * Write a string list to file.
+     * Write a string list to file as UTF-8.  The file is left untouched
+     * if it already has the same contents.
      * @param strings String list.
      * @param fileName File name to write to.
      * @return true if successful
      */
     public static boolean writeToFile(Strings strings, String fileName) {
-        FileWriter fw;
-        PrintWriter pw;
-
-        try {
-            fw = new FileWriter(fileName);
-        } catch (IOException ioe) {
-            return false;
-        }
+        return writeToFile(strings, fileName, null);
+    }
 
-        pw = new PrintWriter(fw);
+    /**
+     * Write a string list to file.  The file is left untouched
+     * if it already has the same contents.
+     * @param strings String list.
+     * @param fileName File name to write to.
+     * @param charset charset of the source the strings were made from,
+     *        null for UTF-8
+     * @return true if successful
+     * @example
+     * <pre name="test">
+     * #THROWS java.io.IOException
+     * java.io.File f = java.io.File.createTempFile("comtest", ".cs");
+     * writeToFile(new Strings("\u00e4"), f.getPath(), java.nio.charset.Charset.forName("ISO-8859-1")) === true;
+     * java.nio.file.Files.readAllBytes(f.toPath())[0] === (byte)0xE4;
+     * f.delete();
+     * </pre>
+     */
+    public static boolean writeToFile(Strings strings, String fileName, Charset charset) {
+        StringBuilder text = new StringBuilder();
+        String eol = System.getProperty("line.separator");
 
         for (int i = 0; i < strings.size(); i++)
-            pw.println(strings.get(i));
-
-        pw.close();
+            text.append(strings.get(i)).append(eol);
 
         try {
-            fw.close();
-        } catch (IOException ioe) {}
+            FileUtilities.writeIfChanged(text.toString(), fileName, charset);
+        } catch (IOException ioe) {
+            return false;
+        }
 
         return true;
     }
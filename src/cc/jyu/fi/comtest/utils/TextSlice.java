@@ -0,0 +1,121 @@
+// ComTest - Comments for testing
+package cc.jyu.fi.comtest.utils;
+
+/**
+ * Read only view to a part of a longer text.  Taking a sub sequence
+ * or trimming a slice does not copy the chars, only toString does,
+ * and the string is remembered.
+ * @author vesal
+ * @example
+ * <pre name="test">
+ *   TextSlice s = new TextSlice("ab  cd e  ", 2, 10);
+ *   s.toString() === "  cd e  ";
+ *   s.length() === 8;
+ *   s.charAt(2) === 'c';
+ *   s.trim().toString() === "cd e";
+ *   s.trim().startsWith("cd") === true;
+ *   s.trim().startsWith("d") === false;
+ *   s.indexOf("e") === 5;
+ *   s.indexOf("a") === -1;
+ *   s.indexOf("d", 4) === -1;
+ *   s.subSequence(2, 4).toString() === "cd";
+ *   new TextSlice("  ", 0, 2).trim().length() === 0;
+ * </pre>
+ */
+public final class TextSlice implements CharSequence {
+    private final CharSequence text;
+    private final int start;
+    private final int end;
+    private String string;
+
+    /**
+     * Creates a view to the whole text
+     * @param text text to view
+     */
+    public TextSlice(CharSequence text) {
+        this(text, 0, text.length());
+    }
+
+    /**
+     * Creates a view to a part of the text
+     * @param text text to view
+     * @param start first char of the slice
+     * @param end end of the slice, exclusive
+     */
+    public TextSlice(CharSequence text, int start, int end) {
+        if ( start < 0 || end > text.length() || start > end )
+            throw new IndexOutOfBoundsException(start + ".." + end + " of " + text.length());
+        this.text = text;
+        this.start = start;
+        this.end = end;
+        if ( text instanceof String && start == 0 && end == text.length() ) string = (String)text;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if ( index < 0 || index >= end - start ) throw new IndexOutOfBoundsException(String.valueOf(index));
+        return text.charAt(start + index);
+    }
+
+    @Override
+    public TextSlice subSequence(int from, int to) {
+        if ( from < 0 || to > end - start || from > to )
+            throw new IndexOutOfBoundsException(from + ".." + to);
+        return new TextSlice(text, start + from, start + to);
+    }
+
+    /**
+     * @return the slice without white space in the beginning and
+     *         in the end, like String.trim
+     */
+    public TextSlice trim() {
+        int b = start, e = end;
+        while ( b < e && text.charAt(b) <= ' ' ) b++;
+        while ( e > b && text.charAt(e - 1) <= ' ' ) e--;
+        if ( b == start && e == end ) return this;
+        return new TextSlice(text, b, e);
+    }
+
+    /**
+     * @param prefix text to check
+     * @return true if the slice starts with prefix
+     */
+    public boolean startsWith(String prefix) {
+        int n = prefix.length();
+        if ( n > end - start ) return false;
+        for (int i = 0; i < n; i++)
+            if ( text.charAt(start + i) != prefix.charAt(i) ) return false;
+        return true;
+    }
+
+    /**
+     * @param what text to find
+     * @return index of the first occurrence, -1 if not found
+     */
+    public int indexOf(String what) {
+        return StringUtilities.indexOf(this, what, 0);
+    }
+
+    /**
+     * @param what text to find
+     * @param from where to start
+     * @return index of the first occurrence, -1 if not found
+     */
+    public int indexOf(String what, int from) {
+        return StringUtilities.indexOf(this, what, from);
+    }
+
+    @Override
+    public String toString() {
+        if ( string == null ) {
+            if ( text instanceof String ) string = ((String)text).substring(start, end);
+            else string = text.subSequence(start, end).toString();
+        }
+        return string;
+    }
+}
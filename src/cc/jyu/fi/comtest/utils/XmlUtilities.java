@@ -1,18 +1,140 @@
 package cc.jyu.fi.comtest.utils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
 import org.w3c.dom.*;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import cc.jyu.fi.comtest.metrics.Metrics;
 
 /**
- * Utilities for manipulating XML documents
+ * Utilities for manipulating XML documents.
+ * <p>
+ * Looking up an XML factory goes through the service loader and is
+ * slow, so each factory is looked up only once, with secure processing
+ * and without DTDs and external entities.  Document builders and
+ * transformers are not thread-safe, so every thread gets its own and
+ * keeps using it.  The lookups and the builders made are counted in
+ * Metrics.XMLFACTORIES and Metrics.XMLPARSERS.
  * @author tojukarp
+ * @example
+ * <pre name="test">
+ * #THROWS Exception
+ * getDocumentBuilder() == getDocumentBuilder() === true;
+ * getTransformer() == getTransformer() === true;
+ * final DocumentBuilder[] other = new DocumentBuilder[1];
+ * Thread t = new Thread() { public void run() {
+ *   try { other[0] = getDocumentBuilder(); } catch (ParserConfigurationException e) { }
+ * } };
+ * t.start(); t.join();
+ * other[0] == getDocumentBuilder() === false;
+ * parseDomDocument("<!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>") === null;
+ * XMLStreamReader reader = createStreamReader(new StringReader("<a>b</a>"));
+ * reader.next(); reader.getLocalName() === "a";
+ * </pre>
  */
 public abstract class XmlUtilities {
     // #import org.w3c.dom.*;
 
-    private static DocumentBuilder builder;
+    private static DocumentBuilderFactory builderFactory;
+    private static TransformerFactory transformerFactory;
+    private static XMLInputFactory inputFactory;
+
+    private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
+    private static final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+    private static synchronized DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        if ( builderFactory == null ) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            try {
+                factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            } catch (ParserConfigurationException pce) { } // not known by this parser
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            builderFactory = factory;
+            Metrics.XMLFACTORIES.increment();
+        }
+
+        DocumentBuilder builder = builderFactory.newDocumentBuilder();
+        builder.setErrorHandler(new DefaultHandler()); // quietly, errors are thrown
+        Metrics.XMLPARSERS.increment();
+        return builder;
+    }
+
+    private static synchronized Transformer newTransformer() throws TransformerConfigurationException {
+        if ( transformerFactory == null ) {
+            TransformerFactory factory = TransformerFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            transformerFactory = factory;
+            Metrics.XMLFACTORIES.increment();
+        }
+
+        Metrics.XMLPARSERS.increment();
+        return transformerFactory.newTransformer();
+    }
+
+    /**
+     * Gets the document builder of the current thread
+     * @return document builder, the same every time in one thread
+     * @throws ParserConfigurationException if no builder can be made
+     */
+    public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = builders.get();
+        if ( builder == null ) {
+            builder = newDocumentBuilder();
+            builders.set(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Gets the transformer of the current thread
+     * @return transformer, the same every time in one thread
+     * @throws TransformerConfigurationException if no transformer can be made
+     */
+    public static Transformer getTransformer() throws TransformerConfigurationException {
+        Transformer transformer = transformers.get();
+        if ( transformer == null ) {
+            transformer = newTransformer();
+            transformers.set(transformer);
+        }
+        else transformer.reset();
+        return transformer;
+    }
+
+    /**
+     * Creates a StAX reader.  The factory is shared, only creating the
+     * reader is synchronized, reading with it is not.
+     * @param source where to read from
+     * @return the reader
+     * @throws XMLStreamException if the reader can not be created
+     */
+    public static XMLStreamReader createStreamReader(Reader source) throws XMLStreamException {
+        synchronized (XmlUtilities.class) {
+            if ( inputFactory == null ) {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+                inputFactory = factory;
+                Metrics.XMLFACTORIES.increment();
+            }
+            return inputFactory.createXMLStreamReader(source);
+        }
+    }
 
     /**
      * Creates an empty DOM document
@@ -20,10 +142,7 @@ public abstract class XmlUtilities {
      */
     public static Document createDomDocument() {
         try {
-            if ( builder == null )
-                builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-
-            Document doc = builder.newDocument();
+            Document doc = getDocumentBuilder().newDocument();
             return doc;
 
         } catch (ParserConfigurationException pce) { }
@@ -31,6 +150,27 @@ public abstract class XmlUtilities {
         return null;
     }
 
+    /**
+     * Parses a DOM document from text
+     * @param text XML text
+     * @return Document, or null if the text can not be parsed
+     * @example
+     * <pre name="test">
+     * parseDomDocument("<Root><Node1>Value1</Node1></Root>").getDocumentElement().getTextContent() === "Value1";
+     * parseDomDocument("<Root>") === null;
+     * </pre>
+     */
+    public static Document parseDomDocument(String text) {
+        try {
+            return getDocumentBuilder().parse( new InputSource(new StringReader(text)) );
+
+        } catch (ParserConfigurationException pce) {
+        } catch (SAXException se) {
+        } catch (IOException ioe) { }
+
+        return null;
+    }
+
     /**
      * Returns an DOM node from node list with a specified name.
      * @param nodes Node list